@@ -518,6 +518,28 @@ public class DefaultMessageFactory implements MessageFactory {
 		return cid.toString();
 	}
 
+	/**
+	 * @return The size of the body of a text (in characters) or bytes message,
+	 *         or 0 for other types. A bytes message still being written is made
+	 *         readable (see BytesMessage#reset) to find its length.
+	 * @throws JMSException
+	 */
+	public static long bodySize(Message msg) throws JMSException {
+		if (msg instanceof BytesMessage) {
+			final BytesMessage bmsg = (BytesMessage) msg;
+			try {
+				return bmsg.getBodyLength();
+			} catch (MessageNotReadableException e) {
+				bmsg.reset();
+				return bmsg.getBodyLength();
+			}
+		} else if (msg instanceof TextMessage) {
+			final String text = ((TextMessage) msg).getText();
+			return text == null ? 0 : text.length();
+		}
+		return 0;
+	}
+
 	/**
 	 * A helper method for data validation.  This attempts to return a byte array for the given
 	 * Message type.  Currently only TextMessage and BytesMessage are supported.  
@@ -206,7 +206,7 @@ public abstract class AbstractJMSProvider implements JMSProvider {
 
 		if (durable) {
 			// Note: change signature to match getConnection
-			setDurableConnectionId( tc, ((WorkerThread)Thread.currentThread()), uniqueID );
+			setDurableConnectionId( tc, WorkerThread.currentWorker(), uniqueID );
 		} // end if durable
 
 		return tc;
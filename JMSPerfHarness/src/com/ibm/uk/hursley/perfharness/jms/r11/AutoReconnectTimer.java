@@ -183,7 +183,7 @@ public final class AutoReconnectTimer extends JMS11WorkerThread implements Worke
         		storedException = e;
         		Log.logger.log(Level.SEVERE, (new StringBuilder("Exception received: ")).append(storedException).toString());
         		Log.logger.log(Level.INFO, "{0} messages processed from {1} on primary QM", new Object[] {
-                Integer.valueOf(getIterations()), getDestinationName(destProducer)
+                Long.valueOf(getIterations()), getDestinationName(destProducer)
         		});
         		Log.logger.log(Level.SEVERE, "Backing out transaction after failed " + cmdNames[cmd]);
         		session.rollback();
@@ -62,6 +62,7 @@ public class Publisher extends JMS11WorkerThread implements WorkerThread.Paceabl
         
         
         // Logger Text        
+        setDestination( getDestinationName( destProducer ) );
         Log.logger.log(Level.FINE, "Creating publisher on " + getDestinationName(destProducer));
         
         // Correlation ID
@@ -139,7 +140,9 @@ public class Publisher extends JMS11WorkerThread implements WorkerThread.Paceabl
 			outMessage = messages[numberSequencer.nextNumber()];
 		}
 		
+		stampSendTime( outMessage );
 		messageProducer.send( outMessage, deliveryMode, priority, expiry );
+		countBytes( outMessage );
 		if ( transacted && (getIterations()+1)%commitCount==0 ) session.commit();
 		incIterations();
 		return true;
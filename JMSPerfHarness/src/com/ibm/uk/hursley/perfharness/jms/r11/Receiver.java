@@ -50,6 +50,7 @@ public class Receiver extends JMS11WorkerThread implements WorkerThread.Paceable
         }
         
         String selector = null;
+        setDestination( getDestinationName( destConsumer ) );
         Log.logger.log(Level.FINE,"Creating receiver on {0} selector:{1}", new Object[] { getDestinationName(destConsumer), selector });
         
         messageConsumer = session.createConsumer( destConsumer, selector );
@@ -69,6 +70,8 @@ public class Receiver extends JMS11WorkerThread implements WorkerThread.Paceable
 	public boolean oneIteration() throws Exception {
 		startResponseTimePeriod();
 		if( (inMessage=messageConsumer.receive( timeout ))!=null ) {
+			recordSendTime( inMessage );
+			countBytes( inMessage );
 			if ( transacted && (getIterations()+1)%commitCount==0 ) session.commit();
 			incIterations();
 		}
@@ -80,6 +83,12 @@ public class Receiver extends JMS11WorkerThread implements WorkerThread.Paceable
 	 * @see javax.jms.MessageListener#onMessage(javax.jms.Message)
 	 */
 	public void onMessage(Message arg0) {
+		try {
+			recordSendTime( arg0 );
+			countBytes( arg0 );
+		} catch (JMSException je) {
+			handleException(je);
+		}
 		if ( transacted && (getIterations()+1)%commitCount==0 ) {
 			try {
 				session.commit();
@@ -37,6 +37,13 @@ public final class Requestor extends JMS11WorkerThread implements WorkerThread.P
 	private static boolean tempQueues;
 	private static boolean tempQueuePerMessage;
 
+	// Phases of each request, timed separately when response times are
+	// measured.
+	private static final int SPAN_SEND = defineSpan("send");
+	private static final int SPAN_SEND_COMMIT = defineSpan("sendCommit");
+	private static final int SPAN_RECEIVE = defineSpan("receive");
+	private static final int SPAN_RECEIVE_COMMIT = defineSpan("receiveCommit");
+
 	public static void registerConfig() {
 		Config.registerSelf( Requestor.class );		
 		//We use temporary queues if no specific output queue specified
@@ -77,6 +84,7 @@ public final class Requestor extends JMS11WorkerThread implements WorkerThread.P
       
         // Open queues
         destProducer = jmsProvider.lookupQueue(iq, session).destination;
+        setDestination(getDestinationName(destProducer));
         Log.logger.log( Level.FINE, "Creating sender on {0}", getDestinationName(destProducer));
         messageProducer = session.createProducer(destProducer);
         
@@ -130,11 +138,26 @@ public final class Requestor extends JMS11WorkerThread implements WorkerThread.P
 		}
 		
 		startResponseTimePeriod();
+		startSpan(SPAN_SEND);
 		messageProducer.send(outMessage, deliveryMode, priority, expiry);				
-		if (transacted) session.commit();
+		endSpan(SPAN_SEND);
+		countBytes(outMessage);
+		if (transacted) {
+			startSpan(SPAN_SEND_COMMIT);
+			session.commit();
+			endSpan(SPAN_SEND_COMMIT);
+		}
 		
-		if ((inMessage = messageConsumer.receive(timeout))!= null) {
-			if (transacted) session.commit();
+		startSpan(SPAN_RECEIVE);
+		inMessage = messageConsumer.receive(timeout);
+		endSpan(SPAN_RECEIVE);
+		if (inMessage != null) {
+			countBytes(inMessage);
+			if (transacted) {
+				startSpan(SPAN_RECEIVE_COMMIT);
+				session.commit();
+				endSpan(SPAN_RECEIVE_COMMIT);
+			}
 			incIterations();
 		} else {
 			throw new Exception("No response to message (\nID: "+outMessage.getJMSMessageID()+ "\nCorrId: " + outMessage.getJMSCorrelationID() +")");
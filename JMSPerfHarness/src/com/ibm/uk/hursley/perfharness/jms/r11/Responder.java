@@ -66,6 +66,7 @@ public final class Responder extends JMS11WorkerThread implements WorkerThread.P
         	destProducer = jmsProvider.lookupQueue( oq, session ).destination;
         }
         
+        setDestination( getDestinationName( destConsumer ) );
         Log.logger.log(Level.FINE, "Creating receiver on {0}", getDestinationName( destConsumer ) );
         messageConsumer = session.createConsumer( destConsumer );
 
@@ -108,6 +109,8 @@ public final class Responder extends JMS11WorkerThread implements WorkerThread.P
 			}
 			if (transacted) session.commit();
 			
+			countBytes(inMessage);
+			countBytes(outMessage);
 			incIterations();			
 		} else {
 			//Old behaviour was to just return from this method and proceed to the next iteration, which is why it behaves
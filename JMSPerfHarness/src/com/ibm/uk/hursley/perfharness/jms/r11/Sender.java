@@ -54,6 +54,7 @@ public class Sender extends JMS11WorkerThread implements WorkerThread.Paceable {
         	destProducer = jmsProvider.lookupQueue( destFactory.generateDestination( getThreadNum() ), session ).destination;
         }
         
+        setDestination( getDestinationName( destProducer ) );
         Log.logger.log(Level.FINE, "Creating sender on "
                 + getDestinationName(destProducer)
                 + (correlID == null ? "" : (" with correlId " + correlID)));
@@ -81,7 +82,9 @@ public class Sender extends JMS11WorkerThread implements WorkerThread.Paceable {
 	 */
 	public boolean oneIteration() throws Exception {
 		startResponseTimePeriod();
+		stampSendTime( outMessage );
 		messageProducer.send( outMessage, deliveryMode, priority, expiry );				
+		countBytes( outMessage );
 		
 		if ( transacted && (getIterations()+1)%commitCount==0 ) {
 		   if(commitDelay > 0) {
@@ -25,6 +25,7 @@ import javax.jms.JMSContext;
 import javax.jms.JMSException;
 import javax.jms.JMSProducer;
 import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 
@@ -73,6 +74,8 @@ public abstract class JMS20WorkerThread extends WorkerThread {
 	protected ConnectionFactory cf = null;
 	protected JMSContext context = null;
     protected MessageFactory msgFactory = null;
+    private Message sizedMessage = null;
+    private long sizedBytes;
 	protected JMSProducer messageProducer = null;
     protected JMSConsumer messageConsumer = null;
     protected ArrayList<MessageConsumer> additionalMessageConsumers = null;
@@ -243,6 +246,20 @@ public abstract class JMS20WorkerThread extends WorkerThread {
         }
     }	
 
+    /**
+     * Counts the body of a message sent or received, for the bytes/sec
+     * statistics (see DefaultMessageFactory#bodySize). Sent messages are
+     * usually reused, so the size of the last message counted is kept.
+     * @param message
+     */
+    protected final void countBytes(Message message) throws JMSException {
+    	if ( message!=sizedMessage ) {
+    		sizedBytes = DefaultMessageFactory.bodySize( message );
+    		sizedMessage = message;
+    	}
+    	addBytes( sizedBytes );
+    }
+
 
     /**
      * General implementation of the main body of a simple JMS primitive.
@@ -256,9 +273,9 @@ public abstract class JMS20WorkerThread extends WorkerThread {
     	while (!done && !shutdown) {
 	        try {
 	            // Connect to queuemanager
-	            status = sCONNECTING;
+	            setStatus(sCONNECTING);
 	            buildJMSResources();
-	            status = sRUNNING;
+	            setStatus(sRUNNING);
 	            Log.logger.fine("Entering client loop");
 	            if (listener != null) {
         			startTime = System.currentTimeMillis();
@@ -275,6 +292,7 @@ public abstract class JMS20WorkerThread extends WorkerThread {
 	        } catch (JMSException je) {
 	        	if (ignoreExceptions) {
 	        		Log.logger.fine("disconnected?");
+		incErrors();
 	        	} else {
 	        		handleException(je);
 	        	}
@@ -282,13 +300,13 @@ public abstract class JMS20WorkerThread extends WorkerThread {
 				handleException(e);
 	        } finally {
 	        	if (done) {
-	        		status = (status & sERROR)| sENDING;
+	        		setStatus((status & sERROR)| sENDING);
 	        		if (endTime == 0) {
 	        			endTime = System.currentTimeMillis();
 	        		}
 		           	destroyJMSResources(false);
 		           	Log.logger.info("STOP");
-		           	status = (status & sERROR) | sENDED;
+		           	setStatus((status & sERROR) | sENDED);
 	        	}
 	        }
     	} // end while !done
@@ -326,7 +344,8 @@ public abstract class JMS20WorkerThread extends WorkerThread {
     	}
     	
 		Log.logger.log(Level.SEVERE, "Uncaught exception: {0}", e);
-		status |= sERROR;
+		setStatus(status | sERROR);
+		incErrors();
 		ControlThread.signalShutdown();
 		done = true;
 	}	
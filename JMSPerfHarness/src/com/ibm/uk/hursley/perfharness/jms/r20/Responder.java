@@ -81,6 +81,7 @@ public final class Responder extends JMS20WorkerThread implements WorkerThread.P
     	DestinationWrapper<Queue> consumerDestinationWrapper = jmsProvider.lookupQueue(iq, context);
     	destConsumer = consumerDestinationWrapper.destination;
     	String consumerName = consumerDestinationWrapper.name;
+    	setDestination(consumerName);
         Log.logger.log(Level.FINE, "Creating receiver on {0}", consumerName);
         messageConsumer = context.createConsumer(destConsumer);
 
@@ -134,6 +135,8 @@ public final class Responder extends JMS20WorkerThread implements WorkerThread.P
 			}
 			if (transacted) context.commit();
 			
+			countBytes(inMessage);
+			countBytes(outMessage);
 			incIterations();			
 		} else {
 			//Old behaviour was to just return from this method and proceed to the next iteration, which is why it behaves
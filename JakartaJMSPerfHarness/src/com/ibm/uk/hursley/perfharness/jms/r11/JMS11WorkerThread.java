@@ -17,6 +17,7 @@ import jakarta.jms.ConnectionFactory;
 import jakarta.jms.DeliveryMode;
 import jakarta.jms.Destination;
 import jakarta.jms.JMSException;
+import jakarta.jms.Message;
 import jakarta.jms.MessageConsumer;
 import jakarta.jms.MessageListener;
 import jakarta.jms.MessageProducer;
@@ -33,6 +34,7 @@ import com.ibm.uk.hursley.perfharness.jms.DefaultMessageFactory;
 import com.ibm.uk.hursley.perfharness.jms.MessageFactory;
 import com.ibm.uk.hursley.perfharness.jms.providers.AbstractJMSProvider;
 import com.ibm.uk.hursley.perfharness.jms.providers.JMSProvider;
+import com.ibm.uk.hursley.perfharness.stats.OneWayLatency;
 
 /**
  * Provides a service layer for the lifecycle of all JMS 1.1 WorkerThreads.
@@ -62,6 +64,8 @@ public abstract class JMS11WorkerThread extends WorkerThread {
     protected Destination destConsumer = null;
     protected Destination tempQueue = null;
     protected MessageFactory msgFactory = null;
+    private Message sizedMessage = null;
+    private long sizedBytes;
     
     // Cache config settings
     protected final boolean transacted = Config.parms.getBoolean( "tx" );
@@ -262,11 +266,48 @@ public abstract class JMS11WorkerThread extends WorkerThread {
     	}
     	
 		Log.logger.log(Level.SEVERE, "Uncaught exception.", e);
-		status |= sERROR;
+		setStatus(status | sERROR);
+		incErrors();
 		ControlThread.signalShutdown();
 		done = true;
 	}
 
+    /**
+     * Stamps a message with the time it is being sent, if one-way latency is
+     * being measured (-et).
+     * @param message
+     */
+    protected final void stampSendTime(Message message) throws JMSException {
+    	if ( OneWayLatency.isEnabled() ) {
+    		message.setLongProperty( OneWayLatency.PROPERTY, OneWayLatency.now() );
+    	}
+    }
+
+    /**
+     * Counts the one-way latency of a message received, if it is being
+     * measured (-et) and the message was stamped by stampSendTime.
+     * @param message
+     */
+    protected final void recordSendTime(Message message) throws JMSException {
+    	if ( OneWayLatency.isEnabled() && message.propertyExists( OneWayLatency.PROPERTY ) ) {
+    		recordLatency( message.getLongProperty( OneWayLatency.PROPERTY ) );
+    	}
+    }
+
+    /**
+     * Counts the body of a message sent or received, for the bytes/sec
+     * statistics (see DefaultMessageFactory#bodySize). Sent messages are
+     * usually reused, so the size of the last message counted is kept.
+     * @param message
+     */
+    protected final void countBytes(Message message) throws JMSException {
+    	if ( message!=sizedMessage ) {
+    		sizedBytes = DefaultMessageFactory.bodySize( message );
+    		sizedMessage = message;
+    	}
+    	addBytes( sizedBytes );
+    }
+
     /**
      * General implementation of the main body of a simple JMS primitive.
      * @param paceable A paceable instance of WorkerThread.
@@ -282,11 +323,11 @@ public abstract class JMS11WorkerThread extends WorkerThread {
 	        try {
 					
 	            // Connect to queuemanager
-	            status = sCONNECTING;
+	            setStatus(sCONNECTING);
 	                        
 	            buildJMSResources();
 	
-	            status = sRUNNING;
+	            setStatus(sRUNNING);
 	
 	            Log.logger.fine( "Entering client loop" );
 
@@ -310,6 +351,7 @@ public abstract class JMS11WorkerThread extends WorkerThread {
 	        	
 	        	if ( ignoreExceptions ) {
 	        		Log.logger.fine("disconnected?");
+		incErrors();
 					
 	        	} else {
 	        		handleException( je );
@@ -324,7 +366,7 @@ public abstract class JMS11WorkerThread extends WorkerThread {
 	        	
 	        	if ( done ) {
 	        		
-	        		status = (status&sERROR)|sENDING;
+	        		setStatus((status&sERROR)|sENDING);
 	        		
 	        		if ( endTime==0 ) {
 	        			endTime = System.currentTimeMillis();
@@ -333,7 +375,7 @@ public abstract class JMS11WorkerThread extends WorkerThread {
 		           	destroyJMSResources(false);
 
 		           	Log.logger.info("STOP");
-		           	status = (status&sERROR)|sENDED;
+		           	setStatus((status&sERROR)|sENDED);
 		           	
 	        	} else {
 	        		// ! done
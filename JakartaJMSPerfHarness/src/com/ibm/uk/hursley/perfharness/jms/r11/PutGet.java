@@ -83,6 +83,7 @@ public final class PutGet extends JMS11WorkerThread implements WorkerThread.Pace
         }
         
         String destName = getDestinationName( destProducer );
+        setDestination( destName );
         Log.logger.log(Level.FINE, "Creating receiver on {0} selector:{1}", new Object[] {destName, selector});
         System.out.println("Creating receiver on " + destName + " with selector: " + selector);
         messageConsumer = session.createConsumer((Queue)destProducer, selector);
@@ -120,7 +121,9 @@ public final class PutGet extends JMS11WorkerThread implements WorkerThread.Pace
 			session.commit();
 		}
 
+		countBytes(outMessage);
 		if ((inMessage = messageConsumer.receive(timeout)) != null) {
+			countBytes(inMessage);
 			// these three items should be an atomic operation!
 			if (transacted) session.commit();
 			incIterations();
@@ -152,7 +152,7 @@ public final class ReconnectTimer extends JMS11WorkerThread implements WorkerThr
         		storedException = e;
         		Log.logger.log(Level.SEVERE, (new StringBuilder("Exception received: ")).append(storedException).toString());
         		Log.logger.log(Level.INFO, "{0} messages processed from {1} on primary QM", new Object[] {
-                Integer.valueOf(getIterations()), getDestinationName(destProducer)
+                Long.valueOf(getIterations()), getDestinationName(destProducer)
         		});
         	}
             exceptionReceived = true;
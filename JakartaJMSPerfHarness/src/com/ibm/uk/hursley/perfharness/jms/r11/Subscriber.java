@@ -204,6 +204,7 @@ public class Subscriber extends JMS11WorkerThread implements WorkerThread.Paceab
 		}
 
 		String destName = getDestinationName( destConsumer );
+		setDestination( destName );
 		Log.logger.log(Level.FINE, "Creating receiver on {0} selector:{1}", new Object[] { destName, selector} );
 		
 		// Check to see if we are being asked to support multiple messageConsumers per Subscriber
@@ -254,6 +255,8 @@ public class Subscriber extends JMS11WorkerThread implements WorkerThread.Paceab
 	public boolean oneIteration() throws Exception {
 
 		if( (inMessage=messageConsumer.receive( timeout ))!=null ) {
+			recordSendTime( inMessage );
+			countBytes( inMessage );
 			if ( transacted && (getIterations()+1)%commitCount==0 ) session.commit();
 			incIterations();
 		} else {
@@ -267,6 +270,12 @@ public class Subscriber extends JMS11WorkerThread implements WorkerThread.Paceab
 	 * @see javax.jms.MessageListener#onMessage(javax.jms.Message)
 	 */
 	public void onMessage(Message arg0) {
+		try {
+			recordSendTime( arg0 );
+			countBytes( arg0 );
+		} catch (JMSException je) {
+			handleException(je);
+		}
 		if ( transacted && (getIterations()+1)%commitCount==0 ) {
 			try {
 				session.commit();
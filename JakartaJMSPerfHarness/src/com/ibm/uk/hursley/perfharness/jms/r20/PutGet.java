@@ -59,6 +59,7 @@ public final class PutGet extends JMS20WorkerThread implements WorkerThread.Pace
         DestinationWrapper<Queue> producerDestinationWrapper = jmsProvider.lookupQueue(destFactory.generateDestination(getThreadNum()), context);
     	destProducer = producerDestinationWrapper.destination;
     	String destName = producerDestinationWrapper.name;
+    	setDestination(destName);
         outMessage = msgFactory.createMessage(context);
     
         String selector = null;
@@ -105,7 +106,9 @@ public final class PutGet extends JMS20WorkerThread implements WorkerThread.Pace
 		messageProducer.send(destProducer, outMessage);				
 		if (transacted) context.commit();
 
+		countBytes(outMessage);
 		if ((inMessage = messageConsumer.receive(timeout)) != null) {
+			countBytes(inMessage);
 			if (transacted) context.commit();
 			incIterations();
 		} else {
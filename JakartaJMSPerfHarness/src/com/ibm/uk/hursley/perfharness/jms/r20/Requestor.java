@@ -46,6 +46,13 @@ public final class Requestor extends JMS20WorkerThread implements WorkerThread.P
 	private static boolean tempQueues;
 	private static boolean tempQueuePerMessage;
 
+	// Phases of each request, timed separately when response times are
+	// measured.
+	private static final int SPAN_SEND = defineSpan("send");
+	private static final int SPAN_SEND_COMMIT = defineSpan("sendCommit");
+	private static final int SPAN_RECEIVE = defineSpan("receive");
+	private static final int SPAN_RECEIVE_COMMIT = defineSpan("receiveCommit");
+
 	public static void registerConfig() {
 		Config.registerSelf(Requestor.class);
 		
@@ -89,6 +96,7 @@ public final class Requestor extends JMS20WorkerThread implements WorkerThread.P
         DestinationWrapper<Queue> producerDestinationWrapper = jmsProvider.lookupQueue(iq, context);
     	destProducer = producerDestinationWrapper.destination;
     	String producerName = producerDestinationWrapper.name;
+    	setDestination(producerName);
     	
         Log.logger.log( Level.FINE, "Creating sender on {0}", producerName);
         messageProducer = context.createProducer();
@@ -142,11 +150,26 @@ public final class Requestor extends JMS20WorkerThread implements WorkerThread.P
 			outMessage.setJMSReplyTo(destConsumer);
 		}
 		
+		startSpan(SPAN_SEND);
 		messageProducer.send(destProducer, outMessage);				
-		if ( transacted ) context.commit();
+		endSpan(SPAN_SEND);
+		countBytes(outMessage);
+		if ( transacted ) {
+			startSpan(SPAN_SEND_COMMIT);
+			context.commit();
+			endSpan(SPAN_SEND_COMMIT);
+		}
 		
-		if ((inMessage = messageConsumer.receive(timeout)) != null) {
-			if ( transacted ) context.commit();
+		startSpan(SPAN_RECEIVE);
+		inMessage = messageConsumer.receive(timeout);
+		endSpan(SPAN_RECEIVE);
+		if (inMessage != null) {
+			countBytes(inMessage);
+			if ( transacted ) {
+				startSpan(SPAN_RECEIVE_COMMIT);
+				context.commit();
+				endSpan(SPAN_RECEIVE_COMMIT);
+			}
 			incIterations();
 		} else {
 			throw new Exception("No response to message (\nID: " + outMessage.getJMSMessageID() + "\nCorrID: " + outMessage.getJMSCorrelationID() +" )");
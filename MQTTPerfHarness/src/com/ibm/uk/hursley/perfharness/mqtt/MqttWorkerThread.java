@@ -17,12 +17,14 @@ import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.MqttTopic;
 import com.ibm.uk.hursley.perfharness.Config;
 import com.ibm.uk.hursley.perfharness.ControlThread;
 import com.ibm.uk.hursley.perfharness.DestinationFactory;
 import com.ibm.uk.hursley.perfharness.Log;
 import com.ibm.uk.hursley.perfharness.WorkerThread;
+import com.ibm.uk.hursley.perfharness.stats.OneWayLatency;
 import com.ibm.uk.hursley.perfharness.util.TypedPropertyException;
 
 public abstract class MqttWorkerThread extends WorkerThread {
@@ -183,11 +185,44 @@ public abstract class MqttWorkerThread extends WorkerThread {
     	}
     	
 		Log.logger.log(Level.SEVERE, "Uncaught exception.", e);
-		status |= sERROR;
+		setStatus(status | sERROR);
+		incErrors();
 		ControlThread.signalShutdown();
 		done = true;
 	}
     
+    /**
+     * If one-way latency is being measured (-et), copies a message with the
+     * time it is being sent at the start of its body. The message given may
+     * still be in flight, so is not changed.
+     * @param message
+     * @return The stamped copy, or the message given.
+     */
+    protected final MqttMessage stampSendTime(MqttMessage message) {
+    	if ( !OneWayLatency.isEnabled() ) {
+    		return message;
+    	}
+    	final MqttMessage stamped = new MqttMessage( message.getPayload().clone() );
+    	stamped.setQos( message.getQos() );
+    	stamped.setRetained( message.isRetained() );
+    	OneWayLatency.write( stamped.getPayload() );
+    	return stamped;
+    }
+
+    /**
+     * Counts the one-way latency of a message received, if it is being
+     * measured (-et) and the message was stamped by stampSendTime.
+     * @param message
+     */
+    protected final void recordSendTime(MqttMessage message) {
+    	if ( OneWayLatency.isEnabled() ) {
+    		final long sendTime = OneWayLatency.read( message.getPayload() );
+    		if ( sendTime>=0 ) {
+    			recordLatency( sendTime );
+    		}
+    	}
+    }
+
     /**
      * General implementation of the main body of a simple MQTT primitive.
      * @param paceable A paceable instance of WorkerThread.
@@ -203,11 +238,11 @@ public abstract class MqttWorkerThread extends WorkerThread {
 	        try {
 					
 	            // Connect to queuemanager
-	            status = sCONNECTING;
+	            setStatus(sCONNECTING);
 	                        
 	            buildMQTTResources();
 	
-	            status = sRUNNING;
+	            setStatus(sRUNNING);
 	
 	            Log.logger.fine( "Entering client loop" );
 
@@ -232,7 +267,8 @@ public abstract class MqttWorkerThread extends WorkerThread {
 	        	if ( ignoreExceptions ) {
 	        		Log.logger.fine("disconnected?");
 	        		Log.logger.log(Level.SEVERE, "MQTT Exception.", je);
-	        		status |= sERROR;
+	        		setStatus(status | sERROR);
+	        		incErrors();
 	        		done = true;
 	        	} else {
 	        		handleException( je );
@@ -243,7 +279,7 @@ public abstract class MqttWorkerThread extends WorkerThread {
 				Log.logger.log(Level.SEVERE,
 					"OutOfMemoryError in MQTT worker thread {0}: {1}",
 					new Object[]{getName(), oome.getMessage()});
-				status |= sERROR;
+				setStatus(status | sERROR);
 				done = true;
 				shutdown = true;
 				// Signal ControlThread to stop
@@ -260,7 +296,7 @@ public abstract class MqttWorkerThread extends WorkerThread {
 	        	
 	        	if ( done ) {
 	        		
-	        		status = (status&sERROR)|sENDING;
+	        		setStatus((status&sERROR)|sENDING);
 	        		
 	        		if ( endTime==0 ) {
 	        			endTime = System.currentTimeMillis();
@@ -269,7 +305,7 @@ public abstract class MqttWorkerThread extends WorkerThread {
 		           	destroyMQTTResources(false);
 
 		           	Log.logger.info("STOP");
-		           	status = (status&sERROR)|sENDED;
+		           	setStatus((status&sERROR)|sENDED);
 		           	
 	        	} else {
 	        		// ! done
@@ -25,6 +25,8 @@ public class MultiPublisher extends MqttWorkerThread implements WorkerThread.Pac
 	
 	// use this instead of destProducer
 	protected MqttTopic[] destProducers = null;
+	// The destination index (for -sb) of each of destProducers
+	private int[] destIndexes = null;
 	
 	/*
 	 * Be very careful with SEQUENTIAL publishing. 
@@ -69,8 +71,10 @@ public class MultiPublisher extends MqttWorkerThread implements WorkerThread.Pac
 			}
 			
 			destProducers = new MqttTopic[dests.length];
+			destIndexes = new int[dests.length];
 			for(int i = 0; i < dests.length; i++) {
 				destProducers[i] = messageConnection.getTopic(dests[i]);
+				destIndexes[i] = getDestinationIndex(dests[i]);
 				Log.logger.log(Level.FINE,
 						"Associating multi-client: {0} with topic: {1}", new Object[] {
 								connid, destProducers[i].getName() });
@@ -102,15 +106,19 @@ public class MultiPublisher extends MqttWorkerThread implements WorkerThread.Pac
 	@Override
 	public boolean oneIteration() throws Exception {
 		
+		final int topic;
 		if (style == STYLE_SEQUENTIAL) {
-			destProducers[nextTopic++].publish( outMessage );
+			topic = nextTopic++;
 			if (nextTopic >= destProducers.length) {
 				nextTopic = 0; // reset
 			}
 		} else {
-			destProducers[ randomGenerator.nextInt(destProducers.length) ].publish( outMessage );
+			topic = randomGenerator.nextInt(destProducers.length);
 		}
+		selectDestination( destIndexes[topic] );
+		destProducers[topic].publish( stampSendTime( outMessage ) );
 		
+		addBytes( outMessage.getPayload().length );
 		incIterations();
 		return true;
 	}
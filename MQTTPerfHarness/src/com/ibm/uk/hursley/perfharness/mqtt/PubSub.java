@@ -69,6 +69,7 @@ public final class PubSub extends MqttWorkerThread
         	//destProducer = messageConnection.getTopic(topicname);
         }
         
+        setDestination(destProducer.getName());
         messageConnection.subscribe(destProducer.getName(), qos);
         
         outMessage = new MqttMessage(msgFactory.createMessage( getName(), 0 ));
@@ -112,11 +113,11 @@ public final class PubSub extends MqttWorkerThread
 	        try {
 					
 	            // Connect to queuemanager
-	            status = sCONNECTING;
+	            setStatus(sCONNECTING);
 	                        
 	            buildMQTTResources();
 	
-	            status = sRUNNING;
+	            setStatus(sRUNNING);
 	
 	            Log.logger.fine( "Entering client loop" );
 
@@ -132,6 +133,7 @@ public final class PubSub extends MqttWorkerThread
 	        	
 	        	if ( ignoreExceptions ) {
 	        		Log.logger.fine("disconnected?");
+	        		incErrors();
 					
 	        	} else {
 	        		handleException( je );
@@ -146,7 +148,7 @@ public final class PubSub extends MqttWorkerThread
 	        	
 	        	if ( done ) {
 	        		
-	        		status = (status&sERROR)|sENDING;
+	        		setStatus((status&sERROR)|sENDING);
 	        		
 	        		if ( endTime==0 ) {
 	        			endTime = System.currentTimeMillis();
@@ -155,7 +157,7 @@ public final class PubSub extends MqttWorkerThread
 		           	destroyMQTTResources(false);
 
 		           	Log.logger.info("STOP");
-		           	status = (status&sERROR)|sENDED;
+		           	setStatus((status&sERROR)|sENDED);
 		           	
 	        	} else {
 	        		// ! done
@@ -177,6 +179,7 @@ public final class PubSub extends MqttWorkerThread
 	public final boolean oneIteration() throws Exception {
 		
 		dt = destProducer.publish( outMessage );
+		addBytes( outMessage.getPayload().length );
 		
 		waitOnListener(++messagesPublished);
 		
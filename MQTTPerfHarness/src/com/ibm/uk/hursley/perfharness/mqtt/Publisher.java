@@ -11,6 +11,8 @@
 
 package com.ibm.uk.hursley.perfharness.mqtt;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.logging.Level;
 
 import org.eclipse.paho.client.mqttv3.*;
@@ -19,12 +21,15 @@ import com.ibm.uk.hursley.perfharness.Config;
 import com.ibm.uk.hursley.perfharness.ControlThread;
 import com.ibm.uk.hursley.perfharness.Log;
 import com.ibm.uk.hursley.perfharness.WorkerThread;
+import com.ibm.uk.hursley.perfharness.stats.OneWayLatency;
 
 /**
  * @author icraggs Publish messages to a Topic.
+ * <p>With -aw greater than 1, publishes are not waited for and up to that many
+ * may be awaiting delivery at once.
  */
 public final class Publisher extends MqttWorkerThread implements
-		WorkerThread.Paceable {
+		WorkerThread.AsyncPaceable, IMqttActionListener {
 
 	@SuppressWarnings("unused")
 	private static final String c = com.ibm.uk.hursley.perfharness.Copyright.COPYRIGHT; // IGNORE
@@ -33,6 +38,25 @@ public final class Publisher extends MqttWorkerThread implements
 
 	protected MqttMessage outMessage = null;
 
+	// Topics named by a replayed trace (-tr), with their destination indexes
+	private final HashMap<String, MqttTopic> traceTopics = new HashMap<String, MqttTopic>();
+	private final HashMap<String, Integer> traceIndexes = new HashMap<String, Integer>();
+	private int destIndex;
+
+	/**
+	 * The user context of an asynchronous publish. Paho may report a delivery
+	 * after we have already seen it complete and reused its handle, so the
+	 * handle is completed only for the generation it was issued with.
+	 */
+	private static final class Delivery {
+		final Completion completion;
+		final int generation;
+		Delivery(Completion completion) {
+			this.completion = completion;
+			this.generation = completion.getGeneration();
+		}
+	}
+
 	public static void registerConfig() {
 		Config.registerSelf(Publisher.class);
 	}
@@ -44,6 +68,10 @@ public final class Publisher extends MqttWorkerThread implements
 	 */
 	public Publisher(String name) {
 		super(name);
+		if (getAsyncWindow() > maxinflight) {
+			// Paho refuses to publish beyond its own in-flight limit
+			props.setMaxInflight(getAsyncWindow());
+		}
 	}
 
 	protected void buildMQTTResources() throws Exception {
@@ -57,6 +85,8 @@ public final class Publisher extends MqttWorkerThread implements
 					"Associating client: {0} with topic: {1}", new Object[] {
 							connid, destProducer.getName() });
 		}
+		setDestination(destProducer.getName());
+		destIndex = getDestinationIndex(destProducer.getName());
 
 		outMessage = new MqttMessage(msgFactory.createMessage(getName(), 0));
 		outMessage.setQos(qos);
@@ -92,7 +122,9 @@ public final class Publisher extends MqttWorkerThread implements
     }
     
     try {
-        destProducer.publish(outMessage);
+        final MqttMessage message = traceMessage();
+        traceTopic().publish(message);
+        addBytes(message.getPayload().length);
         incIterations();
         return true;
     } catch (MqttException e) {
@@ -103,4 +135,102 @@ public final class Publisher extends MqttWorkerThread implements
         throw e; // Re-throw other exceptions
     }
 	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.ibm.uk.hursley.perfharness.WorkerThread.AsyncPaceable#startIteration()
+	 */
+	public final Completion startIteration() throws Exception {
+		if (messageConnection == null || !messageConnection.isConnected()) {
+			Log.logger.log(Level.WARNING, "Client {0} not connected, skipping iteration", connid);
+			return null;
+		}
+
+		// Select the destination before the completion records it
+		final MqttTopic topic = traceTopic();
+		final MqttMessage message = traceMessage();
+		final Completion completion = newCompletion();
+		final Delivery delivery = new Delivery(completion);
+		final MqttDeliveryToken token;
+		try {
+			token = topic.publish(message);
+		} catch (MqttException e) {
+			completion.abandon();
+			if (e.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED) {
+				Log.logger.log(Level.WARNING, "Lost connection during publish for {0}", connid);
+				return null;
+			}
+			throw e;
+		}
+		addBytes(message.getPayload().length);
+		token.setUserContext(delivery);
+		token.setActionCallback(this);
+		if (token.isComplete()) {
+			// Delivery may have finished before we attached the callback;
+			// the completion ignores being told twice.
+			if (token.getException() == null) {
+				completion.complete(delivery.generation);
+			} else {
+				completion.fail(delivery.generation, token.getException());
+			}
+		}
+		return completion;
+	}
+
+	/**
+	 * Selects the destination of this iteration for the statistics (-sb).
+	 * @return The topic named by a replayed trace for this iteration, or our
+	 *         usual topic.
+	 */
+	private MqttTopic traceTopic() {
+		final String destination = getTraceDestination();
+		if (destination == null) {
+			selectDestination(destIndex);
+			return destProducer;
+		}
+		MqttTopic topic = traceTopics.get(destination);
+		if (topic == null) {
+			topic = messageConnection.getTopic(destination);
+			traceTopics.put(destination, topic);
+			traceIndexes.put(destination, getDestinationIndex(destination));
+		}
+		selectDestination(traceIndexes.get(destination));
+		return topic;
+	}
+
+	/**
+	 * @return A message of the size given by a replayed trace for this
+	 *         iteration, or our usual message, stamped with the time it is
+	 *         sent (-et).
+	 */
+	private MqttMessage traceMessage() {
+		final int size = getTraceSize();
+		final byte[] payload = outMessage.getPayload();
+		if (size < 0 || size == payload.length) {
+			return stampSendTime(outMessage);
+		}
+		// A new message each time, as earlier ones may still be in flight
+		final MqttMessage message = new MqttMessage(Arrays.copyOf(payload, size));
+		message.setQos(qos);
+		message.setRetained(false);
+		if (OneWayLatency.isEnabled()) {
+			OneWayLatency.write(message.getPayload());
+		}
+		return message;
+	}
+
+	public void onSuccess(IMqttToken token) {
+		final Delivery delivery = (Delivery) token.getUserContext();
+		if (delivery != null) {
+			delivery.completion.complete(delivery.generation);
+		}
+	}
+
+	public void onFailure(IMqttToken token, Throwable e) {
+		final Delivery delivery = (Delivery) token.getUserContext();
+		if (delivery != null) {
+			delivery.completion.fail(delivery.generation, e);
+		}
+	}
 }
@@ -42,6 +42,7 @@ public final class SubPub extends MqttWorkerThread
 					"Associating client: {0} with topic: {1}", new Object[] {
 							connid, destConsumer.getName() });
 		}
+		setDestination(destConsumer.getName());
 
 		messageConnection.subscribe(destConsumer.getName(), qos);
 		
@@ -95,6 +96,7 @@ public final class SubPub extends MqttWorkerThread
 	@Override
 	public void messageArrived(String topic, MqttMessage message) throws Exception {
 		destProducer.publish( outMessage );
+		addBytes( message.getPayload().length + outMessage.getPayload().length );
 		incIterations();
 	}
 
@@ -63,6 +63,7 @@ public final class Subscriber extends MqttWorkerThread
 					"Associating client: {0} with topic: {1}", new Object[] {
 							connid, destConsumer.getName() });
 		}
+		setDestination(destConsumer.getName());
 
 		messageConnection.subscribe(destConsumer.getName(), qos);
 
@@ -97,6 +98,8 @@ public final class Subscriber extends MqttWorkerThread
 	public void messageArrived(String topic, MqttMessage message) throws java.lang.Exception
     {
 
+		recordSendTime(message);
+		addBytes(message.getPayload().length);
 		incIterations();
 		
 	}
@@ -0,0 +1,54 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+ ********************************************************** {COPYRIGHT-END} **/
+/*
+ * JMSPerfHarness $Name:  $
+ */
+
+import java.util.logging.Level;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.Log;
+import com.ibm.uk.hursley.perfharness.stats.RunComparison;
+
+/**
+ * Compare runs recorded in histogram logs written with -hg, for example a
+ * new client library against the current one, ignoring the first minute of
+ * each:
+ * <pre>
+ * java PerfHarnessCompare -rci current.hlog,new.hlog -rcw 60
+ * </pre>
+ * The exit code is 0 if no run regressed beyond the thresholds (-rct, -rcl),
+ * 2 if one did and 1, as for the other commands, if the options or logs are
+ * not valid, so that the comparison can gate a build.
+ */
+public final class PerfHarnessCompare {
+
+	@SuppressWarnings("unused")
+	private static final String c = com.ibm.uk.hursley.perfharness.Copyright.COPYRIGHT; // IGNORE compiler warning
+
+	/**
+	 * Main method 
+	 * @param args The commandline.
+	 */
+	public static void main(String[] args) {
+
+		Config.init( args, RunComparison.class );
+		Config.markLoaded();
+		try {
+			if ( !new RunComparison().run() ) {
+				System.exit(2);
+			}
+		} catch (Exception e) {
+			Log.logger.log( Level.SEVERE, "Cannot compare runs.", e );
+			System.exit(1);
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+ ********************************************************** {COPYRIGHT-END} **/
+/*
+ * JMSPerfHarness $Name:  $
+ */
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.cmd.Coordinator;
+
+/**
+ * Start a Coordinator which drives several PerfHarness processes (agents) as
+ * one test. For example, with two agents on this machine:
+ * <pre>
+ * java JMSPerfHarness -cmd_c SocketCommandProcessor -cmd_go -cmd_p 4444 ...
+ * java JMSPerfHarness -cmd_c SocketCommandProcessor -cmd_go -cmd_p 4445 ...
+ * java PerfHarnessCoordinator -cmd_a localhost:4444,localhost:4445 -cmd_i 5
+ * </pre>
+ */
+public final class PerfHarnessCoordinator {
+
+	@SuppressWarnings("unused")
+	private static final String c = com.ibm.uk.hursley.perfharness.Copyright.COPYRIGHT; // IGNORE compiler warning
+
+	/**
+	 * Main method 
+	 * @param args The commandline.
+	 */
+	public static void main(String[] args) {
+
+		Config.init( args, Coordinator.class );
+		Config.markLoaded();
+		new Coordinator().start();
+
+	}
+
+}
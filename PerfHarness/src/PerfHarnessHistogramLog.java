@@ -0,0 +1,48 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+ ********************************************************** {COPYRIGHT-END} **/
+/*
+ * JMSPerfHarness $Name:  $
+ */
+
+import java.util.logging.Level;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.Log;
+import com.ibm.uk.hursley.perfharness.stats.HistogramLogReader;
+
+/**
+ * Print response time percentiles from histogram logs written with -hg. For
+ * example, 10 second slices of the first 5 minutes of two machines' logs:
+ * <pre>
+ * java PerfHarnessHistogramLog -hri a.hlog,b.hlog -hre 300 -hrw 10
+ * </pre>
+ */
+public final class PerfHarnessHistogramLog {
+
+	@SuppressWarnings("unused")
+	private static final String c = com.ibm.uk.hursley.perfharness.Copyright.COPYRIGHT; // IGNORE compiler warning
+
+	/**
+	 * Main method 
+	 * @param args The commandline.
+	 */
+	public static void main(String[] args) {
+
+		Config.init( args, HistogramLogReader.class );
+		Config.markLoaded();
+		try {
+			new HistogramLogReader().run();
+		} catch (Exception e) {
+			Log.logger.log( Level.SEVERE, "Cannot read histogram log.", e );
+			System.exit(1);
+		}
+
+	}
+
+}
@@ -0,0 +1,48 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+ ********************************************************** {COPYRIGHT-END} **/
+/*
+ * JMSPerfHarness $Name:  $
+ */
+
+import java.util.logging.Level;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.Log;
+import com.ibm.uk.hursley.perfharness.stats.TimeSeriesReader;
+
+/**
+ * Export a time series file written with -zb as CSV. For example, the first
+ * 24 hours of a soak test as one minute rows:
+ * <pre>
+ * java PerfHarnessTimeSeries -zbi soak.phts -zbe 86400 -zbw 60
+ * </pre>
+ */
+public final class PerfHarnessTimeSeries {
+
+	@SuppressWarnings("unused")
+	private static final String c = com.ibm.uk.hursley.perfharness.Copyright.COPYRIGHT; // IGNORE compiler warning
+
+	/**
+	 * Main method 
+	 * @param args The commandline.
+	 */
+	public static void main(String[] args) {
+
+		Config.init( args, TimeSeriesReader.class );
+		Config.markLoaded();
+		try {
+			new TimeSeriesReader().run();
+		} catch (Exception e) {
+			Log.logger.log( Level.SEVERE, "Cannot read time series.", e );
+			System.exit(1);
+		}
+
+	}
+
+}
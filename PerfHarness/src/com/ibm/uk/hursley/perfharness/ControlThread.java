@@ -11,15 +11,26 @@ package com.ibm.uk.hursley.perfharness;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import com.ibm.uk.hursley.perfharness.cmd.Command;
+import com.ibm.uk.hursley.perfharness.cmd.HarnessControl;
+import com.ibm.uk.hursley.perfharness.stats.HistogramLog;
+import com.ibm.uk.hursley.perfharness.stats.MetricsEndpoint;
 import com.ibm.uk.hursley.perfharness.stats.Statistics;
+import com.ibm.uk.hursley.perfharness.stats.TimeSeriesStore;
 import com.ibm.uk.hursley.perfharness.util.ShutdownHook;
 import com.ibm.uk.hursley.perfharness.util.ShutdownSocketHandler;
 
@@ -45,14 +56,29 @@ public class ControlThread extends Thread {
 	private static Timer timer = null;
 	
 	/**
-	 * All workers threads, regardless of status.  <b>Access to this array leading to alterations MUST be synchronised.</b>
+	 * All workers threads, regardless of status. Workers are only ever added,
+	 * so the copy-on-write list lets the statistics and command threads
+	 * iterate it without locking out the ControlThread.
 	 */
-	protected final ArrayList<WorkerThread> workers = new ArrayList<WorkerThread>();
+	protected final CopyOnWriteArrayList<WorkerThread> workers = new CopyOnWriteArrayList<WorkerThread>();
 	
 	/**
-	 * Not to be trusted 100% but this gives the number of currently operating workers.
+	 * Not to be trusted 100% but this gives the number of currently operating
+	 * workers. Workers are counted in by the ControlThread and out by whichever
+	 * thread stops them.
 	 */
-	protected volatile int runningWorkers = 0;
+	protected final AtomicInteger runningWorkers = new AtomicInteger();
+
+	/**
+	 * Workers stopped by removeWorkers which have not yet ended, with the time
+	 * each was stopped. The ControlThread reaps them (see reapWorkers).
+	 */
+	private final Map<WorkerThread, StoppingWorker> stoppingWorkers = new ConcurrentHashMap<WorkerThread, StoppingWorker>();
+
+	private static final class StoppingWorker {
+		final long stopped = System.currentTimeMillis();
+		boolean interrupted = false;
+	}
 
 	/**
 	 * The thread implementing statistics aggregation and reporting.
@@ -69,15 +95,79 @@ public class ControlThread extends Thread {
 	 */
 	private TimerTask runlengthTimer = null;
 
+	/**
+	 * Searches for the maximum sustainable rate (-fs), if requested.
+	 */
+	private SaturationFinder saturationFinder = null;
+
+	/**
+	 * Drives the scripted load phases (-lp), if requested.
+	 */
+	private LoadProfile loadProfile = null;
+
+	/**
+	 * Records each interval's response time histogram (-hg), if requested.
+	 */
+	private HistogramLog histogramLog = null;
+	private TimeSeriesStore timeSeriesStore = null;
+	private MetricsEndpoint metricsEndpoint = null;
+	private HarnessControl harnessControl = null;
+
+	/**
+	 * When a coordinator's GO command is due to start the workers (ms), or -1.
+	 */
+	private long goTime = -1;
+
+	/**
+	 * When the workers were started (ms), or 0 if they have not been.
+	 */
+	private volatile long runStartTime = 0;
+
 	/**
 	 * All WorkerThreads are added to this group for ease of monitoring.
 	 */
 	protected static ThreadGroup workerThreadGroup = null;
 
 	/**
-	 * Worker name
+	 * Workers which have been started but have not yet reported that they are
+	 * running (or have failed), with the time each was started.
+	 */
+	private final Map<WorkerThread, Long> startingWorkers = new ConcurrentHashMap<WorkerThread, Long>();
+
+	/**
+	 * Starting workers whose status has changed, as reported by workerStatusChanged.
+	 */
+	private final BlockingQueue<WorkerThread> startupEvents = new LinkedBlockingQueue<WorkerThread>();
+
+	/**
+	 * Time (ms) taken by each worker started so far to reach sRUNNING.
+	 */
+	private long[] connectTimes = new long[16];
+	private int connectCount = 0;
+
+	/**
+	 * How often (ms) starting workers are checked in case they do not report
+	 * their status changes.
 	 */
-	private	static String workerClass;	
+	private static final long STARTUP_POLL = 200;
+
+	/**
+	 * Forwards WorkerThread status changes to every ControlThread.
+	 */
+	private static final WorkerThread.StatusListener statusForwarder = new WorkerThread.StatusListener() {
+		public void statusChanged(WorkerThread worker, int status) {
+			ArrayList<ControlThread> cloneList;
+			synchronized ( controllers ) {
+				cloneList = new ArrayList<ControlThread>( controllers );
+			}
+			for ( final ControlThread ct : cloneList ) {
+				ct.workerStatusChanged( worker, status );
+			}
+		}
+	};
+
+	static final String WORKERS_PLATFORM = "platform";
+	static final String WORKERS_VIRTUAL = "virtual";
 	
 	/**
 	 * Register our presence and look up any required parameters for this class. 
@@ -103,13 +193,43 @@ public class ControlThread extends Thread {
 				Config.registerAnother( ctClazz );
 			}
 
+			final String mode = Config.parms.getString( "wm" );
+			if ( WORKERS_VIRTUAL.equals( mode ) ) {
+				final ThreadFactory factory = getVirtualThreadFactory();
+				if ( factory==null ) {
+					Log.logger.warning( "Virtual threads are not available in this JVM, WorkerThreads will use platform threads." );
+				}
+				WorkerThread.setCarrierFactory( factory );
+			} else if ( !WORKERS_PLATFORM.equals( mode ) ) {
+				Config.logger.warning( "-wm must be one of {"+WORKERS_PLATFORM+","+WORKERS_VIRTUAL+"}" );
+			}
+
 		}
 
 		WorkerThread.registerConfig();
 		Statistics.registerConfig();
+		SaturationFinder.registerConfig();
+		LoadProfile.registerConfig();
 		Command.registerConfig();
-			
-		workerClass = Config.parms.getClazz("tc").getSimpleName();
+		
+		WorkerThread.setStatusListener( statusForwarder );
+	}
+	
+	/**
+	 * Returns a factory for virtual threads. These require Java 21 so the
+	 * factory is located reflectively.
+	 * @return The factory or null if virtual threads are not available.
+	 */
+	private static ThreadFactory getVirtualThreadFactory() {
+		
+		try {
+			final Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+			return (ThreadFactory)Class.forName( "java.lang.Thread$Builder" ).getMethod( "factory" ).invoke( builder );
+		} catch ( Exception e ) {
+			Log.logger.log( Level.FINE, "Virtual threads unavailable", e );
+			return null;
+		}
+		
 	}
 	
 	protected ControlThread() {
@@ -218,7 +338,7 @@ public class ControlThread extends Thread {
 	 * as possible.
 	 */
 	public void run() {
-		// Flag to indicate that we have found threads that match our worker class
+		// Flag to indicate that some of our workers are still executing
 		boolean workerThreadsPresent = true;
 		
 		// Inform config module to finalise syntax checking
@@ -239,41 +359,48 @@ public class ControlThread extends Thread {
 			// Start command listener thread
 			startCmdThread();			
 			
+			// Serve live metrics (-mp)
+			metricsEndpoint = MetricsEndpoint.open( this );
+			
+			// Register MBeans for monitoring and control (-mx)
+			harnessControl = HarnessControl.register( this );
+			
 			// Special, if we are running DoNothingThread then we
 			// are measuring the memory usage per thread.
 			if ( Config.parms.getString( "tc" ).indexOf("Nothing")>=0 ) {
 				run_ThreadSizeLoop();
+			} else if ( Command.isCoordinated() && !awaitGo() ) {
+				Log.logger.log( Level.INFO, "Shut down before the coordinator started the run");
 			} else {
 				// 3b.
 				// Start threads sequentially
 				setNumWorkers(numworkers);
 				
+				runStartTime = System.currentTimeMillis();
 				if ( startWorkers(null) ) {
 					startTimerThread();
-					// Sleep for remainder of testrun
+					// Sleep for remainder of testrun, waking as workers end
 					synchronized( this ) {
-						while (!shutdown && (workerThreadGroup.activeCount() > 0) && workerThreadsPresent) {
-							int count = workerThreadGroup.activeCount();
+						while ( !shutdown && workerThreadsPresent ) {
+							reapWorkers();
 							int workerCount = 0;
-							Log.logger.log(Level.FINE, "ActiveCount: " + count);
-							//Workers are already started, so shouldnt have to do any complicated retesting logic here
-							//We are only looking for at least one thread that matches the required worker class
-							if (count > 0) {
-								Thread threads[] = new Thread[count];
-								int rc = workerThreadGroup.enumerate(threads);
-								for (int t = 0; t < rc; t++) {
-									Log.logger.log(Level.FINEST, "ThreadName: " + threads[t].getName());
-									if (threads[t].getName().startsWith(workerClass)) {
-										workerCount++;
-									}
+							for ( final WorkerThread worker : workers ) {
+								// A worker which has reported sENDED may still be
+								// tidying up, but is no longer doing any work.
+								if ( worker.isExecuting() && (worker.getStatus() & WorkerThread.sENDED)==0 ) {
+									workerCount++;
 								}
 							}
 							Log.logger.log(Level.FINE, "Worker Count: " + workerCount);
 							workerThreadsPresent = (workerCount != 0);
-							try {
-								this.wait(5 * 1000);
-							} catch (InterruptedException e) {
-								// Swallowed
+							if ( workerThreadsPresent ) {
+								try {
+									// Workers which set their status directly are not
+									// reported, so check again periodically.
+									this.wait(stoppingWorkers.isEmpty() ? 5 * 1000 : 1000);
+								} catch (InterruptedException e) {
+									// Swallowed
+								}
 							}
 						} //end while
 					} //end sync
@@ -298,6 +425,14 @@ public class ControlThread extends Thread {
 			// Kill all workers
 			doShutdown();
 			stats.printFinalSummary();
+			stats.printPhaseSummary();
+			stats.printBreakdownSummary();
+			if ( saturationFinder!=null ) {
+				saturationFinder.printSummary();
+			}
+			if ( cmd!=null ) {
+				cmd.runEnded();
+			}
 			Log.logger.log( Level.INFO, "STOP");
 		}
 
@@ -323,6 +458,11 @@ public class ControlThread extends Thread {
 			}
 		}
 				
+		// The run is over, so is the last interval of the histogram log
+		if ( histogramLog!=null ) {
+			histogramLog.close();
+		}
+		
 		stopWorkers( workers );
 		
 		if (stats!=null) {
@@ -332,32 +472,68 @@ public class ControlThread extends Thread {
 		if ( runlengthTimer!=null ) {
 			runlengthTimer.cancel();
 		}
+		
+		if ( saturationFinder!=null ) {
+			saturationFinder.stop();
+		}
+		
+		if ( loadProfile!=null ) {
+			loadProfile.cancel();
+		}
 
 		// ... then wait for them for 2 minutes
+		waitForWorkers( workers );
+		
+		if ( timeSeriesStore!=null ) {
+			timeSeriesStore.close();
+		}
+		
+		if ( metricsEndpoint!=null ) {
+			metricsEndpoint.close();
+		}
+		
+		if ( harnessControl!=null ) {
+			harnessControl.unregister();
+		}
+		
+		removeController( this );
+		
+	}
+
+	/**
+	 * Waits (for up to -wk seconds) for the given workers to end after they have been
+	 * signalled to stop.  Workers which appear to be stuck are interrupted.
+	 * @param workers The workers to wait for.
+	 * @return True if all of the workers ended.
+	 */
+	protected boolean waitForWorkers( Collection<WorkerThread> workers ) {
+		
 		int count = Config.parms.getInt( "wk" );
 		StringBuffer activethreads = new StringBuffer();
 		waiting : while ((count-- != 0)) {
 
 			activethreads.setLength(0);
-			final Iterator<WorkerThread> iter = workers.iterator();
-			while (iter.hasNext()) {
-				final WorkerThread worker = iter.next();
-				if ( (worker.getStatus()&WorkerThread.sENDED)==0 ) {
-					
-					activethreads.append(worker.getName());
-					activethreads.append(" ");
-					
-					if ( (worker.getStatus()&WorkerThread.sENDING)==0 && count==5 ) {
-						// if the worker is not even "ending" yet it must be stuck in the main code
-						// so we will get it a shock.
-						if (!worker.usesAsynchronousShutdownSignal()) {
-							Log.logger.log(Level.FINER,
-									"Interrupting inactive WorkerThread {0}",
-									worker.getName());
-							worker.interrupt();
+			synchronized ( this.workers ) {
+				final Iterator<WorkerThread> iter = workers.iterator();
+				while (iter.hasNext()) {
+					final WorkerThread worker = iter.next();
+					if ( (worker.getStatus()&WorkerThread.sENDED)==0 ) {
+						
+						activethreads.append(worker.getName());
+						activethreads.append(" ");
+						
+						if ( (worker.getStatus()&WorkerThread.sENDING)==0 && count==5 ) {
+							// if the worker is not even "ending" yet it must be stuck in the main code
+							// so we will get it a shock.
+							if (!worker.usesAsynchronousShutdownSignal()) {
+								Log.logger.log(Level.FINER,
+										"Interrupting inactive WorkerThread {0}",
+										worker.getName());
+								worker.interrupt();
+							}
 						}
+						
 					}
-					
 				}
 			}
 			
@@ -367,7 +543,7 @@ public class ControlThread extends Thread {
 							activethreads);
 				}
 			} else {
-				break waiting;
+				return true;
 			}
 
 			try {
@@ -377,7 +553,7 @@ public class ControlThread extends Thread {
 			}
 		} // end while counting down
 		
-		removeController( this );
+		return false;
 		
 	}
 
@@ -399,8 +575,13 @@ public class ControlThread extends Thread {
 			if ( (worker.getStatus()&(WorkerThread.sENDED|WorkerThread.sENDING))==0 ) {
 				
 				worker.signalShutdown();
-				runningWorkers--; // this may not be accurate if the thread ignores the signal
+				runningWorkers.decrementAndGet(); // this may not be accurate if the thread ignores the signal
 
+			} else if ( (worker.getStatus()&WorkerThread.sCREATED)!=0 ) {
+				
+				// never started, make sure it is not started later
+				worker.signalShutdown();
+				
 			} // end if ! ending
 		} // end while
 		
@@ -456,6 +637,51 @@ public class ControlThread extends Thread {
 		
 	}
 		
+	/**
+	 * Waits for a coordinator to send GO (see -cmd_go), then until the
+	 * instant it gave.
+	 * @return false if the run was shut down first.
+	 */
+	protected boolean awaitGo() {
+		
+		Log.logger.log( Level.INFO, "Waiting for GO from the coordinator");
+		synchronized ( this ) {
+			long delay = 1000;
+			while ( !shutdown && (goTime<0 || (delay = goTime-System.currentTimeMillis())>0) ) {
+				try {
+					this.wait( delay );
+				} catch ( InterruptedException e ) {
+					// Swallowed
+				}
+			}
+		}
+		return !shutdown;
+		
+	}
+
+	/**
+	 * Starts the workers of a process waiting for a coordinator (-cmd_go).
+	 * @param delay Time (ms) from now at which to start.
+	 * @return false if this process is not waiting to start.
+	 */
+	public synchronized boolean go( long delay ) {
+		
+		if ( !Command.isCoordinated() || goTime>=0 ) {
+			return false;
+		}
+		goTime = System.currentTimeMillis() + Math.max( 0, delay );
+		this.notifyAll();
+		return true;
+		
+	}
+
+	/**
+	 * @return When the workers were started (ms), or 0 if they have not been.
+	 */
+	public long getRunStartTime() {
+		return runStartTime;
+	}
+
 	/**
 	 * A simple method to do nothing very much. This is used in determining
 	 * static memory consumption.
@@ -472,6 +698,29 @@ public class ControlThread extends Thread {
 		
 	}
 
+	/**
+	 * Prints the final summary of the run so far, as it will be printed when
+	 * the run ends.
+	 */
+	public void printSummary() {
+		if ( stats!=null ) {
+			stats.setDefaultEndTime( System.currentTimeMillis() );
+			stats.setStaticStartTime( staticStartTime );
+			stats.printFinalSummary();
+			stats.printPhaseSummary();
+			stats.printBreakdownSummary();
+		}
+	}
+
+	/**
+	 * Begins the measurement period for the final summary again now.
+	 */
+	public void resetMeasurementPeriod() {
+		if ( stats!=null ) {
+			stats.resetMeasurementPeriod();
+		}
+	}
+
 	/**
 	 * a stats pass-through method to get stats on request
 	 */
@@ -483,6 +732,19 @@ public class ControlThread extends Thread {
 		}
 	}
 
+	/**
+	 * Changes the pacing rate of all workers, including any started later.
+	 * @param rate
+	 *            the new rate (operations/sec) for each worker, or 0 for
+	 *            unlimited
+	 */
+	public void updateWorkerRate(double rate) {
+		Config.parms.putDouble("rt", rate);
+		for (final WorkerThread worker : workers) {
+			worker.updateRate(rate);
+		}
+	}
+
 	/**
 	 * Alter the number of running workers (used by the Command Processor) and
 	 * start / stop them.
@@ -497,31 +759,56 @@ public class ControlThread extends Thread {
 			return true;
 		}
 
-		int workerCount = getWorkers().size();
-		setNumWorkers(workerCount + number);
+		setNumWorkers(getActiveWorkerCount() + number);
 		if (number > 0) {
 			return startWorkers(null);
-		} else { // stop workers?
-			setNumWorkers(workerCount + number);
+		} else {
 			return true;
 		}
 	}
 	
 	/**
-	 * Alter the number of running workers from the current level to the specified
-	 * level.  Does not currently support reduction as this feature is unused. 
+	 * Alter the number of workers from the current level to the specified
+	 * level.  Workers which are removed are stopped at the end of their current
+	 * iteration and reaped by the ControlThread, but remain in the list of
+	 * workers so that the work they completed is still reported.
 	 * @param number
 	 * @throws Exception
 	 */
 	protected void setNumWorkers(int number) throws Exception {
-		final int initial = workers.size();
+		final int initial = getActiveWorkerCount();
 		if ( number>initial ) {
 			// Create some more workers
 			addWorkers( number-initial );
-		} else {
+		} else if ( number<initial ) {
 			// remove workers
-			Log.logger.log( Level.SEVERE, "thread reduction not yet implemented" );
+			removeWorkers( initial-number );
+		}
+	}
+	
+	/**
+	 * @return The number of workers which are running or waiting to be
+	 *         started, excluding any that have ended or been asked to stop.
+	 */
+	public int getActiveWorkerCount() {
+		
+		int count = 0;
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while ( iter.hasNext() ) {
+			if ( isActive( iter.next() ) ) {
+				count++;
+			}
+		}
+		return count;
+		
+	}
+	
+	private static boolean isActive( WorkerThread worker ) {
+		if ( worker.shutdown ) {
+			return false;
 		}
+		final int status = worker.getStatus();
+		return (status&WorkerThread.sCREATED)!=0 || (status&(WorkerThread.sENDING|WorkerThread.sENDED))==0;
 	}
 	
 	protected final boolean startCmdThread() throws Exception {
@@ -571,280 +858,257 @@ public class ControlThread extends Thread {
 		if ( stats!=null ) { 
 			stats.timerStarted();
 		}
+		
+		histogramLog = HistogramLog.open( this );
+		if ( histogramLog!=null ) {
+			histogramLog.start();
+		}
+		
+		timeSeriesStore = TimeSeriesStore.open( this );
+		if ( timeSeriesStore!=null ) {
+			timeSeriesStore.start();
+		}
+		
+		if ( Config.parms.getBoolean( "fs" ) ) {
+			saturationFinder = new SaturationFinder( this );
+			saturationFinder.start();
+		}
+		
+		if ( LoadProfile.isEnabled() ) {
+			loadProfile = new LoadProfile( this, stats );
+			loadProfile.start();
+		}
 
 		return true;
 	}
 
 	/**
 	 * Starts any WorkerThreads in the workers array which are not yet started.
-	 * It does this using a startup pool of threads. Start is issued to multiple
-	 * threads to fill the pool. As threads start, they get removed from the pool
-	 * and the start command can be issued to a new thread.
-	 * 
-	 * @param newWorkers
-	 *            If not null the given workers are started and are added to the
-	 *            main list of workers.
-	 * @param new_qm signifies it's the new version of this method.
+	 * Up to -wc workers (with -wp, otherwise 1) may be connecting at once, and
+	 * each start is separated by -wi milliseconds. Workers report reaching
+	 * sRUNNING through workerStatusChanged, so we do not have to poll them.
+	 * @param newWorkers If not null the given workers are started and are added to the main list of workers. 
 	 * @return boolean True if all workers were started without error.
 	 */
-	protected final boolean startWorkers(Collection<WorkerThread> newWorkers, boolean new_qm)
-			throws Exception {
+	protected final boolean startWorkers( Collection<WorkerThread> newWorkers ) throws Exception {
 		
-		final class StartingWorker implements Comparable<StartingWorker> {
-			WorkerThread wt;
-			Long started;
-
-			StartingWorker(WorkerThread wt, Long started) {
-				this.wt = wt;
-				this.started = started;
-			}
+		final int concurrency = Config.parms.getBoolean( "wp" ) ? Math.max( 1, Config.parms.getInt( "wc" ) ) : 1;
+		final int workerInc = Config.parms.getInt( "wi" );
+		final long waitPeriod = Config.parms.getInt( "wt" ) * 1000L;
 
-			public int compareTo(StartingWorker sw) {
-				return (started.compareTo(sw.started));
-			}
+		if ( newWorkers!=null ) {
+			addWorkers( newWorkers );
 		}
-
-		final long waitPeriod = ((long) Config.parms.getInt("wt")) * 1000;
-		// this now becomes the pause between adding new workers to the pool
-		final int workerInc = Config.parms.getInt("wi");
 		
-		final int poolmax = Config.parms.getInt("wc", 0);
-		ArrayList<StartingWorker> startPool = new ArrayList<StartingWorker>(poolmax);
-		
-		int status = 0;
-
-		if (newWorkers != null) {
-			addWorkers(newWorkers);
-		}
-
-		Iterator<WorkerThread> iter = workers.iterator();
-		long looptime;
-
-		// for some stats
-		Long timetostart, fastest = Long.MAX_VALUE, slowest = 0L, sumtostart = 0L;
-		Itera: while (!shutdown && iter.hasNext()) {
-			WorkerThread worker = (WorkerThread) iter.next();
-
-			// Skip any already running threads
-			if ((worker.getStatus() & WorkerThread.sCREATED) == 0) {
-				continue Itera;
+		final ArrayList<WorkerThread> toStart = new ArrayList<WorkerThread>();
+		for ( final WorkerThread worker : workers ) {
+			// Skip any already running threads (or those removed before starting)
+			if ( (worker.getStatus() & WorkerThread.sCREATED)!=0 && !worker.shutdown ) {
+				toStart.add( worker );
 			}
-
-			looptime = System.currentTimeMillis();
-
+		}
+		
+		synchronized ( startingWorkers ) {
+			
+			final long[] times = new long[toStart.size()];
+			int timed = 0;
 			try {
-				worker.start();
-			} catch (OutOfMemoryError e) {
-				Log.logger.log(Level.SEVERE,
-					"OutOfMemoryError starting WorkerThread {0}: {1}",
-					new Object[]{worker.getName(), e.getMessage()});
-				Log.logger.log(Level.SEVERE, "Exiting JVM due to OutOfMemoryError");
-				System.exit(1);
-			}
-					
-			StartingWorker sw = new StartingWorker(worker, looptime);
-			startPool.add(sw);
-
-			/*
-			 * if the pool's not full, start more threads
-			 */
-			if (startPool.size() < poolmax) {
-				if (iter.hasNext()) {
-					Thread.sleep(workerInc);
-					continue Itera;
-				}
-			}
-
-			/*
-			 * If the pool's full, wait until either one has started or the
-			 * oldest one times out
-			 */
-			while (!shutdown && startPool.size() > 0) {
-				
-				/*
-				 * check if the oldest starting worker has
-				 * exceeded the wait time (note: the array is sorted by start time)
-				 */
-				if ((looptime - startPool.get(0).started) > waitPeriod) {
-					Log.logger
-							.log(Level.SEVERE,
-									"WorkerThread start interval (-wt={0}) exceeded with no response from {1}",
-									new Object[] { waitPeriod / 1000,
-											startPool.get(0).wt.getName() });
-
-					// Note: thread may start later and threads=n output will not be
-					// updated
-					return false;
-				}
 				
-				for (int i = 0; i < startPool.size(); i++) {
-					if (shutdown)
-						break;
-						
+				for ( int i = 0; i<toStart.size(); i++ ) {
+					final WorkerThread worker = toStart.get( i );
 					
-					StartingWorker ref_sw = startPool.get(i);
-					status = ref_sw.wt.getStatus();
-
-					// It failed ...
-					if ((status & WorkerThread.sERROR) != 0) {
-						Log.logger.log(Level.SEVERE,
-								"Error starting WorkerThread {0}",
-								worker.getName());
+					// Wait for room in the connecting pool
+					while ( startingWorkers.size()>=concurrency ) {
+						final int settled = awaitStartup( waitPeriod, times, timed );
+						if ( settled<0 ) {
+							return false;
+						}
+						timed = settled;
+					}
+					if ( shutdown ) {
 						return false;
 					}
-
-					// if it's up and running, either .... 
-					// i. remove from the list & go to the top to start another
-					// or ii. remove from the list & continue looping until all have started 
-					if ((status & WorkerThread.sCREATED) == 0) {
-						// Note, sCONNECTING is ignored (we wait until it is running)
-						if ((status & WorkerThread.sRUNNING) != 0) {
-
-							runningWorkers++;
-							
-							timetostart = looptime - ref_sw.started;
-							if (timetostart < fastest) { fastest = timetostart; }
-							if (timetostart > slowest) { slowest = timetostart; }
-							sumtostart += timetostart;
-							
-							startPool.remove(i);
-
-							// re-sort the list. This should be fast as it
-							// should be nearly sorted before we start
-							Collections.sort(startPool);
-
-							if (iter.hasNext()) {
-								Thread.sleep(workerInc);
-								continue Itera;
-							}
-						}
+					if ( i>0 && workerInc>0 ) {
+						Thread.sleep( workerInc );
+					}
+					if ( (worker.getStatus() & WorkerThread.sCREATED)==0 || worker.shutdown ) {
+						continue;
+					}
+					
+					startingWorkers.put( worker, System.currentTimeMillis() );
+					try {
+						worker.start();
+					} catch (OutOfMemoryError e) {
+						Log.logger.log(Level.SEVERE,
+							"OutOfMemoryError starting WorkerThread {0}: {1}",
+							new Object[]{worker.getName(), e.getMessage()});
+						Log.logger.log(Level.SEVERE, "Exiting JVM due to OutOfMemoryError");
+						System.exit(1);
 					}
-				} // end for(...
+				}
 				
-				// Either the pool is still full or we're waiting for the last threads to start
-				// If we get here, startup is SLOW... expect long connect times
-				if (startPool.size() > 0) {
-					Thread.sleep(200);
-					looptime = System.currentTimeMillis();
+				// Wait for the last workers to start
+				while ( startingWorkers.size()>0 ) {
+					final int settled = awaitStartup( waitPeriod, times, timed );
+					if ( settled<0 ) {
+						return false;
+					}
+					timed = settled;
 				}
-			} // end while pool.size() > 0
-		} // end while iter
-
-		String msg = "threads=" + runningWorkers + ",fastest_conn=" + fastest + ",slowest_conn=" + slowest + ",avg_conn=" + ((runningWorkers > 0) ? sumtostart/runningWorkers : 0);
-		Log.logger.log(Level.INFO, msg);
-		cmd.sendMessage(msg);
+				
+			} finally {
+				startingWorkers.clear();
+				startupEvents.clear();
+			}
+			
+			if ( timed>0 ) {
+				final String msg = "threads=" + runningWorkers.get() + "," + describeConnectTimes( Arrays.copyOf( times, timed ) );
+				Log.logger.log(Level.INFO, msg);
+				cmd.sendMessage(msg);
+			}
 			
+		} // end sync
 		return true;
+
 	}
-	
+
 	/**
-	 * Starts any WorkerThreads in the workers array which are not yet started.  It does this in a 
-	 * controlled sequential manner, waiting for each thread's status to change to RUNNING before
-	 * starting the next one.
-	 * @param newWorkers If not null the given workers are started and are added to the main list of workers. 
-	 * @return boolean True if all workers were started without error.
+	 * Waits for at least one starting worker to report that it is running or
+	 * has failed, for up to -wt seconds from when the oldest was started.
+	 * @param waitPeriod The -wt period in milliseconds, or 0 to wait for ever.
+	 * @param times Connect times of the workers started so far.
+	 * @param timed The number of entries in times.
+	 * @return The new number of entries in times, or -1 if a worker failed or
+	 *         timed out, or we are shutting down.
+	 * @throws InterruptedException
 	 */
-	protected final boolean startWorkers( Collection<WorkerThread> newWorkers ) throws Exception {
+	private int awaitStartup( long waitPeriod, long[] times, int timed ) throws InterruptedException {
 		
-		// do we use the new startup pooling option?
-		if (true == Config.parms.getBoolean("wp", false)) {
-			return startWorkers(newWorkers, true);
+		if ( shutdown ) {
+			return -1;
 		}
 		
-		final int workerInc = Config.parms.getInt( "wi" );
-		final int waitPeriod = Config.parms.getInt( "wt" ) * 1000;
-		int status = 0;
-
-		if ( newWorkers!=null ) {
-			addWorkers( newWorkers );
+		WorkerThread oldest = null;
+		long oldestStart = Long.MAX_VALUE;
+		for ( final Map.Entry<WorkerThread, Long> e : startingWorkers.entrySet() ) {
+			if ( e.getValue()<oldestStart ) {
+				oldest = e.getKey();
+				oldestStart = e.getValue();
+			}
+		}
+		final long remaining = waitPeriod>0 ? oldestStart + waitPeriod - System.currentTimeMillis() : STARTUP_POLL;
+		if ( remaining<=0 ) {
+			Log.logger
+					.log(
+							Level.SEVERE,
+							"WorkerThread start interval (-wt={0}) exceeded with no response from {1}",
+							new Object[]{waitPeriod / 1000,
+									oldest.getName()});
+			// Note: thread may start later and threads=n output will not be updated				
+			return -1;
 		}
 		
-		final Iterator<WorkerThread> iter = workers.iterator();
-		Itera: while ( !shutdown && iter.hasNext() ) {
-			final WorkerThread worker = iter.next();
-			
-			// Skip any already running threads
-			if ( (worker.getStatus() & WorkerThread.sCREATED)==0 ) {
-				continue Itera;
+		final WorkerThread worker = startupEvents.poll( Math.min( remaining, STARTUP_POLL ), TimeUnit.MILLISECONDS );
+		final Iterator<WorkerThread> iter = (worker!=null ? Arrays.asList( worker ) : startingWorkers.keySet()).iterator();
+		while ( iter.hasNext() ) {
+			final WorkerThread w = iter.next();
+			final int status = w.getStatus();
+			if ( !hasStarted( status ) ) {
+				continue;
 			}
-			
-			try {
-			 			worker.start();
-			} catch (OutOfMemoryError e) {
-			 			Log.logger.log(Level.SEVERE,
-			     			"OutOfMemoryError starting WorkerThread {0}: {1}",
-			     			new Object[]{worker.getName(), e.getMessage()});
-				Log.logger.log(Level.SEVERE, "Exiting JVM due to OutOfMemoryError");
-				System.exit(1);
+			final Long started = startingWorkers.remove( w );
+			if ( started==null ) {
+				// Already dealt with
+				continue;
 			}
+			// It failed ...
+			if ( (status & WorkerThread.sERROR)!=0 ) {
+				Log.logger.log(Level.SEVERE, "Error starting WorkerThread {0}", w.getName());
+				return -1;
+			}
+			// Note: a worker which has started and finished already is not
+			// counted, but is not treated as an error either
+			if ( (status & WorkerThread.sRUNNING)!=0 ) {
+				runningWorkers.incrementAndGet();
+				times[timed++] = System.currentTimeMillis() - started;
+				recordConnectTime( times[timed-1] );
+			}
+		}
+		return timed;
+		
+	}
 
-			
-			// poll thread for -wt seconds
-			
-			if ( waitPeriod>0 ) {
-				
-				// start waiting for the thread to signal it is running				
-				long started = System.currentTimeMillis();				
-				while ( System.currentTimeMillis()-started < waitPeriod) {
-					if ( shutdown ) {
-						return false;
-					}
-					status = worker.getStatus();
-					// It failed ...
-					if ((status & WorkerThread.sERROR) != 0) {
-						Log.logger.log(Level.SEVERE,
-								"Error starting WorkerThread {0}", worker
-										.getName());
-						return false;
-					}
-					// if it's up and running .... check next one
-					if ( (status&WorkerThread.sCREATED)==0) {
-						// Note, sCONNECTING is ignored (we wait until it is running)
-						if ((status & WorkerThread.sRUNNING) != 0) {
-							
-							runningWorkers++;
-							
-							if ( iter.hasNext() ) {
-								// if not the last thread then sleep for wi millis
-								try {
-									Thread.sleep(workerInc);
-								} catch (InterruptedException e) {
-									//no op
-								}
-							} // end if
-							
-							continue Itera;
-						} else if ( (status&(WorkerThread.sENDING|WorkerThread.sENDED)) !=0 ) {
-							// Note: WorkerThread has started and finished already ! maybe we should
-							// report this as an error
-						 	continue Itera;
-						}
-					} // end if
-					
-					try {
-						// Polling sleep
-						Thread.sleep(200);
-					} catch (InterruptedException e) {
-						//no op
-					}
-					
-				} // end while waiting for this thread to start
-
-				Log.logger
-						.log(
-								Level.SEVERE,
-								"WorkerThread start interval (-wt={0}) exceeded with no response from {1}",
-								new Object[]{waitPeriod / 1000,
-										worker.getName()});
-					
-				// Note: thread may start later and threads=n output will not be updated				
-				return false;				
-				
-			} // end if waitime>0
+	/**
+	 * @return true if the given status shows a worker has finished connecting,
+	 *         successfully or otherwise. Note, sCONNECTING is ignored (we wait
+	 *         until it is running).
+	 */
+	private static boolean hasStarted( int status ) {
+		return (status & WorkerThread.sCREATED)==0
+				&& (status & (WorkerThread.sRUNNING|WorkerThread.sERROR|WorkerThread.sENDING|WorkerThread.sENDED))!=0;
+	}
 
-		} // Endfor server iteration
-		return true;
+	/**
+	 * Informed (on the worker's own thread) whenever a worker changes status.
+	 */
+	protected void workerStatusChanged( WorkerThread worker, int status ) {
+		
+		if ( hasStarted( status ) && startingWorkers.containsKey( worker ) ) {
+			startupEvents.offer( worker );
+		}
+		if ( (status & WorkerThread.sENDED)!=0 ) {
+			synchronized ( this ) {
+				notifyAll();
+			}
+		}
+		
+	}
 
+	private synchronized void recordConnectTime( long time ) {
+		if ( connectCount==connectTimes.length ) {
+			connectTimes = Arrays.copyOf( connectTimes, connectCount*2 );
+		}
+		connectTimes[connectCount++] = time;
+	}
+
+	/**
+	 * @return The time (ms) each worker started so far took to connect.
+	 */
+	public synchronized long[] getConnectTimes() {
+		return Arrays.copyOf( connectTimes, connectCount );
+	}
+
+	/**
+	 * Summarises a set of connect times.
+	 * @param times Connect times in ms (this array is sorted).
+	 * @return fastest, slowest, average and percentile times.
+	 */
+	public static String describeConnectTimes( long[] times ) {
+		
+		Arrays.sort( times );
+		long sum = 0;
+		for ( long t : times ) {
+			sum += t;
+		}
+		final int n = times.length;
+		return "fastest_conn=" + (n>0 ? times[0] : 0)
+				+ ",slowest_conn=" + (n>0 ? times[n-1] : 0)
+				+ ",avg_conn=" + (n>0 ? sum/n : 0)
+				+ ",p50_conn=" + percentile( times, 50 )
+				+ ",p90_conn=" + percentile( times, 90 )
+				+ ",p99_conn=" + percentile( times, 99 );
+		
+	}
+
+	/**
+	 * @return The nearest-rank percentile of a sorted array (0 if empty).
+	 */
+	public static long percentile( long[] sorted, double p ) {
+		if ( sorted.length==0 ) {
+			return 0;
+		}
+		final int rank = (int)Math.ceil( p/100 * sorted.length );
+		return sorted[Math.max( 0, rank-1 )];
 	}
 
 	/**
@@ -868,39 +1132,86 @@ public class ControlThread extends Thread {
 	 */
 	protected final void addWorker( WorkerThread worker ) {
 		
-		synchronized ( workers ) {
-			// synch to avoid ConcurrentModificationException during startup			
-			workers.add( worker );
-		}
+		workers.add( worker );
 		
 	}
 	
+	/**
+	 * Signals the most recently added active workers to stop, without waiting
+	 * for them to end; the ControlThread reaps them. Removing all of the
+	 * active workers ends the test.
+	 * @param number The number of workers to stop.
+	 */
 	protected final void removeWorkers(int number) {
-		if (number >= workers.size()) {
+		if (number >= getActiveWorkerCount()) {
 			signalShutdown();
 			return;
 		}
 
-		// stop workers 1 @ a time
-		while (number-- > 0) {
-			WorkerThread w = workers.get(workers.size() - 1);
-			removeWorker(w);
+		final ArrayList<WorkerThread> leaving = new ArrayList<WorkerThread>(number);
+		for (int i = workers.size() - 1; i >= 0 && leaving.size() < number; i--) {
+			final WorkerThread w = workers.get(i);
+			if (isActive(w)) {
+				leaving.add(w);
+			}
+		}
+
+		for (final WorkerThread w : leaving) {
+			stoppingWorkers.put(w, new StoppingWorker());
+		}
+		stopWorkers(leaving);
+		synchronized (this) {
+			notifyAll();
+		}
+		Log.logger.log(Level.INFO, "threads={0}", runningWorkers.get());
+	}
+
+	/**
+	 * Forgets the workers stopped by removeWorkers which have ended. As in
+	 * waitForWorkers, one which is not yet ending 5 seconds before -wk runs
+	 * out is interrupted, and one which has not ended after -wk seconds is
+	 * reported and forgotten.
+	 */
+	private void reapWorkers() {
+
+		final long limit = Config.parms.getInt( "wk" ) * 1000L;
+		final long now = System.currentTimeMillis();
+		final Iterator<Map.Entry<WorkerThread, StoppingWorker>> iter = stoppingWorkers.entrySet().iterator();
+		while ( iter.hasNext() ) {
+			final Map.Entry<WorkerThread, StoppingWorker> e = iter.next();
+			final WorkerThread worker = e.getKey();
+			final StoppingWorker stopping = e.getValue();
+			final int status = worker.getStatus();
+			final long waited = now - stopping.stopped;
+			if ( (status&WorkerThread.sENDED)!=0 ) {
+				iter.remove();
+			} else if ( limit>=0 && waited>=limit ) {
+				Log.logger.log( Level.WARNING, "Stopped WorkerThread {0} has not ended", worker.getName() );
+				iter.remove();
+			} else if ( limit>=0 && waited>=limit-5000 && !stopping.interrupted
+					&& (status&WorkerThread.sENDING)==0 && !worker.usesAsynchronousShutdownSignal() ) {
+				Log.logger.log( Level.FINER, "Interrupting inactive WorkerThread {0}", worker.getName() );
+				worker.interrupt();
+				stopping.interrupted = true;
+			}
 		}
+
 	}
 
+	/**
+	 * Stops the given worker at the end of its current iteration and waits for
+	 * it to end. The worker stays in the list of workers.
+	 * @param worker
+	 */
 	protected final void removeWorker(WorkerThread worker) {
 
 		if (worker == null) {
 			return;
 		}
 
-		// make sure the worker is stopped
 		List<WorkerThread> l = Arrays.asList(worker);
 		stopWorkers(l);
-
-		synchronized (workers) {
-			workers.remove(worker);
-		}
+		waitForWorkers(l);
 	}
 	
 	/**
@@ -951,12 +1262,12 @@ public class ControlThread extends Thread {
 	/**
 	 * Encapsulation-busting access to workers list used by the statistics module.
 	 */
-	public ArrayList<WorkerThread> getWorkers() {
+	public List<WorkerThread> getWorkers() {
 		return workers;
 	}
 
 	public int getRunningWorkers() {
-		return runningWorkers;
+		return runningWorkers.get();
 	}
 	
 	
@@ -0,0 +1,322 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.TimerTask;
+import java.util.logging.Level;
+
+import com.ibm.uk.hursley.perfharness.stats.Statistics;
+
+/**
+ * Drives the WorkerThreads through a scripted sequence of load phases (-lp).
+ * Each phase has a type, a duration and (usually) an aggregate target rate
+ * and thread count:
+ * <ul>
+ * <li><b>hold:s[:threads]</b> keeps the rate of the previous phase.</li>
+ * <li><b>step:s:rate[:threads]</b> changes to a new rate.</li>
+ * <li><b>ramp:s:rate[:threads]</b> changes linearly from the previous rate.</li>
+ * <li><b>spike:s:rate[:threads]</b> as step, but the following phase starts
+ * from the rate before the spike.</li>
+ * <li><b>sine:s:low-high[:threads]</b> one sine wave cycle between the two
+ * rates.</li>
+ * </ul>
+ * Phases are separated by commas, or given one per line in a file.
+ */
+public final class LoadProfile extends TimerTask {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	/**
+	 * How often (ms) the rate is recalculated within ramp and sine phases.
+	 */
+	private static final long TICK = 250;
+
+	private static final String HOLD = "hold";
+	private static final String STEP = "step";
+	private static final String RAMP = "ramp";
+	private static final String SPIKE = "spike";
+	private static final String SINE = "sine";
+
+	/**
+	 * One phase of the profile.
+	 */
+	private static final class Phase {
+		String type;
+		String name;
+		long duration; // ms
+		double rate; // aggregate, or the high point of a sine wave
+		double low; // low point of a sine wave
+		int threads; // 0 leaves the thread count unchanged
+	}
+
+	private static ArrayList<Phase> phases = null;
+
+	private final ControlThread parent;
+	private final Statistics stats;
+
+	private int current = -1;
+	private long phaseStart;
+	private double startRate;
+	private double lastRate = -1;
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( LoadProfile.class );
+
+		final String profile = Config.parms.getString( "lp" );
+		if ( !Config.isInvalid() && profile.length()>0 ) {
+			try {
+				phases = parse( profile );
+			} catch ( IOException e ) {
+				Config.logger.log( Level.WARNING, "Cannot read load profile (lp={0}): {1}", new Object[] { profile, e.getMessage() } );
+			} catch ( IllegalArgumentException e ) {
+				Config.logger.log( Level.WARNING, "Invalid load profile (lp={0}): {1}", new Object[] { profile, e.getMessage() } );
+			}
+			if ( phases!=null && phases.size()==0 ) {
+				Config.logger.log( Level.WARNING, "Load profile (lp={0}) has no phases", profile );
+			}
+			if ( phases!=null && Config.parms.getDouble( "rt" )==0 ) {
+				// Until a phase sets a rate the workers are unthrottled, so
+				// there is nothing to ramp from
+				for ( Phase phase : phases ) {
+					if ( RAMP.equals( phase.type ) ) {
+						Config.logger.log( Level.WARNING, "Load profile (lp={0}) ramps from no rate, set a starting rate with -rt", profile );
+					}
+					if ( !HOLD.equals( phase.type ) ) {
+						break;
+					}
+				}
+			}
+			if ( Config.parms.getBoolean( "fs" ) ) {
+				Config.logger.warning( "Cannot use both a load profile (-lp) and the saturation finder (-fs)." );
+			}
+			if ( Config.parms.getInt( "rp" )!=0 ) {
+				Config.logger.warning( "Cannot use both a load profile (-lp) and a ramp time (-rp)." );
+			}
+			if ( Config.parms.getString( "tr" ).length()>0 ) {
+				Config.logger.warning( "Cannot use both a load profile (-lp) and a trace (-tr)." );
+			}
+			if ( phases!=null && Config.parms.getInt( "rl" )>0 ) {
+				long total = 0;
+				for ( Phase phase : phases ) {
+					total += phase.duration;
+				}
+				if ( Config.parms.getInt( "rl" )*1000L<total ) {
+					Log.logger.log( Level.WARNING, "The run length (rl={0}) is shorter than the load profile ({1}s), consider -rl 0.",
+							new Object[] { Config.parms.getInt( "rl" ), total/1000 } );
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * @return true if a load profile has been configured.
+	 */
+	public static boolean isEnabled() {
+		return phases!=null && phases.size()>0;
+	}
+
+	/**
+	 * Reads the phases from the named file or, if there is no such file, from
+	 * the comma-separated string itself.
+	 */
+	private static ArrayList<Phase> parse( String profile ) throws IOException {
+
+		final ArrayList<String> lines = new ArrayList<String>();
+		final File file = new File( profile );
+		if ( file.isFile() ) {
+			final BufferedReader reader = new BufferedReader( new FileReader( file ) );
+			try {
+				String line;
+				while ( (line = reader.readLine())!=null ) {
+					lines.add( line );
+				}
+			} finally {
+				reader.close();
+			}
+		} else {
+			for ( String line : profile.split( "," ) ) {
+				lines.add( line );
+			}
+		}
+
+		final ArrayList<Phase> phases = new ArrayList<Phase>();
+		for ( String line : lines ) {
+			line = line.trim();
+			if ( line.length()==0 || line.startsWith( "#" ) ) {
+				continue;
+			}
+			final String[] fields = line.split( "\\s*:\\s*" );
+			final Phase phase = new Phase();
+			phase.type = fields[0].toLowerCase();
+			phase.name = (phases.size()+1) + ":" + phase.type;
+			final int rateFields = HOLD.equals( phase.type ) ? 0 : 1;
+			if ( !phase.type.equals( HOLD ) && !phase.type.equals( STEP ) && !phase.type.equals( RAMP )
+					&& !phase.type.equals( SPIKE ) && !phase.type.equals( SINE ) ) {
+				throw new IllegalArgumentException( "unknown phase type \"" + fields[0] + "\"" );
+			}
+			if ( fields.length<2+rateFields || fields.length>3+rateFields ) {
+				throw new IllegalArgumentException( "wrong number of fields in \"" + line + "\"" );
+			}
+			try {
+				phase.duration = (long)(Double.parseDouble( fields[1] ) * 1000);
+				if ( SINE.equals( phase.type ) ) {
+					final int dash = fields[2].indexOf( '-' );
+					if ( dash<=0 ) {
+						throw new IllegalArgumentException( "sine phase needs low-high rates in \"" + line + "\"" );
+					}
+					phase.low = Double.parseDouble( fields[2].substring( 0, dash ) );
+					phase.rate = Double.parseDouble( fields[2].substring( dash+1 ) );
+				} else if ( rateFields>0 ) {
+					phase.rate = Double.parseDouble( fields[2] );
+				}
+				if ( fields.length>2+rateFields ) {
+					phase.threads = Integer.parseInt( fields[2+rateFields] );
+				}
+			} catch ( NumberFormatException e ) {
+				throw new IllegalArgumentException( "bad number in \"" + line + "\"" );
+			}
+			if ( phase.duration<=0 || phase.rate<0 || phase.low<0 || phase.low>phase.rate || phase.threads<0 ) {
+				throw new IllegalArgumentException( "out of range value in \"" + line + "\"" );
+			}
+			// A rate of 0 would leave the workers unthrottled
+			if ( rateFields>0 && (phase.rate==0 || (SINE.equals( phase.type ) && phase.low==0)) ) {
+				throw new IllegalArgumentException( "rates must be greater than 0 in \"" + line + "\"" );
+			}
+			phases.add( phase );
+		}
+		return phases;
+
+	}
+
+	/**
+	 * @param parent The ControlThread whose workers are driven.
+	 * @param stats Informed of the start of each phase.
+	 */
+	public LoadProfile( ControlThread parent, Statistics stats ) {
+		this.parent = parent;
+		this.stats = stats;
+		this.startRate = Config.parms.getDouble( "rt" ) * Math.max( 1, parent.getActiveWorkerCount() );
+	}
+
+	/**
+	 * Begins the first phase.
+	 */
+	public void start() {
+		ControlThread.getTaskScheduler().schedule( this, 0, TICK );
+	}
+
+	public void run() {
+
+		if ( ControlThread.isShuttingDown() ) {
+			cancel();
+			return;
+		}
+
+		final long now = System.currentTimeMillis();
+		if ( current<0 || now-phaseStart>=phases.get( current ).duration ) {
+			if ( current>=0 ) {
+				startRate = endRate( phases.get( current ) );
+				phaseStart += phases.get( current ).duration;
+			} else {
+				phaseStart = now;
+			}
+			if ( ++current>=phases.size() ) {
+				Log.logger.info( "Load profile complete" );
+				cancel();
+				ControlThread.signalShutdown();
+				return;
+			}
+			beginPhase( phases.get( current ) );
+		}
+
+		final Phase phase = phases.get( current );
+		final double fraction = Math.min( 1d, (double)(now-phaseStart) / phase.duration );
+		final double rate;
+		if ( RAMP.equals( phase.type ) ) {
+			rate = startRate + (phase.rate-startRate)*fraction;
+		} else if ( SINE.equals( phase.type ) ) {
+			rate = (phase.low+phase.rate)/2 + (phase.rate-phase.low)/2 * Math.sin( 2*Math.PI*fraction );
+		} else if ( HOLD.equals( phase.type ) ) {
+			rate = startRate;
+		} else {
+			rate = phase.rate;
+		}
+		setRate( rate );
+
+	}
+
+	/**
+	 * @return The rate the next phase starts from.
+	 */
+	private double endRate( Phase phase ) {
+		if ( HOLD.equals( phase.type ) || SPIKE.equals( phase.type ) ) {
+			return startRate;
+		} else if ( SINE.equals( phase.type ) ) {
+			return (phase.low+phase.rate)/2;
+		}
+		return phase.rate;
+	}
+
+	private void beginPhase( final Phase phase ) {
+
+		Log.logger.log( Level.INFO, "Load profile phase {0} for {1}s", new Object[] { phase.name, phase.duration/1000d } );
+		if ( stats!=null ) {
+			stats.beginPhase( phase.name );
+		}
+		final int change = phase.threads>0 ? phase.threads-parent.getActiveWorkerCount() : 0;
+		if ( change!=0 ) {
+			// Starting or draining workers may take some time, so do not hold
+			// up the other timer tasks.
+			final Thread changer = new Thread( "LoadProfile-" + phase.name ) {
+				public void run() {
+					try {
+						parent.changeWorkerCount( change );
+					} catch ( Exception e ) {
+						Log.logger.log( Level.SEVERE, "Cannot change the number of workers", e );
+					}
+				}
+			};
+			changer.setDaemon( true );
+			changer.start();
+		}
+		lastRate = -1;
+
+	}
+
+	/**
+	 * Shares the aggregate rate between the active workers.
+	 */
+	private void setRate( double rate ) {
+
+		final int count = Math.max( 1, parent.getActiveWorkerCount() );
+		final double perWorker = rate / count;
+		if ( perWorker!=lastRate ) {
+			parent.updateWorkerRate( perWorker );
+			lastRate = perWorker;
+		}
+
+	}
+
+}
@@ -0,0 +1,304 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.logging.Level;
+
+import com.ibm.uk.hursley.perfharness.stats.LatencyHistogram;
+import com.ibm.uk.hursley.perfharness.stats.ResponseTimeStats;
+
+/**
+ * Searches for the highest aggregate rate the system under test can sustain.
+ * Each step paces all WorkerThreads at a target rate for -fsw seconds and
+ * then judges the step against the latency and error limits. The latency limit
+ * may apply to the average or to a percentile (-fsp). The target is
+ * doubled until a step fails, then the search bisects between the best
+ * passing and worst failing rates until they are within -fsa percent.
+ */
+public final class SaturationFinder extends TimerTask {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	/**
+	 * A step fails if the achieved rate falls this far short of its target.
+	 */
+	private static final double RATE_TOLERANCE = 0.95;
+
+	/**
+	 * Per-thread rates below this cannot be paced (see -rt).
+	 */
+	private static final double MINIMUM_RATE = 1.0;
+
+	private final ControlThread parent;
+
+	private final double latencyLimit = Config.parms.getDouble( "fsl" );
+	private final double latencyPercentile = Config.parms.getDouble( "fsp" );
+	private final double errorLimit = Config.parms.getDouble( "fse" );
+	private final int window = Config.parms.getInt( "fsw" );
+	private final int settle = Math.min( 5, window/4 );
+	private final double accuracy = Config.parms.getDouble( "fsa" ) / 100;
+
+	// Search state (aggregate rates)
+	private double target;
+	private double bestRate = 0;
+	private double bestLatency = 0;
+	private double worstRate = Double.POSITIVE_INFINITY;
+	private int step = 0;
+	private int seconds = 0;
+	private boolean finished = false;
+
+	// Totals at the start of the measured part of the step
+	private long baseIterations;
+	private long baseTotalTime;
+	private long baseErrors;
+	private int baseFailedWorkers;
+	private long baseTime;
+	private long[] baseHistogram = new long[LatencyHistogram.BUCKETS];
+	private long[] histogram = new long[LatencyHistogram.BUCKETS];
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( SaturationFinder.class );
+
+		if ( !Config.isInvalid() && Config.parms.getBoolean( "fs" ) ) {
+			if ( Config.parms.getDouble( "rt" )<=0 ) {
+				Config.logger.warning( "Saturation finder (-fs) requires a starting rate (-rt)." );
+			}
+			if ( Config.parms.getInt( "fsw" )<2 ) {
+				Config.logger.log( Level.WARNING, "Saturation window (fsw={0}) must be at least 2", Config.parms.getInt( "fsw" ) );
+			}
+			if ( Config.parms.getDouble( "fsa" )<=0 ) {
+				Config.logger.log( Level.WARNING, "Saturation accuracy (fsa={0}) must be greater than 0", Config.parms.getDouble( "fsa" ) );
+			}
+			if ( Config.parms.getDouble( "fsp" )<0 || Config.parms.getDouble( "fsp" )>100 ) {
+				Config.logger.log( Level.WARNING, "Saturation latency percentile (fsp={0}) must be between 0 and 100", Config.parms.getDouble( "fsp" ) );
+			}
+			if ( Config.parms.getDouble( "fsl" )>0 && !Config.isRegistered( ResponseTimeStats.class ) ) {
+				Config.logger.warning( "Saturation latency limit (-fsl) requires -sc ResponseTimeStats." );
+			}
+			if ( Config.parms.getString( "tr" ).length()>0 ) {
+				Config.logger.warning( "Cannot use both the saturation finder (-fs) and a trace (-tr)." );
+			}
+			if ( Config.parms.getInt( "rl" )>0 ) {
+				Log.logger.warning( "The run length (-rl) may end the saturation search early, consider -rl 0." );
+			}
+		}
+
+	}
+
+	/**
+	 * @param parent The ControlThread whose workers are paced.
+	 */
+	public SaturationFinder( ControlThread parent ) {
+		this.parent = parent;
+		this.target = Config.parms.getDouble( "rt" ) * Math.max( 1, parent.getActiveWorkerCount() );
+	}
+
+	/**
+	 * Paces the workers at the first target rate and begins sampling once a
+	 * second.
+	 */
+	public void start() {
+		beginStep();
+		ControlThread.getTaskScheduler().schedule( this, 1000, 1000 );
+	}
+
+	public void run() {
+
+		if ( finished || ControlThread.isShuttingDown() ) {
+			return;
+		}
+		seconds++;
+		if ( seconds==settle ) {
+			// Ignore the transition from the previous rate
+			snapshot();
+		} else if ( seconds>=window ) {
+			endStep();
+		}
+
+	}
+
+	private void beginStep() {
+
+		step++;
+		seconds = 0;
+		final int count = Math.max( 1, parent.getActiveWorkerCount() );
+		parent.updateWorkerRate( target / count );
+		snapshot();
+
+	}
+
+	private void endStep() {
+
+		final long time = System.currentTimeMillis() - baseTime;
+		final long errorTotal = baseErrors;
+		final int failedTotal = baseFailedWorkers;
+		final long iterationTotal = baseIterations;
+		final long totalTimeTotal = baseTotalTime;
+		// Keep the histogram from the start of the measurement, and snapshot
+		// into the other array.
+		final long[] histogramTotal = baseHistogram;
+		baseHistogram = histogram;
+		histogram = histogramTotal;
+		snapshot();
+		final long iterations = baseIterations - iterationTotal;
+		final long errors = baseErrors - errorTotal;
+		final int failedWorkers = baseFailedWorkers - failedTotal;
+
+		final double achieved = time>0 ? (iterations * 1000d) / time : 0;
+		final double latency;
+		if ( latencyPercentile>0 ) {
+			for ( int i = 0; i<histogram.length; i++ ) {
+				histogram[i] = baseHistogram[i] - histogram[i];
+			}
+			latency = Math.max( 0, LatencyHistogram.percentile( histogram, latencyPercentile ) ) / 1000000d;
+		} else {
+			latency = iterations>0 ? (baseTotalTime - totalTimeTotal) / (iterations * 1000d) : 0;
+		}
+		final double errorRatio = (iterations+errors)>0 ? (double)errors / (iterations+errors) : 0;
+
+		String reason = null;
+		if ( failedWorkers>0 ) {
+			reason = "workerFailed";
+		} else if ( errorRatio>errorLimit ) {
+			reason = "errors";
+		} else if ( latencyLimit>0 && latency>latencyLimit ) {
+			reason = "latency";
+		} else if ( achieved<target*RATE_TOLERANCE ) {
+			reason = "rate";
+		}
+
+		final StringBuffer sb = new StringBuffer( 128 );
+		sb.append( "saturation: step=" ).append( step );
+		sb.append( ",target=" ).append( format( target ) );
+		sb.append( ",tps=" ).append( format( achieved ) );
+		sb.append( latencyName() ).append( format( latency ) );
+		sb.append( ",errors=" ).append( errors );
+		sb.append( ",result=" ).append( reason==null ? "pass" : "fail(" + reason + ")" );
+		System.out.println( sb.toString() );
+
+		if ( reason==null ) {
+			if ( bestRate<target ) {
+				bestRate = target;
+				bestLatency = latency;
+			}
+		} else {
+			worstRate = Math.min( worstRate, target );
+		}
+
+		if ( worstRate==Double.POSITIVE_INFINITY ) {
+			target *= 2;
+		} else if ( worstRate-bestRate<=bestRate*accuracy
+				|| worstRate/Math.max( 1, parent.getActiveWorkerCount() )<MINIMUM_RATE*2 ) {
+			complete();
+			return;
+		} else {
+			target = (bestRate+worstRate) / 2;
+		}
+		beginStep();
+
+	}
+
+	/**
+	 * Ends the search, leaving the workers paced at the best rate found, and
+	 * shuts down the run.
+	 */
+	private void complete() {
+
+		finished = true;
+		cancel();
+		if ( bestRate>0 ) {
+			parent.updateWorkerRate( bestRate / Math.max( 1, parent.getActiveWorkerCount() ) );
+		}
+		Log.logger.info( "Saturation search complete" );
+		ControlThread.signalShutdown();
+
+	}
+
+	/**
+	 * Ceases searching, for example if the run ends first.
+	 */
+	public void stop() {
+		finished = true;
+		cancel();
+	}
+
+	/**
+	 * Prints the highest rate which passed, and the lowest which failed.
+	 */
+	public void printSummary() {
+
+		if ( bestRate>0 ) {
+			final StringBuffer sb = new StringBuffer( 128 );
+			sb.append( "maxSustainableRate=" ).append( format( bestRate ) );
+			sb.append( latencyName() ).append( format( bestLatency ) );
+			if ( worstRate!=Double.POSITIVE_INFINITY ) {
+				sb.append( ",failedRate=" ).append( format( worstRate ) );
+			} else {
+				sb.append( ",failedRate=none" );
+			}
+			System.out.println( sb.toString() );
+		} else {
+			System.out.println( "maxSustainableRate=none, no step passed (lowest failed rate " + format( worstRate ) + ")" );
+		}
+
+	}
+
+	/**
+	 * Totals the counters of every WorkerThread, including those which have
+	 * ended.
+	 */
+	private void snapshot() {
+
+		long iterations = 0;
+		long totalTime = 0;
+		long errors = 0;
+		int failedWorkers = 0;
+		Arrays.fill( baseHistogram, 0 );
+		final List<WorkerThread> workers = parent.getWorkers();
+		for ( final WorkerThread worker : workers ) {
+			if ( worker.getHistogram()!=null ) {
+				worker.getHistogram().addTo( baseHistogram );
+			}
+			iterations += worker.getIterations();
+			totalTime += worker.getOverallTotalTime();
+			errors += worker.getErrors();
+			if ( (worker.getStatus() & WorkerThread.sERROR)!=0 ) {
+				failedWorkers++;
+			}
+		}
+		baseIterations = iterations;
+		baseTotalTime = totalTime;
+		baseErrors = errors;
+		baseFailedWorkers = failedWorkers;
+		baseTime = System.currentTimeMillis();
+
+	}
+
+	private String latencyName() {
+		return latencyPercentile>0 ? ",p" + LatencyHistogram.describe( latencyPercentile ) + "Response(ms)=" : ",avgResponse(ms)=";
+	}
+
+	private static String format( double d ) {
+		return Double.isInfinite( d ) ? "none" : String.format( "%.2f", d );
+	}
+
+}
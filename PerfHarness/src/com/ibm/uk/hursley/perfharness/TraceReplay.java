@@ -0,0 +1,168 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays the arrival times recorded in a trace file (-tr). All WorkerThreads
+ * share one replay, each taking the next arrival as it becomes free, so that
+ * the combined arrival process follows the trace. The file is read a line at
+ * a time so traces need not fit in memory.
+ * <p>
+ * Each line holds a timestamp in milliseconds (fractions allowed), optionally
+ * followed by a message size in bytes and a destination name, separated by
+ * commas or whitespace. Blank lines, lines starting with # and a header line
+ * are ignored. Timestamps are relative to the first line.
+ */
+public final class TraceReplay {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final double NANOS_PER_MILLI = 1000000d;
+
+	/**
+	 * One arrival from the trace.
+	 */
+	public static final class Event {
+		/**
+		 * Intended start time (as System.nanoTime()).
+		 */
+		long time;
+		/**
+		 * Message size in bytes, or -1 if not given.
+		 */
+		int size;
+		/**
+		 * Destination name, or null if not given.
+		 */
+		String destination;
+	}
+
+	private final String fileName;
+	private final double speed;
+	private BufferedReader reader;
+	private long lineNumber = 0;
+	private long events = 0;
+	private double origin = Double.NaN;
+	private long base;
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( TraceReplay.class );
+
+		final String trace = Config.parms.getString( "tr" );
+		if ( !Config.isInvalid() && trace.length()>0 ) {
+			if ( !new File( trace ).isFile() ) {
+				Config.logger.log( Level.WARNING, "Trace file (tr={0}) does not exist", trace );
+			}
+			final double speed = Config.parms.getDouble( "trs" );
+			if ( speed<=0 ) {
+				Config.logger.log( Level.WARNING, "Trace speed (trs={0}) must be greater than 0", speed );
+			}
+			if ( Config.parms.getDouble( "rt" )!=0 || Config.parms.getInt( "rp" )!=0 ) {
+				Config.logger.warning( "Cannot use a rate (-rt) or ramp time (-rp) when replaying a trace (-tr)." );
+			}
+		}
+
+	}
+
+	/**
+	 * @return A replay of the configured trace file, or null if none is
+	 *         configured.
+	 * @throws IOException
+	 */
+	static TraceReplay open() throws IOException {
+
+		final String trace = Config.parms.getString( "tr" );
+		if ( trace.length()==0 ) {
+			return null;
+		}
+		return new TraceReplay( trace, Config.parms.getDouble( "trs" ) );
+
+	}
+
+	private TraceReplay( String fileName, double speed ) throws IOException {
+
+		this.fileName = fileName;
+		this.speed = speed;
+		InputStream in = new FileInputStream( fileName );
+		if ( fileName.endsWith( ".gz" ) ) {
+			in = new GZIPInputStream( in, BUFFER_SIZE );
+		}
+		reader = new BufferedReader( new InputStreamReader( in, "UTF-8" ), BUFFER_SIZE );
+
+	}
+
+	/**
+	 * Takes the next arrival from the trace. The replay starts with the first
+	 * call.
+	 *
+	 * @param event
+	 *            Filled in with the next arrival.
+	 * @return false if the trace is exhausted.
+	 * @throws IOException
+	 */
+	public synchronized boolean next( Event event ) throws IOException {
+
+		if ( reader==null ) {
+			return false;
+		}
+		String line;
+		while ( (line = reader.readLine())!=null ) {
+			lineNumber++;
+			line = line.trim();
+			if ( line.length()==0 || line.charAt( 0 )=='#' ) {
+				continue;
+			}
+			final String[] fields = line.split( "[,\\s]+", 3 );
+			final double timestamp;
+			try {
+				timestamp = Double.parseDouble( fields[0] );
+				event.size = fields.length>1 ? Integer.parseInt( fields[1] ) : -1;
+			} catch ( NumberFormatException e ) {
+				if ( events>0 ) {
+					Log.logger.log( Level.WARNING, "Ignoring line {0} of trace {1}: {2}", new Object[] { lineNumber, fileName, line } );
+				} // else a header
+				continue;
+			}
+			event.destination = fields.length>2 ? fields[2].trim() : null;
+			if ( events++==0 ) {
+				origin = timestamp;
+				base = System.nanoTime();
+			}
+			event.time = base + (long)((timestamp-origin) * NANOS_PER_MILLI / speed);
+			return true;
+		}
+
+		Log.logger.log( Level.INFO, "Trace {0} complete after {1} arrivals", new Object[] { fileName, events } );
+		reader.close();
+		reader = null;
+		return false;
+
+	}
+
+}
@@ -0,0 +1,193 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * The running counters and pacing state of one WorkerThread. All are 64-bit, so a soak test
+ * cannot overflow them, and they are padded on both sides so that they share
+ * no cache line with another worker's counters or with the fields of the
+ * WorkerThread itself.
+ * <p>
+ * Apart from incErrors, every update must be made by the owning thread. The
+ * new values are published with ordered (lazySet) writes, which are much
+ * cheaper than volatile writes or atomic increments, and may be read by any
+ * thread.
+ */
+final class WorkerMetrics extends WorkerMetricsFields {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	/**
+	 * The minimum response time reported before any has been recorded.
+	 */
+	static final long NO_MIN_TIME = 999999999;
+
+	private static final AtomicLongFieldUpdater<WorkerMetricsFields> ITERATIONS = AtomicLongFieldUpdater.newUpdater( WorkerMetricsFields.class, "iterations" );
+	private static final AtomicLongFieldUpdater<WorkerMetricsFields> MIN_TIME = AtomicLongFieldUpdater.newUpdater( WorkerMetricsFields.class, "minTime" );
+	private static final AtomicLongFieldUpdater<WorkerMetricsFields> MAX_TIME = AtomicLongFieldUpdater.newUpdater( WorkerMetricsFields.class, "maxTime" );
+	private static final AtomicLongFieldUpdater<WorkerMetricsFields> TOTAL_TIME = AtomicLongFieldUpdater.newUpdater( WorkerMetricsFields.class, "totalTime" );
+	private static final AtomicLongFieldUpdater<WorkerMetricsFields> BYTES = AtomicLongFieldUpdater.newUpdater( WorkerMetricsFields.class, "bytes" );
+	private static final AtomicLongFieldUpdater<WorkerMetricsFields> ERRORS = AtomicLongFieldUpdater.newUpdater( WorkerMetricsFields.class, "errors" );
+	private static final AtomicLongFieldUpdater<WorkerMetricsFields> PACING_ERROR_TOTAL = AtomicLongFieldUpdater.newUpdater( WorkerMetricsFields.class, "pacingErrorTotal" );
+	private static final AtomicLongFieldUpdater<WorkerMetricsFields> PACING_ERROR_COUNT = AtomicLongFieldUpdater.newUpdater( WorkerMetricsFields.class, "pacingErrorCount" );
+	private static final AtomicLongFieldUpdater<WorkerMetricsFields> MAX_PACING_ERROR = AtomicLongFieldUpdater.newUpdater( WorkerMetricsFields.class, "maxPacingError" );
+	private static final AtomicLongFieldUpdater<WorkerMetricsFields> BACKLOG = AtomicLongFieldUpdater.newUpdater( WorkerMetricsFields.class, "backlog" );
+	private static final AtomicLongFieldUpdater<WorkerMetricsFields> MAX_SCHEDULE_LAG = AtomicLongFieldUpdater.newUpdater( WorkerMetricsFields.class, "maxScheduleLag" );
+
+	// Padding after the counters (that before them is inherited).
+	long p10, p11, p12, p13, p14, p15, p16, p17;
+
+	WorkerMetrics() {
+		minTime = NO_MIN_TIME;
+	}
+
+	/**
+	 * Counts one iteration. Owning thread only.
+	 * @return The new iteration count.
+	 */
+	long incIterations() {
+		final long value = iterations + 1;
+		ITERATIONS.lazySet( this, value );
+		return value;
+	}
+
+	/**
+	 * Adds one response time to the minimum, maximum and total. Owning thread
+	 * only.
+	 * @param time Response time in microseconds.
+	 */
+	void recordTime( long time ) {
+		if ( time<minTime ) {
+			MIN_TIME.lazySet( this, time );
+		}
+		if ( time>maxTime ) {
+			MAX_TIME.lazySet( this, time );
+		}
+		TOTAL_TIME.lazySet( this, totalTime + time );
+	}
+
+	/**
+	 * Counts message bytes. Owning thread only.
+	 */
+	void addBytes( long count ) {
+		BYTES.lazySet( this, bytes + count );
+	}
+
+	/**
+	 * Counts a failure. Unlike the other updates, this may be called from any
+	 * thread.
+	 */
+	void incErrors() {
+		ERRORS.incrementAndGet( this );
+	}
+
+	/**
+	 * Records how late a paced iteration started. Owning thread only.
+	 * @param error Nanoseconds, not negative.
+	 */
+	void recordPacingError( long error ) {
+		PACING_ERROR_TOTAL.lazySet( this, pacingErrorTotal + error );
+		PACING_ERROR_COUNT.lazySet( this, pacingErrorCount + 1 );
+		if ( error>maxPacingError ) {
+			MAX_PACING_ERROR.lazySet( this, error );
+		}
+	}
+
+	/**
+	 * Records how far behind its schedule an iteration started, and so how
+	 * many scheduled iterations have not yet started. Owning thread only.
+	 * @param backlog Iterations.
+	 * @param lag Nanoseconds.
+	 */
+	void recordScheduleLag( long backlog, long lag ) {
+		if ( backlog!=this.backlog ) {
+			BACKLOG.lazySet( this, backlog );
+		}
+		if ( lag>maxScheduleLag ) {
+			MAX_SCHEDULE_LAG.lazySet( this, lag );
+		}
+	}
+
+	long getIterations() {
+		return iterations;
+	}
+
+	long getMinTime() {
+		return minTime;
+	}
+
+	long getMaxTime() {
+		return maxTime;
+	}
+
+	long getTotalTime() {
+		return totalTime;
+	}
+
+	long getBytes() {
+		return bytes;
+	}
+
+	long getErrors() {
+		return errors;
+	}
+
+	long getPacingErrorTotal() {
+		return pacingErrorTotal;
+	}
+
+	long getPacingErrorCount() {
+		return pacingErrorCount;
+	}
+
+	long getMaxPacingError() {
+		return maxPacingError;
+	}
+
+	long getBacklog() {
+		return backlog;
+	}
+
+	long getMaxScheduleLag() {
+		return maxScheduleLag;
+	}
+
+}
+
+/**
+ * Padding before the counters. The JVM lays out superclass fields first, so
+ * a class hierarchy is the only portable way to fix the order.
+ */
+abstract class WorkerMetricsPadding {
+	long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+/**
+ * The counters themselves, see WorkerMetrics.
+ */
+abstract class WorkerMetricsFields extends WorkerMetricsPadding {
+	volatile long iterations = 0;
+	volatile long minTime = 0;
+	volatile long maxTime = 0;
+	volatile long totalTime = 0;
+	volatile long bytes = 0;
+	volatile long errors = 0;
+	volatile long pacingErrorTotal = 0;
+	volatile long pacingErrorCount = 0;
+	volatile long maxPacingError = 0;
+	volatile long backlog = 0;
+	volatile long maxScheduleLag = 0;
+}
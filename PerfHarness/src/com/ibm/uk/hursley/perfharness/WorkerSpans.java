@@ -0,0 +1,88 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ibm.uk.hursley.perfharness.stats.LatencyHistogram;
+
+/**
+ * The timing spans of one WorkerThread (see WorkerThread#defineSpan), by
+ * span id. Like WorkerMetrics, only the owning thread may record a span;
+ * the totals are published with ordered writes and may be read by any
+ * thread.
+ */
+final class WorkerSpans {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	private final long[] starts;
+	private final LatencyHistogram[] histograms;
+	private final AtomicLongArray totals;
+
+	WorkerSpans( int size ) {
+		starts = new long[size];
+		histograms = new LatencyHistogram[size];
+		for ( int i = 0; i<size; i++ ) {
+			histograms[i] = new LatencyHistogram();
+		}
+		totals = new AtomicLongArray( size );
+	}
+
+	/**
+	 * @return A copy holding at least the given number of spans, sharing the
+	 *         histograms recorded so far. Owning thread only.
+	 */
+	WorkerSpans grow( int size ) {
+		final WorkerSpans grown = new WorkerSpans( size );
+		System.arraycopy( starts, 0, grown.starts, 0, starts.length );
+		System.arraycopy( histograms, 0, grown.histograms, 0, histograms.length );
+		for ( int i = 0; i<starts.length; i++ ) {
+			grown.totals.set( i, totals.get( i ) );
+		}
+		return grown;
+	}
+
+	int size() {
+		return starts.length;
+	}
+
+	void start( int span, long now ) {
+		starts[span] = now;
+	}
+
+	/**
+	 * Ends a span, recording its time if it was started. Owning thread only.
+	 */
+	void end( int span, long now ) {
+		final long start = starts[span];
+		if ( start!=0 ) {
+			starts[span] = 0;
+			histograms[span].record( now - start );
+			totals.lazySet( span, totals.get( span ) + (now - start) / 1000 );
+		}
+	}
+
+	LatencyHistogram getHistogram( int span ) {
+		return span<histograms.length ? histograms[span] : null;
+	}
+
+	/**
+	 * @return The total time (microseconds) of the span.
+	 */
+	long getTotalTime( int span ) {
+		return span<histograms.length ? totals.get( span ) : 0;
+	}
+
+}
@@ -8,12 +8,25 @@
 ********************************************************** {COPYRIGHT-END} **/
 package com.ibm.uk.hursley.perfharness;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 
+import com.ibm.uk.hursley.perfharness.stats.DestinationCounters;
+import com.ibm.uk.hursley.perfharness.stats.LatencyHistogram;
+import com.ibm.uk.hursley.perfharness.stats.OneWayLatency;
 import com.ibm.uk.hursley.perfharness.stats.ResponseTimeStats;
 
 /**
@@ -35,18 +48,43 @@ public abstract class WorkerThread extends java.lang.Thread {
 	public static final int sENDED = 32;
 	private static Class<? extends WorkerThread> workerclazz = null;
 
+	/**
+	 * If set, WorkerThreads are not started as threads in their own right but
+	 * are run on a thread obtained from this factory (e.g. a virtual thread).
+	 */
+	private static ThreadFactory carrierFactory = null;
+	private static final ThreadLocal<WorkerThread> currentWorker = new ThreadLocal<WorkerThread>();
+
 	private static boolean logarithmic; 
+	private static boolean openLoop;
+	private static boolean precisePacing;
+	private static long spinThreshold;
+	private static int asyncWindow = 1;
+	private static TraceReplay traceReplay = null;
+	private static volatile StatusListener statusListener = null;
+	// Names of the timing spans, by id (see defineSpan). Replaced, never
+	// changed, when a span is defined.
+	private static volatile String[] spanNames = new String[0];
 	
-	// Running count of iterations executed.
-	private final AtomicInteger iterations = new AtomicInteger(0);
-	private final AtomicLong    minTime = new AtomicLong(999999999); 
-	private final AtomicLong    maxTime = new AtomicLong(0); 
-	private final AtomicLong    totalTime = new AtomicLong(0); 
-	private long   overallTotalTime = 0; 
+	// Running counts of iterations, response times, bytes, failures (see
+	// incErrors) and pacing errors, on cache lines of their own.
+	private final WorkerMetrics metrics = new WorkerMetrics();
 	
 	private final boolean transactionResponseStats = Config.isRegistered(ResponseTimeStats.class);
+	// Distribution of response times, for percentiles.
+	private final LatencyHistogram histogram = transactionResponseStats ? new LatencyHistogram() : null;
+	// Distribution of one-way latencies of the messages received (-et).
+	private final LatencyHistogram latencyHistogram = OneWayLatency.isEnabled() ? new LatencyHistogram() : null;
 
-	private long  previousTime = 0;
+	// The destination this thread uses (see setDestination), and the counters
+	// of the destination of the current iteration if these are kept (-sb).
+	private String destinationName = null;
+	private DestinationCounters destination = null;
+	// This thread's response times for each destination, by index (-sb).
+	private LatencyHistogram[] destinationHistograms = new LatencyHistogram[0];
+
+	// Timing spans of this thread, created when it first starts one.
+	private volatile WorkerSpans spans = null;
 
 	protected long startTime = 0; // time thread started iterating (excluding setup time)
 	protected long endTime = 0; // time thread was stopped (excluding shutdown time) 
@@ -56,6 +94,21 @@ public abstract class WorkerThread extends java.lang.Thread {
 	private long responseTime = 0;
 	private boolean responseTimeStarted = false;
 
+	// Open-loop pacing: intended start of the current iteration (0 if none).
+	// How far behind the schedule this thread has fallen is kept in metrics.
+	private long scheduledStartTime = 0;
+
+	// Trace replay: the size and destination of the current iteration.
+	private final TraceReplay.Event traceEvent = new TraceReplay.Event();
+	private int traceSize = -1;
+	private String traceDestination = null;
+
+	// Asynchronous iterations: handles not in flight and those completed but
+	// not yet accounted for by this thread.
+	private Completion[] freeCompletions = null;
+	private int freeCount = 0;
+	private BlockingQueue<Completion> completed = null;
+
 	// Online variance
 	double onlineVarianceMean = 0;
 	double onlineVarianceM2 = 0;
@@ -72,7 +125,15 @@ public abstract class WorkerThread extends java.lang.Thread {
 	 */	
 	protected volatile boolean shutdown = false;
 
-	private Object mutexWaiting = null; // Lock for frozen/finished threads.
+	// Released by signalShutdown for frozen/finished threads. A latch is used rather
+	// than a monitor so that waiting does not pin a virtual thread to its carrier.
+	private final CountDownLatch shutdownSignal = new CountDownLatch(1);
+	private volatile boolean waitingForSignal = false;
+
+	/**
+	 * The thread actually executing run() when a carrier factory is in use.
+	 */
+	private volatile Thread carrier = null;
 
 	private int threadnum;
 	private static AtomicInteger nextThreadNum = new AtomicInteger(1);
@@ -120,6 +181,37 @@ public abstract class WorkerThread extends java.lang.Thread {
 			if (logarithmic && rate == 0)
 				Config.logger.warning( "Logarithmic distirbution (-ln) has no effect when rate=0." );
 
+			openLoop = Config.parms.getBoolean("ol");
+			if (openLoop && rate == 0)
+				Config.logger.warning( "Open-loop pacing (-ol) has no effect when rate=0." );
+
+			final String pacing = Config.parms.getString("pm");
+			precisePacing = PACING_PRECISE.equals(pacing);
+			if (!precisePacing && !PACING_SLEEP.equals(pacing))
+				Config.logger.warning("-pm must be one of {" + PACING_SLEEP + "," + PACING_PRECISE + "}");
+			spinThreshold = Config.parms.getInt("psp") * 1000L;
+			if (spinThreshold < 0)
+				Config.logger.log(Level.WARNING, "Spin threshold (psp={0}) must be non-negative", Config.parms.getInt("psp"));
+
+			asyncWindow = Config.parms.getInt("aw");
+			if (asyncWindow < 1)
+				Config.logger.log(Level.WARNING, "Asynchronous window (aw={0}) must be at least 1", asyncWindow);
+			else if (asyncWindow > 1 && workerclazz != null && !AsyncPaceable.class.isAssignableFrom(workerclazz))
+				Config.logger.log(Level.WARNING, "Asynchronous window (aw={0}) cannot be used with {1}", new Object[] { asyncWindow, workerclazz.getSimpleName() });
+
+			TraceReplay.registerConfig();
+			if (!Config.isInvalid()) {
+				try {
+					traceReplay = TraceReplay.open();
+				} catch (IOException e) {
+					Config.logger.log(Level.WARNING, "Cannot open trace file (tr={0}): {1}", new Object[] { Config.parms.getString("tr"), e.getMessage() });
+				}
+				if (traceReplay != null && workerclazz != null && !Paceable.class.isAssignableFrom(workerclazz))
+					Config.logger.warning("Cannot use tr if not using a paceable WorkerThread");
+			}
+			if (precisePacing && rate == 0 && traceReplay == null)
+				Config.logger.warning("Precise pacing (-pm precise) has no effect when rate=0, unless replaying a trace (-tr).");
+
 			final int rampTime = Config.parms.getInt("rp");
 			if (rampTime < 0)
 				Config.logger.log(Level.WARNING, "Ramp time (rp={0} must be at least 1 (or 0 for off)", rampTime);
@@ -165,15 +257,124 @@ public abstract class WorkerThread extends java.lang.Thread {
 	public void start() {
 		// As an emergency measure should the thread not set the starttime itself.
 		startTime = System.currentTimeMillis();
-		super.start();
+		if (carrierFactory == null) {
+			super.start();
+		} else {
+			final Thread t = carrierFactory.newThread(new Runnable() {
+				public void run() {
+					currentWorker.set(WorkerThread.this);
+					try {
+						WorkerThread.this.run();
+					} finally {
+						notifyStatus();
+					}
+				}
+			});
+			t.setName(getName());
+			carrier = t;
+			t.start();
+		}
+	}
+
+	/**
+	 * Interrupts the thread executing this worker, which is not this Thread
+	 * object if a carrier factory is in use.
+	 */
+	public void interrupt() {
+		final Thread t = carrier;
+		if (t == null) {
+			super.interrupt();
+		} else {
+			t.interrupt();
+		}
+	}
+
+	/**
+	 * @return true if this worker has been started and has not yet returned
+	 *         from run().
+	 */
+	public final boolean isExecuting() {
+		final Thread t = carrier;
+		return t != null ? t.isAlive() : isAlive();
+	}
+
+	/**
+	 * @return The thread executing this worker, which is not this Thread
+	 *         object if a carrier factory is in use.
+	 */
+	public final Thread getExecutingThread() {
+		final Thread t = carrier;
+		return t != null ? t : this;
+	}
+
+	/**
+	 * Changes the status of this thread and informs any StatusListener.
+	 * Subclasses should use this rather than assigning status directly.
+	 * 
+	 * @param newStatus
+	 *            Bitmask of sCREATED, sCONNECTING etc.
+	 */
+	protected final void setStatus(int newStatus) {
+		status = newStatus;
+		notifyStatus();
+	}
+
+	private final void notifyStatus() {
+		final StatusListener l = statusListener;
+		if (l != null) {
+			l.statusChanged(this, status);
+		}
+	}
+
+	/**
+	 * Sets the single listener informed of WorkerThread status changes.
+	 * 
+	 * @param listener
+	 *            Null to stop listening.
+	 */
+	static void setStatusListener(StatusListener listener) {
+		statusListener = listener;
 	}
 
-	protected final int incIterations() {
-		// The following was measured as 1.6x faster than incrementAndGet (on a
-		// single-core x86). This only works because this method can only be
-		// called by its owning thread.
-		final int val = iterations.get() + 1;
-		iterations.set(val);
+	/**
+	 * Sets the factory used to create the threads on which WorkerThreads are
+	 * run. This must be called before any workers are started.
+	 * 
+	 * @param factory
+	 *            Null to run each WorkerThread as a platform thread.
+	 */
+	static void setCarrierFactory(ThreadFactory factory) {
+		carrierFactory = factory;
+	}
+
+	/**
+	 * @return true if WorkerThreads are run on carrier threads (for example
+	 *         virtual threads) rather than as threads in their own right.
+	 */
+	public static boolean usesCarrierThreads() {
+		return carrierFactory != null;
+	}
+
+	/**
+	 * The WorkerThread equivalent of Thread.currentThread(). This must be used
+	 * in preference to casting the current thread as workers may be running on
+	 * a carrier thread.
+	 * 
+	 * @return The WorkerThread being executed by the calling thread, or null.
+	 */
+	public static WorkerThread currentWorker() {
+		final Thread t = Thread.currentThread();
+		if (t instanceof WorkerThread) {
+			return (WorkerThread)t;
+		}
+		return currentWorker.get();
+	}
+
+	protected final long incIterations() {
+		// A plain increment published with an ordered write is much faster
+		// than incrementAndGet. This only works because this method can only
+		// be called by its owning thread.
+		final long val = metrics.incIterations();
 
 		// Only record if tracking response times
 		if (transactionResponseStats) {
@@ -182,32 +383,79 @@ public abstract class WorkerThread extends java.lang.Thread {
 				responseEndTime = System.nanoTime();
 				responseTimeStarted = false;
 			}
-			responseTime = (responseEndTime - responseStartTime) / 1000;
-			// Update the best response time for this thread
-			minTime(responseTime);
-
-			// Update the worst response time for this thread
-			maxTime(responseTime);
-
-			// Update the worst response time for this thread
-			totalTime(responseTime);
-
-			// calculate online variance
-			onlineVarianceDelta = responseTime - onlineVarianceMean;
-			onlineVarianceMean = onlineVarianceMean + (onlineVarianceDelta/(double)iterations.get());
-			onlineVarianceM2 = onlineVarianceM2 + onlineVarianceDelta*(responseTime-onlineVarianceMean);
+			recordResponseTime(responseEndTime - responseStartTime, val, destination);
 
-			responseTime = 0;
 			responseStartTime = 0;
 			responseEndTime = 0;
+		} else if (destination != null) {
+			destination.incIterations();
 		}
 		return val;
 	}
 
+	/**
+	 * Counts an iteration whose response time period has already been
+	 * measured (for example, an asynchronous iteration).
+	 * 
+	 * @param start
+	 *            Start of the response time period (System.nanoTime()).
+	 * @param end
+	 *            End of the response time period (System.nanoTime()).
+	 * @param destination
+	 *            The destination of the iteration (-sb), or null.
+	 * @return The new iteration count.
+	 */
+	private final long incIterations(long start, long end, DestinationCounters destination) {
+		final long val = metrics.incIterations();
+
+		if (transactionResponseStats) {
+			recordResponseTime(end - start, val, destination);
+		} else if (destination != null) {
+			destination.incIterations();
+		}
+		return val;
+	}
+
+	private final void recordResponseTime(long nanos, long count, DestinationCounters destination) {
+		histogram.record(nanos);
+		if (destination != null) {
+			destinationHistogram(destination).record(nanos);
+			destination.incIterations(nanos);
+		}
+		responseTime = nanos / 1000;
+		// Update the best, worst and total response times for this thread
+		metrics.recordTime(responseTime);
+
+		// calculate online variance
+		onlineVarianceDelta = responseTime - onlineVarianceMean;
+		onlineVarianceMean = onlineVarianceMean + (onlineVarianceDelta/(double)count);
+		onlineVarianceM2 = onlineVarianceM2 + onlineVarianceDelta*(responseTime-onlineVarianceMean);
+
+		responseTime = 0;
+	}
+
+	/**
+	 * @return This thread's histogram of the response times of a destination
+	 *         (-sb), created the first time it is needed. Owning thread only.
+	 */
+	private final LatencyHistogram destinationHistogram(DestinationCounters d) {
+		final int index = d.getIndex();
+		if (index >= destinationHistograms.length) {
+			destinationHistograms = Arrays.copyOf(destinationHistograms, index + 1);
+		}
+		LatencyHistogram h = destinationHistograms[index];
+		if (h == null) {
+			h = destinationHistograms[index] = d.newHistogram();
+		}
+		return h;
+	}
+
 	protected final void startResponseTimePeriod() {
 		// Only record if tracking response times
 		if (transactionResponseStats) {
-			responseStartTime = System.nanoTime();
+			// In open-loop mode the period starts when the iteration was
+			// scheduled, not when we actually got round to it.
+			responseStartTime = scheduledStartTime != 0 ? scheduledStartTime : System.nanoTime();
 			responseTimeStarted = true;
 		}
 	}
@@ -220,28 +468,82 @@ public abstract class WorkerThread extends java.lang.Thread {
 		}
 	}
 
-	protected final void minTime(long time) {
-		previousTime = minTime.get();
-		if (time < previousTime)
-			minTime.set(time);
+	/**
+	 * Defines a named timing span, so that a worker can time the phases of
+	 * its iterations separately (for example, the send, commit and receive
+	 * of a request). Worker classes should define their spans once, in
+	 * static fields, and workers sharing a span name share its id.
+	 * @return The id of the named span, for startSpan and endSpan.
+	 */
+	protected static synchronized int defineSpan(String name) {
+		final String[] names = spanNames;
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		final String[] grown = Arrays.copyOf(names, names.length + 1);
+		grown[names.length] = name;
+		spanNames = grown;
+		return names.length;
 	}
 
-	protected final void maxTime(long time) {
-		previousTime = maxTime.get();
-		if (time > previousTime) {
-			maxTime.set( time );
+	/**
+	 * @return The names of the timing spans defined so far, by id. The array
+	 *         must not be changed.
+	 */
+	public static String[] getSpanNames() {
+		return spanNames;
+	}
+
+	/**
+	 * Starts timing a span of the current iteration. Spans are only timed
+	 * when response times are being measured and, like the response time
+	 * period, must be started and ended by this thread.
+	 * @param span From defineSpan.
+	 */
+	protected final void startSpan(int span) {
+		if (transactionResponseStats) {
+			WorkerSpans s = spans;
+			if (s == null || span >= s.size()) {
+				s = spans = (s == null) ? new WorkerSpans(spanNames.length) : s.grow(spanNames.length);
+			}
+			s.start(span, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Ends a span started by startSpan and counts its time.
+	 * @param span From defineSpan.
+	 */
+	protected final void endSpan(int span) {
+		final WorkerSpans s = spans;
+		if (s != null && span < s.size()) {
+			s.end(span, System.nanoTime());
 		}
 	}
 
-	protected final void totalTime(long time) {
-		previousTime = totalTime.get();
-		totalTime.set(previousTime + time);
-		overallTotalTime += time;
+	/**
+	 * @return The distribution of times of the given span, or null if this
+	 *         thread has not timed it.
+	 */
+	public final LatencyHistogram getSpanHistogram(int span) {
+		final WorkerSpans s = spans;
+		return s == null ? null : s.getHistogram(span);
+	}
+
+	/**
+	 * @return The total time (microseconds) of the given span.
+	 */
+	public final long getSpanTotalTime(int span) {
+		final WorkerSpans s = spans;
+		return s == null ? 0 : s.getTotalTime(span);
 	}
 
 	public final double getResponseTimeStdDev() {
-		if (iterations.get() > 1) {
-			final double variance = onlineVarianceM2 / (iterations.get() - 1);
+		final long iterations = metrics.getIterations();
+		if (iterations > 1) {
+			final double variance = onlineVarianceM2 / (iterations - 1);
 			return Math.sqrt(variance);
 		} else {
 			return 0;
@@ -249,23 +551,193 @@ public abstract class WorkerThread extends java.lang.Thread {
 	}
 
 	public final long getMinTime() {
-		return minTime.get();
+		return metrics.getMinTime();
 	}
 
 	public final long getOverallTotalTime() {
-		return overallTotalTime;
+		return metrics.getTotalTime();
 	}
 
 	public final long getMaxTime() {
-		return maxTime.get();
+		return metrics.getMaxTime();
+	}
+
+	public final long getIterations() {
+		return metrics.getIterations();
+	}
+
+	/**
+	 * @return The distribution of this thread's response times, or null if
+	 *         response times are not being measured.
+	 */
+	public final LatencyHistogram getHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * Counts the one-way latency of a message received (-et). Like
+	 * incIterations, this must always be called from the same thread.
+	 * @param sendTime The time stamp from OneWayLatency.now() carried by the
+	 *            message.
+	 */
+	protected final void recordLatency(long sendTime) {
+		if (latencyHistogram != null) {
+			latencyHistogram.record(OneWayLatency.now() - sendTime);
+		}
 	}
 
-	public final long resetTotalTime() {
-		return totalTime.getAndSet(0);
+	/**
+	 * @return The distribution of one-way latencies of the messages received
+	 *         by this thread, or null if these are not being measured (-et).
+	 */
+	public final LatencyHistogram getLatencyHistogram() {
+		return latencyHistogram;
 	}
 
-	public final int getIterations() {
-		return iterations.get();
+	/**
+	 * Counts the message bytes sent or received by an iteration, for the
+	 * bytes/sec statistics. Like incIterations, this must always be called
+	 * from the same thread.
+	 * @param bytes
+	 */
+	protected final void addBytes(long bytes) {
+		metrics.addBytes(bytes);
+	}
+
+	/**
+	 * @return The number of message bytes reported by this thread.
+	 */
+	public final long getBytes() {
+		return metrics.getBytes();
+	}
+
+	/**
+	 * Counts a failed iteration or lost connection. This may be called from
+	 * any thread (for example a message listener).
+	 */
+	protected final void incErrors() {
+		metrics.incErrors();
+		final DestinationCounters d = destination;
+		if (d != null) {
+			d.incErrors();
+		}
+	}
+
+	/**
+	 * @return The number of failures reported by this thread.
+	 */
+	public final long getErrors() {
+		return metrics.getErrors();
+	}
+
+	/**
+	 * @return The number of scheduled iterations this thread had not yet
+	 *         started at the beginning of its latest iteration (open-loop
+	 *         pacing only).
+	 */
+	public final long getBacklog() {
+		return metrics.getBacklog();
+	}
+
+	/**
+	 * @return The furthest (in nanoseconds) this thread has fallen behind its
+	 *         open-loop schedule.
+	 */
+	public final long getMaxScheduleLag() {
+		return metrics.getMaxScheduleLag();
+	}
+
+	/**
+	 * @return The total time (in nanoseconds) by which paced iterations started
+	 *         later than scheduled.
+	 */
+	public final long getPacingErrorTotal() {
+		return metrics.getPacingErrorTotal();
+	}
+
+	/**
+	 * @return The number of paced iterations included in getPacingErrorTotal().
+	 */
+	public final long getPacingErrorCount() {
+		return metrics.getPacingErrorCount();
+	}
+
+	/**
+	 * @return The latest (in nanoseconds) any paced iteration has started.
+	 */
+	public final long getMaxPacingError() {
+		return metrics.getMaxPacingError();
+	}
+
+	/**
+	 * @return true if throttled workers are using precise (park and spin)
+	 *         pacing.
+	 */
+	public static boolean isPrecisePacing() {
+		return precisePacing;
+	}
+
+	/**
+	 * @return true if throttled workers are using open-loop pacing, or are
+	 *         replaying a trace.
+	 */
+	public static boolean isOpenLoop() {
+		return openLoop || traceReplay != null;
+	}
+
+	/**
+	 * @return The message size given by a replayed trace (-tr) for the
+	 *         current iteration, or -1 if there is none.
+	 */
+	protected final int getTraceSize() {
+		return traceSize;
+	}
+
+	/**
+	 * @return The destination given by a replayed trace (-tr) for the
+	 *         current iteration, or null if there is none.
+	 */
+	protected final String getTraceDestination() {
+		return traceDestination;
+	}
+
+	/**
+	 * Names the destination this thread sends to or receives from. This is
+	 * used to group its statistics and, if they are broken down by
+	 * destination (-sb), its iterations are counted against it.
+	 * @param name
+	 */
+	protected final void setDestination(String name) {
+		destinationName = name;
+		selectDestination(getDestinationIndex(name));
+	}
+
+	/**
+	 * @return The name of the destination this thread sends to or receives
+	 *         from, used to group its statistics, or null if it has none.
+	 */
+	public String getDestination() {
+		return destinationName;
+	}
+
+	/**
+	 * Looks up a destination for selectDestination. This hashes the name, so
+	 * should be done once for each destination while setting up, not for
+	 * every iteration.
+	 * @return The index of the named destination, or -1 if statistics are
+	 *         not broken down by destination.
+	 */
+	protected static int getDestinationIndex(String name) {
+		return DestinationCounters.indexOf(name);
+	}
+
+	/**
+	 * Counts following iterations against a different destination (-sb), for
+	 * workers which use several. This is only an array lookup.
+	 * @param index From getDestinationIndex.
+	 */
+	protected final void selectDestination(int index) {
+		destination = DestinationCounters.isEnabled() ? DestinationCounters.get(index) : null;
 	}
 
 	public long getStartTime() {
@@ -283,11 +755,7 @@ public abstract class WorkerThread extends java.lang.Thread {
 
 	public void signalShutdown() {
 		shutdown = true;
-		if (usesAsynchronousShutdownSignal()) {
-			synchronized (mutexWaiting) {
-				mutexWaiting.notifyAll();
-			}
-		} // end if
+		shutdownSignal.countDown();
 	}
 
 	/**
@@ -307,6 +775,8 @@ public abstract class WorkerThread extends java.lang.Thread {
 	}
 
 	private static final long TIME_PRECISION = 1000000000; // nanos	
+	static final String PACING_SLEEP = "sleep";
+	static final String PACING_PRECISE = "precise";
 	
 	/**
 	 * Only a class that implements the Paceable interface can be used here. If
@@ -329,6 +799,10 @@ public abstract class WorkerThread extends java.lang.Thread {
 	 * @throws Exception
 	 */
 	protected void pace(final Paceable p, double rate, int totalIterations, final int yieldRate, long rampTime) throws Exception {
+		if (traceReplay != null) {
+			paceTrace(p, totalIterations, yieldRate);
+			return;
+		}
 		final boolean usingMG = totalIterations > 0;
 
 		// As of this point we have entered the performance section
@@ -336,6 +810,8 @@ public abstract class WorkerThread extends java.lang.Thread {
 		// loops and "pull up" conditional checks 
 
 		startTime = System.currentTimeMillis();
+		notifyStatus(); // in case our subclass set sRUNNING directly
+		rampTime *= (TIME_PRECISION / 1000); // once, as we may start again below
 
 
 		do { // this loop is in case we change the rate, we have to break the
@@ -360,8 +836,6 @@ public abstract class WorkerThread extends java.lang.Thread {
 			} else {
 				// throttled operation
 
-				rampTime *= (TIME_PRECISION / 1000);
-
 				double rateI = rate;
 				long rampTimeI = rampTime;
 
@@ -369,11 +843,25 @@ public abstract class WorkerThread extends java.lang.Thread {
 				long ramp_start = now();
 				long delay = (long) (TIME_PRECISION / rate);
 				boolean first = true;
+				long next = ramp_start; // intended start of the next iteration (open-loop)
 
 				try {
 
-					while (!shutdown && (!usingMG || totalIterations-- > 0)
-							&& !rateUpdated) {
+					while (!shutdown && (!usingMG || totalIterations-- > 0)) {
+
+						if (rateUpdated) {
+							if (this.rate == 0)
+								break; // start again unthrottled
+							// Keep to the same schedule at the new rate, so that
+							// an open-loop backlog survives rate changes (such
+							// as those made every tick of a load profile ramp).
+							rate = this.rate;
+							rateUpdated = false;
+							if (rampTimeI <= 0) {
+								rateI = rate;
+								delay = (long) (TIME_PRECISION / rate);
+							}
+						}
 
 						long before = now();
 
@@ -404,16 +892,41 @@ public abstract class WorkerThread extends java.lang.Thread {
 						}
 					} // end if ramping
 
-					p.oneIteration();
-					if (logarithmic)
-						doSleep(logarithmicDistribution(delay, delay * 5));
-					else
-						doSleep(delay);
+					if (openLoop) {
+						// Each iteration has an intended start time on a fixed
+						// schedule. If we are behind, start immediately and let
+						// the delay show up in the response time.
+						final long lag = waitUntil(next);
+						metrics.recordScheduleLag(lag / delay, lag);
+						scheduledStartTime = next;
+						startResponseTimePeriod();
+						p.oneIteration();
+						scheduledStartTime = 0;
+						if (logarithmic)
+							next += logarithmicDistribution(delay, delay * 5);
+						else
+							next += delay;
+					} else if (precisePacing) {
+						p.oneIteration();
+						if (logarithmic)
+							next += logarithmicDistribution(delay, delay * 5);
+						else
+							next += delay;
+						// If we have fallen more than an iteration behind, do
+						// not try to catch up with a burst.
+						if (preciseSleepUntil(next) > delay)
+							next = now();
+					} else {
+						p.oneIteration();
+						if (logarithmic)
+							doSleep(logarithmicDistribution(delay, delay * 5));
+						else
+							doSleep(delay);
+					}
 
 					if (yieldRate != 0 && totalIterations++ % yieldRate == 0)
 						Thread.yield();
 				} // end while !shutdown
-				endTime = System.currentTimeMillis();
 			}
 			catch (InterruptedException e) {
 				if (!shutdown)
@@ -430,6 +943,40 @@ public abstract class WorkerThread extends java.lang.Thread {
 			endTime = System.currentTimeMillis();
 	}
 
+	/**
+	 * Starts each iteration at the time of the next arrival in the trace
+	 * shared by all WorkerThreads. As with open-loop pacing, response times
+	 * are measured from the arrival time.
+	 */
+	private final void paceTrace(final Paceable p, int totalIterations, final int yieldRate) throws Exception {
+		final boolean usingMG = totalIterations > 0;
+		startTime = System.currentTimeMillis();
+		notifyStatus(); // in case our subclass set sRUNNING directly
+		try {
+			while (!shutdown && (!usingMG || totalIterations-- > 0)
+					&& traceReplay.next(traceEvent)) {
+				final long lag = waitUntil(traceEvent.time);
+				// We only know that this thread's own arrival is overdue.
+				metrics.recordScheduleLag(lag > 0 ? 1 : 0, lag);
+				traceSize = traceEvent.size;
+				traceDestination = traceEvent.destination;
+				scheduledStartTime = traceEvent.time;
+				startResponseTimePeriod();
+				p.oneIteration();
+				scheduledStartTime = 0;
+				if (yieldRate != 0 && totalIterations % yieldRate == 0)
+					Thread.yield();
+			}
+		}
+		catch (InterruptedException e) {
+			if (!shutdown)
+				throw e;
+			// else swallowed
+		}
+		metrics.recordScheduleLag(0, 0);
+		endTime = System.currentTimeMillis();
+	}
+
 	private static final long now() {
 		// hopefully this will be inlined by javac or JIT!
 		return System.nanoTime();
@@ -490,10 +1037,94 @@ public abstract class WorkerThread extends java.lang.Thread {
 			final int sleepNanos = (int)(sleep % 1000000);
 			final long sleepMillis = (long)((sleep - sleepNanos)* (1000.0 / TIME_PRECISION));
 			Thread.sleep(sleepMillis, sleepNanos);
+			recordPacingError(now() - (now + sleep));
+		} else {
+			recordPacingError(-sleep);
 		}
 		return now;
 	}
 
+	/**
+	 * Sleeps until the given absolute time. Unlike doSleep, no attempt is made
+	 * to forgive time lost in earlier iterations.
+	 * 
+	 * @param deadline
+	 *            Target time (as returned by now()).
+	 * @return How far (in nanoseconds) we were already behind the deadline, or
+	 *         0 if we had to wait for it.
+	 * @throws InterruptedException
+	 */
+	private final long sleepUntil(long deadline) throws InterruptedException {
+		final long sleep = deadline - now();
+		if (sleep > 0) {
+			final int sleepNanos = (int)(sleep % 1000000);
+			Thread.sleep(sleep / 1000000, sleepNanos);
+			recordPacingError(now() - deadline);
+			return 0;
+		}
+		recordPacingError(-sleep);
+		return -sleep;
+	}
+
+	/**
+	 * Waits for a deadline with the configured pacing method (-pm).
+	 * @see #sleepUntil(long)
+	 */
+	private final long waitUntil(long deadline) throws InterruptedException {
+		return precisePacing ? preciseSleepUntil(deadline) : sleepUntil(deadline);
+	}
+
+	private static final MethodHandle onSpinWait = findOnSpinWait();
+
+	/**
+	 * Thread.onSpinWait() requires Java 9, so it is located reflectively.
+	 * @return A handle to it, or null if it is not available.
+	 */
+	private static MethodHandle findOnSpinWait() {
+		try {
+			return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * As sleepUntil, but parks until -psp microseconds before the deadline and
+	 * then spins, so the deadline is met far more closely than Thread.sleep
+	 * allows. This costs CPU time on the worker's own thread.
+	 */
+	private final long preciseSleepUntil(long deadline) throws InterruptedException {
+		long remaining = deadline - now();
+		if (remaining <= 0) {
+			recordPacingError(-remaining);
+			return -remaining;
+		}
+		while (remaining > spinThreshold) {
+			LockSupport.parkNanos(remaining - spinThreshold);
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			remaining = deadline - now();
+		}
+		while (remaining > 0) {
+			if (onSpinWait != null) {
+				try {
+					onSpinWait.invokeExact();
+				} catch (Throwable e) {
+					// Not expected, just spin
+				}
+			}
+			remaining = deadline - now();
+		}
+		recordPacingError(-remaining);
+		return 0;
+	}
+
+	private final void recordPacingError(long error) {
+		if (error < 0)
+			error = 0;
+		metrics.recordPacingError(error);
+	}
+
 	/**
 	 * This method implements flags such as -mg -rt -yd and -rp.
 	 * @param p A paceable WorkerThread.
@@ -504,7 +1135,121 @@ public abstract class WorkerThread extends java.lang.Thread {
 		int iterations = Config.parms.getInt("mg");
 		final int yieldRate = Config.parms.getInt("yd");
 		final long rampTime = Config.parms.getInt("rp") * 1000;
-		pace(p, rate, iterations, yieldRate, rampTime);
+		if (asyncWindow > 1 && p instanceof AsyncPaceable) {
+			final AsyncPaceable ap = (AsyncPaceable)p;
+			completed = new ArrayBlockingQueue<Completion>(asyncWindow);
+			freeCompletions = new Completion[asyncWindow];
+			for (freeCount = 0; freeCount < asyncWindow; freeCount++) {
+				freeCompletions[freeCount] = new Completion(completed);
+			}
+			try {
+				// Each paced iteration starts a new asynchronous one
+				pace(new Paceable() {
+					public boolean oneIteration() throws Exception {
+						return startAsyncIteration(ap);
+					}
+				}, rate, iterations, yieldRate, rampTime);
+			} finally {
+				drainAsyncIterations();
+			}
+		} else {
+			pace(p, rate, iterations, yieldRate, rampTime);
+		}
+	}
+
+	private static final long ASYNC_DRAIN_TIMEOUT = 5 * TIME_PRECISION;
+
+	/**
+	 * Waits for room in the in-flight window, then starts another iteration.
+	 */
+	private final boolean startAsyncIteration(AsyncPaceable ap) throws Exception {
+		while (freeCount == 0) {
+			final Completion c = completed.poll(100, TimeUnit.MILLISECONDS);
+			if (c != null) {
+				accountFor(c);
+			} else if (shutdown) {
+				return false;
+			}
+		}
+		Completion c;
+		while ((c = completed.poll()) != null) {
+			accountFor(c);
+		}
+		return ap.startIteration() != null;
+	}
+
+	/**
+	 * Waits for any iterations still in flight once pacing has ended. We give
+	 * up if none complete for ASYNC_DRAIN_TIMEOUT.
+	 */
+	private final void drainAsyncIterations() throws Exception {
+		long progress = now();
+		try {
+			while (freeCount < freeCompletions.length) {
+				final Completion c = completed.poll(100, TimeUnit.MILLISECONDS);
+				if (c != null) {
+					accountFor(c);
+					progress = now();
+					endTime = System.currentTimeMillis();
+				} else if (now() - progress > ASYNC_DRAIN_TIMEOUT) {
+					Log.logger.log(Level.WARNING, "{0} iterations still in flight, abandoning them", freeCompletions.length - freeCount);
+					break;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			if (!shutdown)
+				throw e;
+			// else swallowed
+		}
+	}
+
+	/**
+	 * Returns a completed handle to the window and counts its iteration.
+	 */
+	private final void accountFor(Completion c) throws Exception {
+		freeCompletions[freeCount++] = c;
+		final Throwable failure = c.failure;
+		if (failure != null) {
+			c.failure = null;
+			if (failure instanceof Exception)
+				throw (Exception)failure;
+			if (failure instanceof Error)
+				throw (Error)failure;
+			throw new Exception(failure);
+		}
+		if (c.counted) {
+			incIterations(c.startTime, c.endTime, c.destination);
+		}
+	}
+
+	/**
+	 * Obtains a handle for an asynchronous iteration which is about to be
+	 * started. The response time period starts now (or at the intended start
+	 * time if using open-loop pacing), and the iteration will be counted
+	 * against the destination selected now (see selectDestination).
+	 * 
+	 * @return A handle which must be completed exactly once.
+	 * @throws IllegalStateException
+	 *             If the in-flight window is already full.
+	 */
+	protected final Completion newCompletion() {
+		if (freeCount == 0) {
+			throw new IllegalStateException("More than " + asyncWindow + " iterations in flight");
+		}
+		final Completion c = freeCompletions[--freeCount];
+		c.startTime = scheduledStartTime != 0 ? scheduledStartTime : System.nanoTime();
+		c.destination = destination;
+		c.state.incrementAndGet();
+		return c;
+	}
+
+	/**
+	 * @return The maximum number of iterations each WorkerThread may have in
+	 *         flight (-aw).
+	 */
+	protected static int getAsyncWindow() {
+		return asyncWindow;
 	}
 
 	/**
@@ -539,7 +1284,7 @@ public abstract class WorkerThread extends java.lang.Thread {
 	 * will still return true after the signal has been sent.
 	 */
 	public boolean usesAsynchronousShutdownSignal() {
-		return mutexWaiting != null;
+		return waitingForSignal;
 	}
 
 	/**
@@ -552,12 +1297,9 @@ public abstract class WorkerThread extends java.lang.Thread {
 	 *             expected shutdown period.
 	 */
 	protected void waitForShutdownSignal() throws InterruptedException {
-		if (mutexWaiting == null)
-			mutexWaiting = new Object();
+		waitingForSignal = true;
 		try {
-			synchronized (mutexWaiting) {
-				mutexWaiting.wait();
-			}
+			shutdownSignal.await();
 		}
 		catch (InterruptedException e) {
 			if (!shutdown)
@@ -575,5 +1317,118 @@ public abstract class WorkerThread extends java.lang.Thread {
 		// Note: use Callable interface (Java5)
 		public boolean oneIteration() throws Exception;
 	}
+
+	/**
+	 * Informed of WorkerThread status changes, on the thread making the
+	 * change.
+	 */
+	public interface StatusListener {
+		public void statusChanged(WorkerThread worker, int status);
+	}
+
+	/**
+	 * Implementing WorkerThreads may use the pace method to keep up to -aw
+	 * iterations in flight at once. If -aw is 1, oneIteration is used instead.
+	 * @see WorkerThread#newCompletion()
+	 */
+	public interface AsyncPaceable extends Paceable {
+		/**
+		 * Starts, but does not wait for, one iteration.
+		 * 
+		 * @return A handle from newCompletion which will be completed when the
+		 *         iteration finishes, or null if no iteration was started.
+		 */
+		public Completion startIteration() throws Exception;
+	}
+
+	/**
+	 * Handle for an asynchronous iteration. This may be completed by any
+	 * thread; the owning WorkerThread counts the iteration and its response
+	 * time when it next looks for room in its in-flight window.
+	 * <p>
+	 * Handles are reused. If an iteration may be reported finished more than
+	 * once, possibly after the handle has been reissued, take its generation
+	 * when starting it and complete it with that, so that late reports are
+	 * ignored.
+	 */
+	public static final class Completion {
+
+		private final BlockingQueue<Completion> completed;
+		// Odd while an iteration is in flight, incremented when it is issued
+		// and when it finishes
+		private final AtomicInteger state = new AtomicInteger(0);
+		private long startTime;
+		private long endTime;
+		private DestinationCounters destination;
+		private boolean counted;
+		private Throwable failure;
+
+		private Completion(BlockingQueue<Completion> completed) {
+			this.completed = completed;
+		}
+
+		/**
+		 * The iteration finished successfully.
+		 */
+		public void complete() {
+			finish(true, null);
+		}
+
+		/**
+		 * The iteration failed. The exception is rethrown on the owning
+		 * WorkerThread as if it were thrown by oneIteration.
+		 */
+		public void fail(Throwable e) {
+			finish(false, e);
+		}
+
+		/**
+		 * The iteration did not take place and should not be counted.
+		 */
+		public void abandon() {
+			finish(false, null);
+		}
+
+		/**
+		 * @return The generation of the iteration in flight, for complete(int)
+		 *         and fail(int, Throwable).
+		 */
+		public int getGeneration() {
+			return state.get();
+		}
+
+		/**
+		 * The iteration of the given generation finished successfully. Ignored
+		 * if the handle has since been reissued.
+		 */
+		public void complete(int generation) {
+			finish(generation, true, null);
+		}
+
+		/**
+		 * The iteration of the given generation failed. Ignored if the handle
+		 * has since been reissued.
+		 */
+		public void fail(int generation, Throwable e) {
+			finish(generation, false, e);
+		}
+
+		private void finish(boolean counted, Throwable e) {
+			final int generation = state.get();
+			if ((generation & 1) != 0) {
+				finish(generation, counted, e);
+			}
+		}
+
+		private void finish(int generation, boolean counted, Throwable e) {
+			if ((generation & 1) != 0 && state.compareAndSet(generation, generation + 1)) {
+				this.endTime = System.nanoTime();
+				this.counted = counted;
+				this.failure = e;
+				completed.offer(this);
+			}
+		}
+
+	}
 	
 }
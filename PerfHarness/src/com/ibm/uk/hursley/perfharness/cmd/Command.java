@@ -13,7 +13,7 @@ package com.ibm.uk.hursley.perfharness.cmd;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 
 import com.ibm.uk.hursley.perfharness.ApplicationPropertyMap;
@@ -22,6 +22,7 @@ import com.ibm.uk.hursley.perfharness.ControlThread;
 import com.ibm.uk.hursley.perfharness.Copyright;
 import com.ibm.uk.hursley.perfharness.Log;
 import com.ibm.uk.hursley.perfharness.WorkerThread;
+import com.ibm.uk.hursley.perfharness.stats.LatencyHistogram;
 import com.ibm.uk.hursley.perfharness.util.TypedProperties;
 
 /**
@@ -34,12 +35,20 @@ import com.ibm.uk.hursley.perfharness.util.TypedProperties;
  * 
  * > REPORT -stats
  *   returns the loaded statistics class's requestStatistics method
+ * > REPORT -totals
+ *   returns a single TOTALS: line of the iterations, response time, errors and response time
+ *   histogram summed over all workers since the start of the run.  This is what the Coordinator
+ *   polls.
+ * > GO -in 2000
+ *   starts the workers after the given number of milliseconds.  Only valid if this process was
+ *   started with -cmd_go, in which case it waits for this command before starting any workers.
  * > START -nt 4
  *   starts 4 new threads. Returns when the new threads a running
- * > END -nt 2  (not yet implemented in ControlThread.java)
- *   ends 2 threads. Returns when the threads have stopped running - note, they may still be shutting down.
+ * > END -nt 2
+ *   ends 2 threads at the end of their current iteration. Returns when the threads have ended (or the
+ *   shutdown wait -wk has expired).  Their work is still included in the final summary.
  *   If there are no more worker threads owned by the ControlThread, the application shuts down.
- * > END (not yet implemented in ControlThread.java)
+ * > END
  *   ends all remaining worker threads & shuts down.
  * > ALTER -rt 0
  *   changes the pacing of the threads. 0 means maximum rate, otherwise it's messages/sec
@@ -56,8 +65,12 @@ public abstract class Command extends java.lang.Thread {
 	private static final String c = Copyright.COPYRIGHT;
 	
 	private static Class<? extends Command> cmdclazz;
+	private static boolean coordinated = false;
 	
-	protected ArrayList<WorkerThread> workers = null; 
+	static final String TOTALS = "TOTALS:";
+	static final String FINAL = "FINAL:";
+	
+	protected List<WorkerThread> workers = null; 
 	protected ControlThread parent = null;
 	
 	protected String id = Config.parms.getString("id");
@@ -77,6 +90,21 @@ public abstract class Command extends java.lang.Thread {
 			Config.registerAnother( cmdclazz );
 		}
 		
+		coordinated = Config.parms.getBoolean( "cmd_go" );
+		if ( coordinated && cmdclazz==DummyCommandProcessor.class ) {
+			Config.logger.warning( "Waiting for a coordinator (-cmd_go) requires a command processor such as -cmd_c SocketCommandProcessor." );
+		}
+		
+		HarnessControl.registerConfig();
+		
+	}
+	
+	/**
+	 * @return true if the workers are not to be started until a GO command is
+	 *         received (-cmd_go).
+	 */
+	public static boolean isCoordinated() {
+		return coordinated;
 	}
 	
 	protected Command(ControlThread parent) {
@@ -166,6 +194,15 @@ public abstract class Command extends java.lang.Thread {
 				sendMessage(report(parms));
 				return;
 				
+			} else if (headCmd.equalsIgnoreCase("go")) {
+			
+				if (parent.go(parms.getLong("in", 0))) { 
+					sendMessage("SUCCESS: " + input); 
+				} else { 
+					sendMessage("FAIL: " + input); 
+				}
+				return;
+				
 			} else {
 				Log.logger.log( Level.WARNING, "unsupported command: " + input);
 				sendMessage("WARNING: unsupported command: " + input);
@@ -197,12 +234,9 @@ public abstract class Command extends java.lang.Thread {
 		int nt = parms.getInt("nt", 1); // by default add 1
 		
 		try {
+			// returns once the new workers are running
 			if (parent.changeWorkerCount(nt)) { // adds the new workers
-				while (!shutdown && (parent.getRunningWorkers() != workers.size())) {
-					this.wait( 1 * 1000 );
-				}
-				if (shutdown) return false;
-				else return true;
+				return !shutdown;
 			} else {
 				return false;
 			}
@@ -220,15 +254,12 @@ public abstract class Command extends java.lang.Thread {
 	 * @return
 	 */
 	private boolean end(TypedProperties parms) {
-		int nt = parms.getInt("nt", parent.getRunningWorkers()); // by default shutdown
+		int nt = parms.getInt("nt", parent.getActiveWorkerCount()); // by default shutdown
 		
 		try {
-			if (parent.changeWorkerCount(-nt)) { // adds the new workers
-				while (!shutdown && (parent.getRunningWorkers() != workers.size())) {
-					this.wait( 1 * 1000 );
-				}
-				if (shutdown) return false;
-				else return true;
+			// returns once the removed workers have ended
+			if (parent.changeWorkerCount(-nt)) { // removes the workers
+				return !shutdown;
 			} else {
 				return false;
 			}
@@ -248,11 +279,9 @@ public abstract class Command extends java.lang.Thread {
 		 * alter the rate
 		 */
 		double rt = parms.getDouble("rt", -1); // if it's not set, we'll get back -1 & we won't update it
-		Config.parms.putDouble("rt", rt); // update the global config setting so any new workers will start with the current rate
-		// update the rate for all running threads
+		// update the rate for all running threads and any new workers
 		if (rt >= 0 ) {
-			for(int i = 0; i < workers.size(); i++)
-				workers.get(i).updateRate(rt);
+			parent.updateWorkerRate(rt);
 		}
 		
 		return true;
@@ -260,11 +289,75 @@ public abstract class Command extends java.lang.Thread {
 	
 	private String report(TypedProperties parms) {
 		
-		if (parms.getBoolean("stats") == true) {
+		if (parms.get("totals") != null) {
+			return totals(TOTALS);
+		} else if (parms.getBoolean("stats") == true) {
 			return parent.requestStatistics();
 		} else {
-			return "FAIL: invalid report request (options are 'stats')\n";
+			return "FAIL: invalid report request (options are 'stats', 'totals')\n";
 		}
 		
 	}
+	
+	/**
+	 * Sums the counters of every worker, including those which have ended.
+	 * Each value is cumulative so that a coordinator which misses a report
+	 * loses nothing.
+	 * @param prefix TOTALS: or FINAL:
+	 */
+	protected String totals(String prefix) {
+		
+		long iterations = 0;
+		long totalTime = 0;
+		long errors = 0;
+		long[] histogram = null;
+		for (final WorkerThread worker : workers) {
+			iterations += worker.getIterations();
+			totalTime += worker.getOverallTotalTime();
+			errors += worker.getErrors();
+			if (worker.getHistogram() != null) {
+				if (histogram == null) {
+					histogram = new long[LatencyHistogram.BUCKETS];
+				}
+				worker.getHistogram().addTo(histogram);
+			}
+		}
+		final long now = System.currentTimeMillis();
+		final long start = parent.getRunStartTime();
+		
+		final StringBuffer sb = new StringBuffer(128);
+		sb.append(prefix);
+		sb.append(" time=").append(now);
+		sb.append(",elapsed=").append(start > 0 ? now - start : 0);
+		sb.append(",iterations=").append(iterations);
+		sb.append(",totalTime(us)=").append(totalTime);
+		sb.append(",errors=").append(errors);
+		sb.append(",threads=").append(parent.getActiveWorkerCount());
+		if (histogram != null) {
+			// Only the buckets in use, as bucket:count pairs
+			sb.append(",histogram=");
+			boolean first = true;
+			for (int i = 0; i < histogram.length; i++) {
+				if (histogram[i] != 0) {
+					if (!first) {
+						sb.append(';');
+					}
+					sb.append(i).append(':').append(histogram[i]);
+					first = false;
+				}
+			}
+		}
+		return sb.toString();
+		
+	}
+	
+	/**
+	 * Called by the ControlThread once the run is over.  A coordinator is sent
+	 * the final totals, as it cannot poll for them once this process exits.
+	 */
+	public void runEnded() {
+		if (coordinated) {
+			sendMessage(totals(FINAL));
+		}
+	}
 }
@@ -0,0 +1,549 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.cmd;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.logging.Level;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.Copyright;
+import com.ibm.uk.hursley.perfharness.Log;
+import com.ibm.uk.hursley.perfharness.stats.LatencyHistogram;
+
+/**
+ * Drives a number of PerfHarness agents, each a separate process started with
+ * <tt>-cmd_c SocketCommandProcessor -cmd_go</tt>, as one test.
+ * <p>
+ * The coordinator connects to every agent (-cmd_a), tells them all to start
+ * their workers at the same instant, then polls them with
+ * <tt>REPORT -totals</tt> every -cmd_i seconds and prints one aggregate line
+ * for the whole test. Agents which measure response times (-sc
+ * ResponseTimeStats) send their histograms, which are merged so that the
+ * percentiles are those of the whole test. Lines typed on standard input (for example
+ * <tt>ALTER -rt 50</tt> or <tt>START -nt 2</tt>) are sent to every agent. The
+ * final summary is printed once every agent has finished.
+ * <p>
+ * Start it with the PerfHarnessCoordinator main class.
+ */
+public final class Coordinator extends Thread {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	/**
+	 * Agents listed without a port are assumed to use the default -cmd_p.
+	 */
+	private static final int DEFAULT_PORT = 4444;
+
+	/**
+	 * How long (ms) to keep trying to connect to an agent which is not yet
+	 * listening.
+	 */
+	private static final long CONNECT_TIMEOUT = 30000;
+
+	/**
+	 * How long (ms) to wait for agents to answer a poll before reporting.
+	 */
+	private static final long REPLY_TIMEOUT = 2000;
+
+	/**
+	 * How long (ms) to wait for agents to send their final totals once their
+	 * runs have been ended.
+	 */
+	private static final long FINISH_TIMEOUT = 120000;
+
+	/**
+	 * Counters reported by an agent. All are cumulative from the start of its
+	 * run.
+	 */
+	static final class Totals {
+		long time; // agent's clock (ms)
+		long elapsed; // ms since its workers started
+		long iterations;
+		long totalTime; // micros
+		long errors;
+		int threads;
+		long[] histogram; // null if the agent does not measure response times
+
+		/**
+		 * @param line A TOTALS: or FINAL: reply, possibly prefixed by the
+		 *            agent's -id.
+		 * @param prefix Which of the two it is.
+		 */
+		static Totals parse( String line, String prefix ) {
+			final Totals totals = new Totals();
+			final int start = line.indexOf( prefix ) + prefix.length();
+			for ( String field : line.substring( start ).trim().split( "," ) ) {
+				final int equals = field.indexOf( '=' );
+				if ( equals<0 ) {
+					continue;
+				}
+				final String key = field.substring( 0, equals );
+				if ( key.equals( "histogram" ) ) {
+					totals.histogram = new long[LatencyHistogram.BUCKETS];
+					for ( String bucket : field.substring( equals+1 ).split( ";" ) ) {
+						final int colon = bucket.indexOf( ':' );
+						if ( colon>0 ) {
+							totals.histogram[Integer.parseInt( bucket.substring( 0, colon ) )] = Long.parseLong( bucket.substring( colon+1 ) );
+						}
+					}
+					continue;
+				}
+				final long value = Long.parseLong( field.substring( equals+1 ) );
+				if ( key.equals( "time" ) ) {
+					totals.time = value;
+				} else if ( key.equals( "elapsed" ) ) {
+					totals.elapsed = value;
+				} else if ( key.equals( "iterations" ) ) {
+					totals.iterations = value;
+				} else if ( key.equals( "totalTime(us)" ) ) {
+					totals.totalTime = value;
+				} else if ( key.equals( "errors" ) ) {
+					totals.errors = value;
+				} else if ( key.equals( "threads" ) ) {
+					totals.threads = (int)value;
+				}
+			}
+			return totals;
+		}
+	}
+
+	/**
+	 * The connection to one agent. Replies are read on this thread so that
+	 * unsolicited messages (the final totals) are not missed.
+	 */
+	private final class Agent extends Thread {
+
+		final String name;
+		private final String host;
+		private final int port;
+		private Socket socket;
+		private PrintWriter out;
+		private BufferedReader in;
+
+		private volatile long sentAt;
+		volatile long roundTrip = 0; // ns
+		volatile Totals first = null;
+		volatile Totals latest = null;
+		Totals previous = null;
+		volatile boolean finished = false;
+
+		Agent( String address ) {
+			super( "Coordinator-" + address );
+			setDaemon( true );
+			name = address;
+			final int colon = address.lastIndexOf( ':' );
+			if ( colon<0 ) {
+				host = address;
+				port = DEFAULT_PORT;
+			} else {
+				host = address.substring( 0, colon );
+				port = Integer.parseInt( address.substring( colon+1 ) );
+			}
+		}
+
+		/**
+		 * Connects, retrying while the agent is starting up.
+		 */
+		void connect() throws IOException {
+			final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+			while ( true ) {
+				try {
+					socket = new Socket();
+					socket.setTcpNoDelay( true );
+					socket.connect( new InetSocketAddress( host, port ), (int)CONNECT_TIMEOUT );
+					break;
+				} catch ( IOException e ) {
+					if ( System.currentTimeMillis()>deadline ) {
+						throw e;
+					}
+					try {
+						Thread.sleep( 1000 );
+					} catch ( InterruptedException e1 ) {
+						throw new IOException( "Interrupted connecting to " + name );
+					}
+				}
+			}
+			out = new PrintWriter( socket.getOutputStream(), true );
+			in = new BufferedReader( new InputStreamReader( socket.getInputStream() ) );
+			start();
+			Log.logger.log( Level.INFO, "Connected to agent {0}", name );
+		}
+
+		void send( String command ) {
+			if ( !finished ) {
+				Log.logger.log( Level.FINE, "{0} < {1}", new Object[] { name, command } );
+				sentAt = System.nanoTime();
+				out.println( command );
+			}
+		}
+
+		public void run() {
+			try {
+				String line;
+				while ( (line = in.readLine())!=null ) {
+					Log.logger.log( Level.FINE, "{0} > {1}", new Object[] { name, line } );
+					if ( line.indexOf( Command.TOTALS )>=0 ) {
+						received( Totals.parse( line, Command.TOTALS ), false );
+					} else if ( line.indexOf( Command.FINAL )>=0 ) {
+						received( Totals.parse( line, Command.FINAL ), true );
+					} else if ( line.indexOf( "FAIL" )>=0 || line.indexOf( "WARNING" )>=0 ) {
+						Log.logger.log( Level.WARNING, "Agent {0} replied {1}", new Object[] { name, line } );
+					}
+				}
+			} catch ( IOException e ) {
+				Log.logger.log( Level.FINE, "Connection to " + name + " failed", e );
+			} catch ( NumberFormatException e ) {
+				Log.logger.log( Level.WARNING, "Unexpected reply from agent " + name, e );
+			} finally {
+				if ( !finished ) {
+					Log.logger.log( Level.WARNING, "Agent {0} disconnected without sending its final totals", name );
+					finished = true;
+				}
+				try {
+					socket.close();
+				} catch ( IOException e ) {
+					// No-op
+				}
+				synchronized ( Coordinator.this ) {
+					Coordinator.this.notifyAll();
+				}
+			}
+		}
+
+		private void received( Totals totals, boolean last ) {
+			if ( first==null ) {
+				roundTrip = System.nanoTime() - sentAt;
+				first = totals;
+			}
+			latest = totals;
+			synchronized ( Coordinator.this ) {
+				replies++;
+				if ( last ) {
+					finished = true;
+				}
+				Coordinator.this.notifyAll();
+			}
+		}
+
+	}
+
+	private final ArrayList<Agent> agents = new ArrayList<Agent>();
+	private final double[] percentiles = LatencyHistogram.parsePercentiles( LatencyHistogram.DEFAULT_PERCENTILES );
+	private final NumberFormat numberFormat = NumberFormat.getInstance();
+	private final int interval = Config.parms.getInt( "cmd_i" );
+	private final long startDelay = Config.parms.getInt( "cmd_d" );
+	private final int runLength = Config.parms.getInt( "cmd_r" );
+	private int replies = 0;
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( Coordinator.class );
+
+		if ( !Config.isInvalid() ) {
+			if ( Config.parms.getString( "cmd_a" ).trim().length()==0 ) {
+				Config.logger.warning( "The coordinator requires a list of agents (-cmd_a)." );
+			}
+			if ( Config.parms.getInt( "cmd_i" )<1 ) {
+				Config.logger.log( Level.WARNING, "Reporting interval (cmd_i={0}) must be at least 1", Config.parms.getInt( "cmd_i" ) );
+			}
+			if ( Config.parms.getInt( "cmd_d" )<0 || Config.parms.getInt( "cmd_r" )<0 ) {
+				Config.logger.warning( "The start delay (-cmd_d) and run length (-cmd_r) must not be negative." );
+			}
+		}
+
+	}
+
+	public Coordinator() {
+		super( "Coordinator" );
+		numberFormat.setMinimumFractionDigits( 2 );
+		numberFormat.setMaximumFractionDigits( 2 );
+		numberFormat.setGroupingUsed( false );
+		for ( String address : Config.parms.getString( "cmd_a" ).split( "[,\\s]+" ) ) {
+			if ( address.length()>0 ) {
+				agents.add( new Agent( address ) );
+			}
+		}
+	}
+
+	public void run() {
+
+		Log.logger.log( Level.INFO, "START" );
+		try {
+			for ( Agent agent : agents ) {
+				agent.connect();
+			}
+
+			// Measure the round trip to each agent, so that they can be told
+			// to start at the same instant.
+			poll();
+
+			final long startAt = System.currentTimeMillis() + startDelay;
+			for ( Agent agent : agents ) {
+				agent.send( "GO -in " + (startAt - System.currentTimeMillis() - agent.roundTrip/2000000) );
+			}
+			startConsole();
+
+			long wait;
+			while ( (wait = startAt - System.currentTimeMillis())>0 ) {
+				Thread.sleep( wait );
+			}
+			long next = startAt;
+			while ( !allFinished() ) {
+				next += interval * 1000L;
+				if ( runLength>0 && next-startAt>runLength*1000L ) {
+					next = startAt + runLength*1000L;
+				}
+				synchronized ( this ) {
+					while ( !allFinished() && (wait = next - System.currentTimeMillis())>0 ) {
+						wait( wait );
+					}
+				}
+				if ( runLength>0 && System.currentTimeMillis()-startAt>=runLength*1000L ) {
+					Log.logger.info( "Run length reached, ending all agents" );
+					broadcast( "END" );
+					break;
+				}
+				poll();
+				printInterval();
+			}
+
+			awaitFinish();
+		} catch ( IOException e ) {
+			Log.logger.log( Level.SEVERE, "Cannot connect to agent", e );
+		} catch ( InterruptedException e ) {
+			Log.logger.log( Level.WARNING, "Coordinator interrupted", e );
+		} finally {
+			printFinalSummary();
+			Log.logger.log( Level.INFO, "STOP" );
+		}
+
+	}
+
+	/**
+	 * Sends a command to every agent which has not finished.
+	 */
+	private void broadcast( String command ) {
+		for ( Agent agent : agents ) {
+			agent.send( command );
+		}
+	}
+
+	/**
+	 * Asks every agent for its totals and waits briefly for the replies.
+	 */
+	private void poll() throws InterruptedException {
+
+		int expected;
+		synchronized ( this ) {
+			replies = 0;
+			expected = 0;
+			for ( Agent agent : agents ) {
+				if ( !agent.finished ) {
+					expected++;
+				}
+			}
+		}
+		broadcast( "REPORT -totals" );
+		final long deadline = System.currentTimeMillis() + REPLY_TIMEOUT;
+		synchronized ( this ) {
+			long wait;
+			while ( replies<expected && !allFinished() && (wait = deadline - System.currentTimeMillis())>0 ) {
+				wait( wait );
+			}
+		}
+
+	}
+
+	private synchronized boolean allFinished() {
+		for ( Agent agent : agents ) {
+			if ( !agent.finished ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void awaitFinish() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + FINISH_TIMEOUT;
+		synchronized ( this ) {
+			long wait;
+			while ( !allFinished() && (wait = deadline - System.currentTimeMillis())>0 ) {
+				wait( wait );
+			}
+		}
+	}
+
+	/**
+	 * Sends each line typed on standard input to every agent.
+	 */
+	private void startConsole() {
+
+		final Thread console = new Thread( "Coordinator-console" ) {
+			public void run() {
+				final BufferedReader reader = new BufferedReader( new InputStreamReader( System.in ) );
+				try {
+					String line;
+					while ( (line = reader.readLine())!=null ) {
+						line = line.trim();
+						if ( line.length()>0 ) {
+							Log.logger.log( Level.INFO, "Sending \"{0}\" to all agents", line );
+							broadcast( line );
+						}
+					}
+				} catch ( IOException e ) {
+					// No more input
+				}
+			}
+		};
+		console.setDaemon( true );
+		console.start();
+
+	}
+
+	/**
+	 * Prints the change since the last report, summed over all agents. The
+	 * rate of each agent is measured by its own clock.
+	 */
+	private void printInterval() {
+
+		double rate = 0;
+		long iterations = 0;
+		long totalTime = 0;
+		long errors = 0;
+		int threads = 0;
+		int reporting = 0;
+		long[] histogram = null;
+		for ( Agent agent : agents ) {
+			final Totals latest = agent.latest;
+			if ( latest==null ) {
+				continue;
+			}
+			final Totals previous = agent.previous!=null ? agent.previous : agent.first;
+			final long time = latest.time - previous.time;
+			if ( time>0 ) {
+				rate += (latest.iterations-previous.iterations) * 1000d / time;
+			}
+			iterations += latest.iterations - previous.iterations;
+			totalTime += latest.totalTime - previous.totalTime;
+			errors += latest.errors - previous.errors;
+			threads += latest.threads;
+			histogram = merge( histogram, latest.histogram, previous.histogram );
+			if ( !agent.finished ) {
+				reporting++;
+			}
+			agent.previous = latest;
+		}
+
+		final StringBuffer sb = new StringBuffer( 128 );
+		sb.append( "rate=" ).append( format( rate ) );
+		sb.append( ",total messages=" ).append( iterations );
+		sb.append( ",avgResponse(micros)" );
+		if ( iterations>0 ) {
+			sb.append( "=" ).append( totalTime/iterations );
+		}
+		if ( histogram!=null ) {
+			LatencyHistogram.appendPercentiles( sb, histogram, percentiles, numberFormat );
+		}
+		sb.append( ",errors=" ).append( errors );
+		sb.append( ",agents=" ).append( reporting );
+		sb.append( ",threads=" ).append( threads );
+		System.out.println( sb.toString() );
+
+	}
+
+	/**
+	 * Prints each agent's totals and the sum over all agents.
+	 */
+	private void printFinalSummary() {
+
+		double totalRate = 0;
+		long totalIterations = 0;
+		long totalTime = 0;
+		long totalErrors = 0;
+		long[] totalHistogram = null;
+		for ( Agent agent : agents ) {
+			final Totals latest = agent.latest;
+			if ( latest==null ) {
+				System.out.println( "agent=" + agent.name + ",no results" );
+				continue;
+			}
+			final long iterations = latest.iterations - agent.first.iterations;
+			final long time = latest.totalTime - agent.first.totalTime;
+			final double rate = latest.elapsed>0 ? iterations * 1000d / latest.elapsed : 0;
+			final long[] histogram = merge( null, latest.histogram, agent.first.histogram );
+			final StringBuffer sb = new StringBuffer( 128 );
+			sb.append( "agent=" ).append( agent.name );
+			sb.append( ",iterations=" ).append( iterations );
+			sb.append( ",rate=" ).append( format( rate ) );
+			sb.append( ",avgResponse(micros)=" ).append( iterations>0 ? "" + time/iterations : "N/A" );
+			if ( histogram!=null ) {
+				LatencyHistogram.appendPercentiles( sb, histogram, percentiles, numberFormat );
+			}
+			sb.append( ",errors=" ).append( latest.errors - agent.first.errors );
+			System.out.println( sb.toString() );
+			totalHistogram = merge( totalHistogram, histogram, null );
+			totalRate += rate;
+			totalIterations += iterations;
+			totalTime += time;
+			totalErrors += latest.errors - agent.first.errors;
+		}
+		final StringBuffer sb = new StringBuffer( 128 );
+		sb.append( "agents=" ).append( agents.size() );
+		sb.append( ",totalIterations=" ).append( totalIterations );
+		sb.append( ",totalRate=" ).append( format( totalRate ) );
+		sb.append( ",avgResponse(micros)=" ).append( totalIterations>0 ? "" + totalTime/totalIterations : "N/A" );
+		if ( totalHistogram!=null ) {
+			LatencyHistogram.appendPercentiles( sb, totalHistogram, percentiles, numberFormat );
+		}
+		sb.append( ",errors=" ).append( totalErrors );
+		System.out.println( sb.toString() );
+
+	}
+
+	/**
+	 * Adds the difference between two cumulative histograms to a total.
+	 * @param total The total so far, or null.
+	 * @param latest May be null if the agent does not measure response times.
+	 * @param previous May be null to add all of latest.
+	 * @return The total, allocated if necessary.
+	 */
+	private static long[] merge( long[] total, long[] latest, long[] previous ) {
+		if ( latest==null ) {
+			return total;
+		}
+		if ( total==null ) {
+			total = new long[LatencyHistogram.BUCKETS];
+		}
+		for ( int i = 0; i<total.length; i++ ) {
+			total[i] += latest[i] - (previous==null ? 0 : previous[i]);
+		}
+		return total;
+	}
+
+	private static String format( double d ) {
+		return String.format( "%.2f", d );
+	}
+
+}
@@ -0,0 +1,303 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.cmd;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.ControlThread;
+import com.ibm.uk.hursley.perfharness.Copyright;
+import com.ibm.uk.hursley.perfharness.Log;
+import com.ibm.uk.hursley.perfharness.WorkerThread;
+import com.ibm.uk.hursley.perfharness.stats.LatencyHistogram;
+import com.ibm.uk.hursley.perfharness.stats.Statistics;
+
+/**
+ * Registers a ControlThread with the platform MBean server (-mx) so that
+ * standard JVM tools such as JConsole can watch a run and alter it. This is
+ * an alternative to the text commands of the command processors, and may be
+ * used alongside them.
+ * <p>
+ * Attributes are read from the workers' published counters on the calling
+ * (JMX) thread and never block a worker.
+ */
+public final class HarnessControl extends TimerTask implements HarnessControlMXBean {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	static final String DOMAIN = "com.ibm.uk.hursley.perfharness";
+
+	private final ControlThread parent;
+	private final List<WorkerThread> workers;
+	private final ObjectName name;
+
+	// Sampled once a second for the rate
+	private long sampleIterations = 0;
+	private long sampleTime = System.currentTimeMillis();
+	private volatile double rate = 0;
+
+	// The start of the measurement period
+	private long measurementStartTime = System.currentTimeMillis();
+	private long measurementIterations = 0;
+	private final long[] measurementHistogram = new long[LatencyHistogram.BUCKETS];
+	private final long[] histogram = new long[LatencyHistogram.BUCKETS];
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+		Config.registerSelf( HarnessControl.class );
+	}
+
+	/**
+	 * @return The registered MBean of the given ControlThread, or null if none
+	 *         is configured (or it could not be registered).
+	 */
+	public static HarnessControl register( ControlThread parent ) {
+
+		if ( !Config.parms.getBoolean( "mx" ) ) {
+			return null;
+		}
+		try {
+			final HarnessControl control = new HarnessControl( parent );
+			ManagementFactory.getPlatformMBeanServer().registerMBean( control, control.name );
+			ControlThread.getTaskScheduler().schedule( control, 1000, 1000 );
+			Log.logger.log( Level.INFO, "Registered MBean {0}", control.name );
+			return control;
+		} catch ( JMException e ) {
+			Log.logger.log( Level.SEVERE, "Cannot register MBean", e );
+			return null;
+		}
+
+	}
+
+	private HarnessControl( ControlThread parent ) throws JMException {
+		this.parent = parent;
+		this.workers = parent.getWorkers();
+		this.name = new ObjectName( DOMAIN + ":type=ControlThread,name=" + ObjectName.quote( parent.getName() ) );
+	}
+
+	/**
+	 * Removes the MBean.
+	 */
+	public void unregister() {
+
+		cancel();
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if ( server.isRegistered( name ) ) {
+				server.unregisterMBean( name );
+			}
+		} catch ( JMException e ) {
+			Log.logger.log( Level.WARNING, "Cannot unregister MBean " + name, e );
+		}
+
+	}
+
+	/**
+	 * Samples the rate.
+	 */
+	public synchronized void run() {
+
+		final long iterations = getIterations();
+		final long now = System.currentTimeMillis();
+		if ( now>sampleTime ) {
+			rate = (iterations-sampleIterations) * 1000d / (now-sampleTime);
+		}
+		sampleIterations = iterations;
+		sampleTime = now;
+
+	}
+
+	public long getIterations() {
+		long iterations = 0;
+		for ( final WorkerThread worker : workers ) {
+			iterations += worker.getIterations();
+		}
+		return iterations;
+	}
+
+	public long getErrors() {
+		long errors = 0;
+		for ( final WorkerThread worker : workers ) {
+			errors += worker.getErrors();
+		}
+		return errors;
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	public synchronized double getMeasuredRate() {
+		final long elapsed = System.currentTimeMillis() - measurementStartTime;
+		return elapsed>0 ? (getIterations()-measurementIterations) * 1000d / elapsed : 0;
+	}
+
+	public synchronized long getMeasurementStartTime() {
+		return measurementStartTime;
+	}
+
+	public synchronized Map<String, Double> getResponseTimePercentiles() {
+
+		final Map<String, Double> percentiles = new LinkedHashMap<String, Double>();
+		if ( !readHistogram( histogram ) ) {
+			return percentiles;
+		}
+		for ( int i = 0; i<histogram.length; i++ ) {
+			histogram[i] -= measurementHistogram[i];
+		}
+		for ( double percentile : Statistics.getPercentiles() ) {
+			final long value = LatencyHistogram.percentile( histogram, percentile );
+			if ( value>=0 ) {
+				percentiles.put( "p" + LatencyHistogram.describe( percentile ), value / 1000d );
+			}
+		}
+		return percentiles;
+
+	}
+
+	/**
+	 * Merges the workers' response time histograms.
+	 * @return false if response times are not measured.
+	 */
+	private boolean readHistogram( long[] counts ) {
+		Arrays.fill( counts, 0 );
+		boolean found = false;
+		for ( final WorkerThread worker : workers ) {
+			if ( worker.getHistogram()!=null ) {
+				worker.getHistogram().addTo( counts );
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	public double getTargetRate() {
+		return Config.parms.getDouble( "rt" );
+	}
+
+	public int getRunningWorkers() {
+		return parent.getRunningWorkers();
+	}
+
+	public int getActiveWorkers() {
+		return parent.getActiveWorkerCount();
+	}
+
+	public WorkerInfo[] getWorkers() {
+		final WorkerThread[] snapshot = workers.toArray( new WorkerThread[0] );
+		final WorkerInfo[] info = new WorkerInfo[snapshot.length];
+		for ( int i = 0; i<snapshot.length; i++ ) {
+			final WorkerThread worker = snapshot[i];
+			info[i] = new WorkerInfo( worker.getName(), describeStatus( worker.getStatus() ), worker.getDestination(), worker.getIterations(), worker.getErrors() );
+		}
+		return info;
+	}
+
+	private static String describeStatus( int status ) {
+		if ( (status & WorkerThread.sCREATED)!=0 ) {
+			return "CREATED";
+		} else if ( (status & WorkerThread.sERROR)!=0 ) {
+			return "ERROR";
+		} else if ( (status & WorkerThread.sENDED)!=0 ) {
+			return "ENDED";
+		} else if ( (status & WorkerThread.sENDING)!=0 ) {
+			return "ENDING";
+		} else if ( (status & WorkerThread.sRUNNING)!=0 ) {
+			return "RUNNING";
+		} else {
+			return "CONNECTING";
+		}
+	}
+
+	public Map<String, Long> getConnectTimes() {
+
+		final long[] times = parent.getConnectTimes();
+		Arrays.sort( times );
+		long sum = 0;
+		for ( long time : times ) {
+			sum += time;
+		}
+		final int n = times.length;
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put( "count", (long)n );
+		result.put( "fastest", n>0 ? times[0] : 0 );
+		result.put( "slowest", n>0 ? times[n-1] : 0 );
+		result.put( "avg", n>0 ? sum/n : 0 );
+		result.put( "p50", ControlThread.percentile( times, 50 ) );
+		result.put( "p90", ControlThread.percentile( times, 90 ) );
+		result.put( "p99", ControlThread.percentile( times, 99 ) );
+		return result;
+
+	}
+
+	public void alterRate( double rate ) {
+		if ( rate<0 ) {
+			throw new IllegalArgumentException( "The rate must not be negative" );
+		}
+		Log.logger.log( Level.INFO, "JMX: rate={0}", rate );
+		parent.updateWorkerRate( rate );
+	}
+
+	public boolean addWorkers( int number ) {
+		Log.logger.log( Level.INFO, "JMX: adding {0} workers", number );
+		return changeWorkerCount( number );
+	}
+
+	public boolean removeWorkers( int number ) {
+		Log.logger.log( Level.INFO, "JMX: removing {0} workers", number );
+		return changeWorkerCount( -number );
+	}
+
+	private boolean changeWorkerCount( int number ) {
+		if ( number<0 && -number>parent.getActiveWorkerCount() ) {
+			number = -parent.getActiveWorkerCount();
+		}
+		try {
+			return parent.changeWorkerCount( number ) && !ControlThread.isShuttingDown();
+		} catch ( Exception e ) {
+			Log.logger.log( Level.SEVERE, "Cannot change the number of workers", e );
+			return false;
+		}
+	}
+
+	public void resetMeasurement() {
+
+		Log.logger.info( "JMX: measurement period reset" );
+		synchronized ( this ) {
+			measurementStartTime = System.currentTimeMillis();
+			measurementIterations = getIterations();
+			readHistogram( measurementHistogram );
+		}
+		parent.resetMeasurementPeriod();
+
+	}
+
+	public void printSummary() {
+		parent.printSummary();
+	}
+
+}
@@ -0,0 +1,150 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.cmd;
+
+import java.util.Map;
+
+/**
+ * The management interface of a running ControlThread (see HarnessControl).
+ * Times are in milliseconds and response times in microseconds, as in the
+ * statistics output.
+ */
+public interface HarnessControlMXBean {
+
+	/**
+	 * The state of one WorkerThread.
+	 */
+	public static final class WorkerInfo {
+
+		private final String name;
+		private final String state;
+		private final String destination;
+		private final long iterations;
+		private final long errors;
+
+		public WorkerInfo( String name, String state, String destination, long iterations, long errors ) {
+			this.name = name;
+			this.state = state;
+			this.destination = destination;
+			this.iterations = iterations;
+			this.errors = errors;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return One of CREATED, CONNECTING, RUNNING, ERROR, ENDING or ENDED.
+		 */
+		public String getState() {
+			return state;
+		}
+
+		/**
+		 * @return The worker's destination, or null if it has none.
+		 */
+		public String getDestination() {
+			return destination;
+		}
+
+		public long getIterations() {
+			return iterations;
+		}
+
+		public long getErrors() {
+			return errors;
+		}
+
+	}
+
+	/**
+	 * @return Iterations completed by all workers since the run began.
+	 */
+	long getIterations();
+
+	/**
+	 * @return Failures reported by all workers since the run began.
+	 */
+	long getErrors();
+
+	/**
+	 * @return Iterations per second over the most recent second.
+	 */
+	double getRate();
+
+	/**
+	 * @return Iterations per second since the measurement period began.
+	 */
+	double getMeasuredRate();
+
+	/**
+	 * @return The time (ms since the epoch) the measurement period began.
+	 */
+	long getMeasurementStartTime();
+
+	/**
+	 * @return Response time percentiles (-pl) since the measurement period
+	 *         began, keyed by name (for example "p99"). Empty unless response
+	 *         times are measured (-sc ResponseTimeStats).
+	 */
+	Map<String, Double> getResponseTimePercentiles();
+
+	/**
+	 * @return The rate (-rt) each worker is paced at, or 0 if unlimited.
+	 */
+	double getTargetRate();
+
+	int getRunningWorkers();
+
+	int getActiveWorkers();
+
+	WorkerInfo[] getWorkers();
+
+	/**
+	 * @return The fastest, slowest, average and percentile times taken by
+	 *         workers to connect.
+	 */
+	Map<String, Long> getConnectTimes();
+
+	/**
+	 * Paces every worker at a new rate.
+	 * @param rate Operations per second per worker, or 0 for unlimited.
+	 */
+	void alterRate( double rate );
+
+	/**
+	 * Starts more workers and waits for them to connect.
+	 * @return false if they could not be started.
+	 */
+	boolean addWorkers( int number );
+
+	/**
+	 * Stops the most recently started workers and waits for them to end.
+	 * Removing all of them ends the run.
+	 * @return false if they could not be stopped.
+	 */
+	boolean removeWorkers( int number );
+
+	/**
+	 * Begins the measurement period again now, as though the discard period
+	 * (-sw) had just ended.
+	 */
+	void resetMeasurement();
+
+	/**
+	 * Prints the final summary of the run so far.
+	 */
+	void printSummary();
+
+}
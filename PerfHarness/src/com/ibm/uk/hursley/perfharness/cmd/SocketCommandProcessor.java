@@ -118,8 +118,6 @@ public class SocketCommandProcessor extends Command {
 		
 		if (out != null) {
 			out.println(message);
-		} else {
-			out.println("null");
 		}
 	}
 }
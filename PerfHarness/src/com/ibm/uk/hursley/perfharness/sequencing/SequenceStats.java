@@ -45,34 +45,29 @@ public class SequenceStats extends BasicStats {
 	
 	/**
 	 * Reimplementation which also takes a copy of the sequence object in the workerthread.
-	 * @see com.ibm.uk.hursley.perfharness.stats.Statistics#readValues(int[])
+	 * @see com.ibm.uk.hursley.perfharness.stats.Statistics#readValues(long[])
 	 */
-	protected int[] readValues( int[] values ) {
+	protected long[] readValues( long[] values ) {
 		
-		synchronized( workers ) {
-			
-			// WE must synch to avoid throwing ConcurrentModificationException during startup
-			int count = workers.size();
-			if ( values==null || values.length!=count ) {
-				// Reuse array where possible.
-				values = new int[count];	
-			}
-			
-			if ( seq==null || seq.length!=count ) {
-				seq = new Sequence[count];
-			}
-			
-			int i = 0;
-			final Iterator<WorkerThread> iter = workers.iterator();
-			while (iter.hasNext() && i<curr.length) {
-				final WorkerThread worker = iter.next();
-				if ( seq[i]==null ) {
-					seq[i] = ((SequentialWorker)worker).getSequence();
-				}
-				values[i++] = worker.getIterations();
+		int count = workers.size();
+		if ( values==null || values.length!=count ) {
+			// Reuse array where possible.
+			values = new long[count];	
+		}
+		
+		if ( seq==null || seq.length!=count ) {
+			seq = new Sequence[count];
+		}
+		
+		int i = 0;
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while (iter.hasNext() && i<values.length) {
+			final WorkerThread worker = iter.next();
+			if ( seq[i]==null ) {
+				seq[i] = ((SequentialWorker)worker).getSequence();
 			}
-			
-		} // end sync
+			values[i++] = worker.getIterations();
+		}
 		
 		return values;
 		
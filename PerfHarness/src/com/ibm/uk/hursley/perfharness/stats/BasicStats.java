@@ -100,8 +100,8 @@ public class BasicStats extends Statistics {
 		}
 
 		updateValues();
-		int total = 0;
-		int diff;
+		long total = 0;
+		long diff;
 		// comment these out to avoid printing per-thread data
 		if ( do_perThread ) sb.append(" (");
 		int shortest = curr.length<prev.length?curr.length:prev.length;
@@ -131,6 +131,16 @@ public class BasicStats extends Statistics {
 		sb.append(",total messages=").append(total);
 		sb.append(",Snapshot period=").append((int)period / 1000);
 		sb.append(",threads=").append( parent.getRunningWorkers() );
+		if ( WorkerThread.isOpenLoop() ) {
+			sb.append(",backlog=").append( readBacklog() );
+		}
+		if ( WorkerThread.isPrecisePacing() ) {
+			sb.append(",pacingErr(us)=").append( numberFormat.format(readPacingError()) );
+		}
+		appendResourceUsage(sb);
+		if ( phase!=null ) {
+			sb.append(",phase=").append( phase );
+		}
 		
 	}
 
@@ -157,7 +167,7 @@ public class BasicStats extends Statistics {
 				}
 				
 				long threadStartTime;
-				if ( trimInterval==0 ) {
+				if ( trimTime==0 ) {
 					threadStartTime = worker.getStartTime();
 				} else {
 					threadStartTime = trimTime;
@@ -170,8 +180,10 @@ public class BasicStats extends Statistics {
 				
 				long iterations = worker.getIterations();
 				
-				if ( trimTime!=0 ) {
-					iterations -= trimValues[ workers.indexOf( worker ) ];
+				// Workers added since the measurement period began have no trim value
+				final int index = workers.indexOf( worker );
+				if ( trimTime!=0 && index<trimValues.length ) {
+					iterations -= trimValues[ index ];
 				}
 				
 				long duration = threadEndTime-threadStartTime;
@@ -190,7 +202,9 @@ public class BasicStats extends Statistics {
 
    			System.out.println("totalIterations=" + totalIterations
    					+ ",avgDuration=" + numberFormat.format(totalDuration/(1000*counted))
-   					+ ",totalRate=" + numberFormat.format(totalRate));
+   					+ ",totalRate=" + numberFormat.format(totalRate)
+   					+ (WorkerThread.isOpenLoop() ? ",maxScheduleLag(ms)=" + numberFormat.format(readMaxScheduleLag()) : "")
+				+ (WorkerThread.isPrecisePacing() ? ",maxPacingErr(us)=" + numberFormat.format(readMaxPacingError()) : ""));
 		} // end if su
 		
 	} // end printFinalSummary
@@ -214,6 +228,7 @@ public class BasicStats extends Statistics {
 				sb.setLength(0); // reset stringbuffer
 				makeStringBuffer(sb);
 				System.out.println(sb.toString());
+				printIntervalBreakdowns();
 				
 			}
 	
@@ -0,0 +1,195 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.stats;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.Copyright;
+
+/**
+ * The iterations, errors and response times of one destination, shared by
+ * all the WorkerThreads using it (-sb).
+ * <p>
+ * Each destination is given an index the first time its name is seen,
+ * normally while a worker is being set up (see
+ * WorkerThread#setDestination). Workers then find the counters by index in
+ * an array, so counting a message never hashes a string. Counters are
+ * striped (LongAdder) as several threads often share a destination, and
+ * each worker records response times in a histogram of its own (see
+ * newHistogram), which are merged when read.
+ */
+public final class DestinationCounters {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	private static boolean enabled = false;
+
+	// Guarded by the class lock. Readers use the volatile array.
+	private static final Map<String, Integer> indexes = new HashMap<String, Integer>();
+	private static volatile DestinationCounters[] all = new DestinationCounters[0];
+
+	private final String name;
+	private final int index;
+	private final LongAdder iterations = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder totalTime = new LongAdder();
+	private final boolean timed = Config.isRegistered( ResponseTimeStats.class );
+	// Guarded by this. Readers use the volatile array.
+	private volatile LatencyHistogram[] histograms = new LatencyHistogram[0];
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( DestinationCounters.class );
+		enabled = Config.parms.getBoolean( "sb" );
+
+	}
+
+	/**
+	 * @return true if statistics are broken down by destination (-sb).
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return The index of the named destination, allocated if this is the
+	 *         first time it has been seen, or -1 if statistics are not broken
+	 *         down by destination.
+	 */
+	public static synchronized int indexOf( String name ) {
+
+		if ( !enabled ) {
+			return -1;
+		}
+		final Integer index = indexes.get( name );
+		if ( index!=null ) {
+			return index.intValue();
+		}
+		final int next = all.length;
+		final DestinationCounters[] grown = Arrays.copyOf( all, next+1 );
+		grown[next] = new DestinationCounters( name, next );
+		indexes.put( name, next );
+		all = grown;
+		return next;
+
+	}
+
+	/**
+	 * @return The counters of the destination with the given index (see
+	 *         indexOf).
+	 */
+	public static DestinationCounters get( int index ) {
+		return all[index];
+	}
+
+	/**
+	 * @return The counters of every destination seen so far, in the order
+	 *         they were seen. The array must not be changed.
+	 */
+	public static DestinationCounters[] getAll() {
+		return all;
+	}
+
+	private DestinationCounters( String name, int index ) {
+		this.name = name;
+		this.index = index;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Counts an iteration whose response time was not measured.
+	 */
+	public void incIterations() {
+		iterations.increment();
+	}
+
+	/**
+	 * Counts an iteration and adds its response time to the total. The
+	 * caller records the time in its own histogram (see newHistogram).
+	 * @param nanos The response time.
+	 */
+	public void incIterations( long nanos ) {
+		iterations.increment();
+		totalTime.add( nanos / 1000 );
+	}
+
+	/**
+	 * @return A histogram for one WorkerThread to record the response times
+	 *         of this destination in, or null if response times are not
+	 *         being measured. Only that thread may record in it.
+	 */
+	public synchronized LatencyHistogram newHistogram() {
+		if ( !timed ) {
+			return null;
+		}
+		final LatencyHistogram histogram = new LatencyHistogram();
+		final LatencyHistogram[] grown = Arrays.copyOf( histograms, histograms.length+1 );
+		grown[histograms.length] = histogram;
+		histograms = grown;
+		return histogram;
+	}
+
+	public void incErrors() {
+		errors.increment();
+	}
+
+	public long getIterations() {
+		return iterations.sum();
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	/**
+	 * @return The total of the response times (microseconds).
+	 */
+	public long getTotalTime() {
+		return totalTime.sum();
+	}
+
+	/**
+	 * @return true if response times are being measured.
+	 */
+	public boolean isTimed() {
+		return timed;
+	}
+
+	/**
+	 * Adds the response times of every worker using this destination to the
+	 * given array.
+	 * @param counts An array of LatencyHistogram.BUCKETS counts.
+	 */
+	public void addTo( long[] counts ) {
+		for ( LatencyHistogram histogram : histograms ) {
+			histogram.addTo( counts );
+		}
+	}
+
+}
@@ -14,11 +14,13 @@
  */
 package com.ibm.uk.hursley.perfharness.stats;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 import java.util.TimerTask;
@@ -28,6 +30,7 @@ import com.ibm.uk.hursley.perfharness.Config;
 import com.ibm.uk.hursley.perfharness.ControlThread;
 import com.ibm.uk.hursley.perfharness.Log;
 import com.ibm.uk.hursley.perfharness.WorkerThread;
+import com.ibm.uk.hursley.perfharness.util.BackgroundWriter;
 import com.ibm.uk.hursley.perfharness.util.TypedPropertyException;
 
 /**
@@ -38,67 +41,98 @@ import com.ibm.uk.hursley.perfharness.util.TypedPropertyException;
  */
 public class FileStats extends Statistics {
 
-	//Limit per thread reporting to 128 threads
-	int diffarray[] =  new int[128];
+	static final String FORMAT_CSV = "csv";
+	static final String FORMAT_JSON = "json";
+
+	// Iterations of each thread in the last interval, grown as threads are added
+	long diffarray[] = new long[0];
 
 	final String sdfDatePattern = "yyyy/MM/dd";
 	final String sdfTimePattern = "HH:mm:ss";
 	final SimpleDateFormat sdfDate = new SimpleDateFormat(sdfDatePattern, Locale.US); 
 	final SimpleDateFormat sdfTime = new SimpleDateFormat(sdfTimePattern, Locale.US); 
 
-	//Handle for writing summary.txt run summaries
-	private BufferedWriter bw = null;
+	//Handle for writing summary.txt run summaries, held open once used
+	private BackgroundWriter summaryWriter = null;
+
+	//Handle for writing per-interval records (-zi), or null
+	private BackgroundWriter intervalWriter = null;
+	private final boolean json = FORMAT_JSON.equals( Config.parms.getString( "zt" ) );
+	private final StringBuffer record = new StringBuffer( 256 );
+	// Records are parsed by machine, so do not follow the default locale
+	private final NumberFormat recordFormat = NumberFormat.getInstance( Locale.US );
+
+	//Totals at the previous interval record
+	private long prevBytes = 0;
+	private long prevErrors = 0;
+	private long prevGcCount = 0;
+	private long prevGcTime = 0;
+	private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
 
 	//Task providing period updates to system.out
 	private TimerTask displayTask;
 
+	private volatile boolean stopped = false;
+
 	public static void registerConfig() {
 		// static validation of parameters
-		Config.registerSelf( FileStats.class );		
+		Config.registerSelf( FileStats.class );
+		
+		if ( !Config.isInvalid() ) {
+			final String format = Config.parms.getString( "zt" );
+			if ( !FORMAT_CSV.equals( format ) && !FORMAT_JSON.equals( format ) ) {
+				Config.logger.warning( "-zt must be one of {"+FORMAT_CSV+","+FORMAT_JSON+"}" );
+			}
+			if ( Config.parms.getString( "zi" ).length()>0 ) {
+				// Interval records include response time percentiles
+				Config.registerAnother( ResponseTimeStats.class );
+			}
+		}
 	}
 	
 	public FileStats(ControlThread parent) {
 		super(parent);
 		
+		final String filename = Config.parms.getString( "zi" );
+		if ( interval>0 && filename.length()>0 ) {
+			try {
+				intervalWriter = new BackgroundWriter( filename );
+				if ( !json && intervalWriter.wasEmpty() ) {
+					intervalWriter.println( makeHeader() );
+				}
+			} catch ( IOException e ) {
+				Log.logger.log( Level.SEVERE, "Cannot open interval stats output file " + filename, e );
+			}
+		}
+		readGcTotals();
+		recordFormat.setMinimumFractionDigits( 2 );
+		recordFormat.setMaximumFractionDigits( 2 );
+		recordFormat.setGroupingUsed( false );
+		
 		if (interval > 0) {
 			updateValues();
 			ControlThread.getTaskScheduler().schedule( displayTask = new Display(), interval, interval );
 		}
 	}
 
-	protected void openSummaryFile() {
-		String filename = Config.parms.getString("zf");
-		try {
-			bw = new BufferedWriter(new FileWriter(filename, true));
-		} catch (IOException ioe) {
-			Log.logger.log(Level.SEVERE,"Cannot open CSV Stats output file:" + filename);
-			bw = null;
-		}
-	}
-
-	protected void closeSummaryFile() {
-		try {
-			bw.flush();
-			bw.close();
-		} catch (IOException ioe) {
-			Log.logger.log(Level.SEVERE,"Cannot flush/close CSV Stats output file");
-		}
-		bw = null;
-	}
-	
 	protected void writeSummary(StringBuffer sb) {
-		openSummaryFile();
-		if (bw != null) {
-			try {
-				bw.write(sb.toString());
-				bw.newLine();
-				bw.flush();
-			} catch (IOException ioe) {
-				Log.logger.log(Level.SEVERE,"Cannot write to output file");
-				bw = null;
+		synchronized ( this ) {
+			if ( summaryWriter==null ) {
+				final String filename = Config.parms.getString( "zf" );
+				try {
+					summaryWriter = new BackgroundWriter( filename );
+				} catch ( IOException e ) {
+					Log.logger.log( Level.SEVERE, "Cannot open CSV Stats output file " + filename, e );
+					return;
+				}
+			}
+			summaryWriter.println( sb.toString() );
+			if ( stopped ) {
+				// The run is over, so this is the last summary
+				summaryWriter.close();
+				summaryWriter = null;
 			}
 		}
-		closeSummaryFile();
 	}
 	
 	public void timerStarted() {
@@ -116,7 +150,16 @@ public class FileStats extends Statistics {
 	
 	public void stop() {
 		super.stop();
-		displayTask.cancel();
+		stopped = true;
+		if ( displayTask!=null ) {
+			displayTask.cancel();
+		}
+		synchronized ( this ) {
+			if ( intervalWriter!=null ) {
+				intervalWriter.close();
+				intervalWriter = null;
+			}
+		}
 	}
 
 	protected void makeStringBuffer( StringBuffer sb ) {
@@ -125,9 +168,12 @@ public class FileStats extends Statistics {
 			sb.append("id=").append(do_id).append(",");
 		}
 		updateValues();
-		int total = 0;
-		int diff;
+		long total = 0;
+		long diff;
 		
+		if ( diffarray.length<curr.length ) {
+			diffarray = new long[curr.length];
+		}
 		int shortest = curr.length<prev.length?curr.length:prev.length;
 		for (int j = 0; j < shortest; j++) {
 			diff = curr[j] - prev[j];
@@ -147,15 +193,151 @@ public class FileStats extends Statistics {
 			period=interval;
 		}
 
+		final int threads = parent.getRunningWorkers();
+		final double rate = (double) (total*1000) / period;
 		sb.append(getTimeStamp());
-		sb.append(",Threads,").append( parent.getRunningWorkers() );
-		sb.append(",MsgRate,").append(numberFormat.format((double) (total*1000) / period));
+		sb.append(",Threads,").append( threads );
+		sb.append(",MsgRate,").append(numberFormat.format(rate));
+		final ResourceAccounting.Usage usage = readResourceUsage();
+		if ( usage!=null ) {
+			sb.append(",CpuPerMsg(us),").append(usage.perIteration(usage.cpuTime/1000d, numberFormat));
+		}
 		if (do_perThread) {
 			sb.append(",IndThreads");
 			for (int i=0; i<curr.length; i++) {
 				sb.append("," + diffarray[i]);
 			}
 		}
+		
+		if ( intervalWriter!=null ) {
+			writeInterval( threads, rate, period, usage );
+		}
+	}
+	
+	/**
+	 * @return The column names of a CSV interval record.
+	 */
+	private String makeHeader() {
+		final StringBuffer sb = new StringBuffer( 256 );
+		sb.append( "time,threads,rate,bytesPerSec,errors" );
+		for ( double percentile : getPercentiles() ) {
+			sb.append( ",p" ).append( LatencyHistogram.describe( percentile ) ).append( "(us)" );
+		}
+		sb.append( ",heapUsed,gcCount,gcTime(ms),jvmThreads" );
+		if ( Config.parms.getBoolean( "ra" ) ) {
+			sb.append( ",cpuPerMsg(us),allocPerMsg,blocked(%),waited(%)" );
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Queues a record of the interval just measured by makeStringBuffer to
+	 * the -zi file. Response time percentiles are empty (CSV) or omitted
+	 * (JSON) if no responses were timed in the interval, as are resource
+	 * figures (-ra) which cannot be measured.
+	 * @param usage Resources used in the interval, or null if not measured.
+	 */
+	private void writeInterval( int threads, double rate, long period, ResourceAccounting.Usage usage ) {
+		
+		long bytes = 0;
+		long errors = 0;
+		for ( final WorkerThread worker : workers ) {
+			bytes += worker.getBytes();
+			errors += worker.getErrors();
+		}
+		final long[] histogram = readIntervalHistogram();
+		final boolean timed = LatencyHistogram.count( histogram )>0;
+		final long gcCount = prevGcCount;
+		final long gcTime = prevGcTime;
+		readGcTotals();
+		
+		record.setLength( 0 );
+		field( record, "time", true ).append( currMeasurementTime );
+		field( record, "threads", false ).append( threads );
+		field( record, "rate", false ).append( recordFormat.format( rate ) );
+		field( record, "bytesPerSec", false ).append( recordFormat.format( (double) ((bytes-prevBytes)*1000) / period ) );
+		field( record, "errors", false ).append( errors-prevErrors );
+		for ( double percentile : getPercentiles() ) {
+			if ( timed ) {
+				field( record, "p" + LatencyHistogram.describe( percentile ), false );
+				record.append( recordFormat.format( LatencyHistogram.percentile( histogram, percentile ) / 1000d ) );
+			} else if ( !json ) {
+				record.append( ',' );
+			}
+		}
+		field( record, "heapUsed", false ).append( runtime.totalMemory()-runtime.freeMemory() );
+		field( record, "gcCount", false ).append( prevGcCount-gcCount );
+		field( record, "gcTime", false ).append( prevGcTime-gcTime );
+		field( record, "jvmThreads", false ).append( ManagementFactory.getThreadMXBean().getThreadCount() );
+		if ( usage!=null ) {
+			resourceField( "cpuPerMsg", usage.iterations>0, usage.cpuTime/1000d/usage.iterations );
+			resourceField( "allocPerMsg", usage.iterations>0 && usage.allocated>=0, (double)usage.allocated/usage.iterations );
+			resourceField( "blocked", usage.threadTime>0 && usage.blockedTime>=0, usage.blockedTime*100d/usage.threadTime );
+			resourceField( "waited", usage.threadTime>0 && usage.waitedTime>=0, usage.waitedTime*100d/usage.threadTime );
+		}
+		if ( json ) {
+			if ( do_perThread ) {
+				record.append( ",\"perThread\":[" );
+				for ( int i=0; i<curr.length; i++ ) {
+					if ( i>0 ) {
+						record.append( ',' );
+					}
+					record.append( diffarray[i] );
+				}
+				record.append( ']' );
+			}
+			record.append( '}' );
+		}
+		prevBytes = bytes;
+		prevErrors = errors;
+		
+		synchronized ( this ) {
+			if ( intervalWriter!=null ) {
+				intervalWriter.println( record.toString() );
+			}
+		}
+		
+	}
+	
+	/**
+	 * Appends a resource figure (-ra) to the record, which is empty (CSV) or
+	 * omitted (JSON) if it is not known.
+	 */
+	private void resourceField( String name, boolean known, double value ) {
+		if ( known ) {
+			field( record, name, false ).append( recordFormat.format( value ) );
+		} else if ( !json ) {
+			record.append( ',' );
+		}
+	}
+	
+	/**
+	 * Starts the next field of a CSV or JSON record.
+	 * @return The record, ready for the value.
+	 */
+	private StringBuffer field( StringBuffer sb, String name, boolean first ) {
+		if ( json ) {
+			sb.append( first ? "{" : "," ).append( '"' ).append( name ).append( "\":" );
+		} else if ( !first ) {
+			sb.append( ',' );
+		}
+		return sb;
+	}
+	
+	/**
+	 * Reads the collection count and time totalled over all garbage collectors
+	 * into prevGcCount and prevGcTime.
+	 */
+	private void readGcTotals() {
+		long count = 0;
+		long time = 0;
+		for ( GarbageCollectorMXBean collector : collectors ) {
+			// Either may be -1 if undefined for this collector
+			count += Math.max( 0, collector.getCollectionCount() );
+			time += Math.max( 0, collector.getCollectionTime() );
+		}
+		prevGcCount = count;
+		prevGcTime = time;
 	}
 	
 	/* (non-Javadoc)
@@ -183,7 +365,7 @@ public class FileStats extends Statistics {
 				}
 				
 				long threadStartTime;
-				if ( trimInterval==0 ) {
+				if ( trimTime==0 ) {
 					threadStartTime = worker.getStartTime();
 				} else {
 					threadStartTime = trimTime;
@@ -196,8 +378,10 @@ public class FileStats extends Statistics {
 				
 				long iterations = worker.getIterations();
 				
-				if ( trimTime!=0 ) {
-					iterations -= trimValues[ workers.indexOf( worker ) ];
+				// Workers added since the measurement period began have no trim value
+				final int index = workers.indexOf( worker );
+				if ( trimTime!=0 && index<trimValues.length ) {
+					iterations -= trimValues[ index ];
 				}
 				
 				long duration = threadEndTime-threadStartTime;
@@ -279,6 +463,7 @@ public class FileStats extends Statistics {
 			sb.setLength(0);
 			makeStringBuffer(sb);
 			System.out.println(sb.toString());
+			printIntervalBreakdowns();
 		} 
 	}
 	
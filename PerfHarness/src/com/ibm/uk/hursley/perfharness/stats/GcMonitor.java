@@ -0,0 +1,224 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.stats;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.Copyright;
+import com.ibm.uk.hursley.perfharness.Log;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+/**
+ * Watches for pauses of the harness JVM (-gx): garbage collections, through
+ * the notifications of each GarbageCollectorMXBean, and any other stall (such
+ * as a safepoint) through a thread which sleeps for a millisecond at a time
+ * and measures how late it wakes.
+ * <p>
+ * Statistics takes a Sample each interval.
+ */
+public final class GcMonitor implements NotificationListener {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	/** The action of a concurrent collection, as opposed to a pause. */
+	private static final String GC_CYCLE = "end of GC cycle";
+
+	private static boolean enabled = false;
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final Set<String> heapPools = new HashSet<String>();
+	private final Set<NotificationEmitter> emitters = new HashSet<NotificationEmitter>();
+	private final Thread sampler;
+	private volatile boolean closed = false;
+
+	// Guarded by this. Totals since the last sample.
+	private long count = 0;
+	private long pauseTime = 0;
+	private long collected = 0;
+	private long heapAfterGc = -1;
+	private long maxStall = 0;
+	private long lastHeapUsed;
+
+	/**
+	 * What happened between one call of sample and the next.
+	 */
+	public static final class Sample {
+		/** Garbage collections which paused the JVM. */
+		public long count;
+		/** Total pause time of those collections (milliseconds). */
+		public long pauseTime;
+		/** Heap allocated (bytes). */
+		public long allocated;
+		/** Heap used after the last collection (bytes), or -1 if none. */
+		public long heapAfterGc;
+		/** Longest stall of the sampling thread (microseconds). */
+		public long maxStall;
+	}
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( GcMonitor.class );
+		enabled = Config.parms.getBoolean( "gx" );
+
+		if ( !Config.isInvalid() && Config.parms.getInt( "gxt" )<1 ) {
+			Config.logger.log( Level.WARNING, "Pause threshold (gxt={0}) must be at least 1 millisecond.", Config.parms.getInt( "gxt" ) );
+		}
+
+	}
+
+	/**
+	 * @return A running monitor, or null if none is configured (-gx).
+	 */
+	public static GcMonitor open() {
+		return enabled ? new GcMonitor() : null;
+	}
+
+	private GcMonitor() {
+
+		for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+			if ( pool.getType()==MemoryType.HEAP ) {
+				heapPools.add( pool.getName() );
+			}
+		}
+		for ( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() ) {
+			if ( collector instanceof NotificationEmitter ) {
+				((NotificationEmitter)collector).addNotificationListener( this, null, null );
+				emitters.add( (NotificationEmitter)collector );
+			}
+		}
+		if ( emitters.isEmpty() ) {
+			Log.logger.warning( "This JVM does not report garbage collections, only stalls will be measured" );
+		}
+		lastHeapUsed = memory.getHeapMemoryUsage().getUsed();
+
+		sampler = new Thread( "PerfHarnessStallSampler" ) {
+			public void run() {
+				while ( !closed ) {
+					final long start = System.nanoTime();
+					try {
+						Thread.sleep( 1 );
+					} catch ( InterruptedException e ) {
+						return;
+					}
+					final long stall = (System.nanoTime() - start - 1000000) / 1000;
+					synchronized ( GcMonitor.this ) {
+						if ( stall>maxStall ) {
+							maxStall = stall;
+						}
+					}
+				}
+			}
+		};
+		sampler.setDaemon( true );
+		sampler.start();
+
+	}
+
+	/**
+	 * Counts a garbage collection.
+	 */
+	public void handleNotification( Notification notification, Object handback ) {
+
+		if ( !GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals( notification.getType() ) ) {
+			return;
+		}
+		final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from( (CompositeData)notification.getUserData() );
+		final GcInfo gc = info.getGcInfo();
+		final long before = heapUsed( gc.getMemoryUsageBeforeGc() );
+		final long after = heapUsed( gc.getMemoryUsageAfterGc() );
+		synchronized ( this ) {
+			collected += Math.max( 0, before - after );
+			heapAfterGc = after;
+			// Concurrent collectors (ZGC, Shenandoah) report their cycles,
+			// which do not pause the JVM, separately from their pauses.
+			if ( !GC_CYCLE.equals( info.getGcAction() ) ) {
+				count++;
+				pauseTime += gc.getDuration();
+			}
+		}
+
+	}
+
+	private long heapUsed( Map<String, MemoryUsage> pools ) {
+		long used = 0;
+		for ( Map.Entry<String, MemoryUsage> pool : pools.entrySet() ) {
+			if ( heapPools.contains( pool.getKey() ) ) {
+				used += pool.getValue().getUsed();
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * @return What has happened since the previous call.
+	 */
+	public synchronized Sample sample() {
+
+		final Sample sample = new Sample();
+		final long heapUsed = memory.getHeapMemoryUsage().getUsed();
+		sample.count = count;
+		sample.pauseTime = pauseTime;
+		sample.allocated = Math.max( 0, heapUsed - lastHeapUsed + collected );
+		sample.heapAfterGc = heapAfterGc;
+		sample.maxStall = maxStall;
+		count = 0;
+		pauseTime = 0;
+		collected = 0;
+		heapAfterGc = -1;
+		maxStall = 0;
+		lastHeapUsed = heapUsed;
+		return sample;
+
+	}
+
+	/**
+	 * Stops watching.
+	 */
+	public void close() {
+
+		closed = true;
+		sampler.interrupt();
+		for ( NotificationEmitter emitter : emitters ) {
+			try {
+				emitter.removeNotificationListener( this );
+			} catch ( ListenerNotFoundException e ) {
+				// Swallowed
+			}
+		}
+		emitters.clear();
+
+	}
+
+}
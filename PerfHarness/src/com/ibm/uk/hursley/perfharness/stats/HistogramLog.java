@@ -0,0 +1,274 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.stats;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.ControlThread;
+import com.ibm.uk.hursley.perfharness.Copyright;
+import com.ibm.uk.hursley.perfharness.Log;
+import com.ibm.uk.hursley.perfharness.WorkerThread;
+
+/**
+ * Appends the response time histogram of every statistics interval (-ss) to
+ * a file (-hg) for later analysis with PerfHarnessHistogramLog. The log is
+ * written on the timer thread, never by the WorkerThreads.
+ * <p>
+ * Each record is one line:
+ * <tt>start,length,count,histogram</tt> where start is the time (ms since
+ * the epoch) the interval began, length is its duration (ms), count is the
+ * number of response times and histogram is the non-empty LatencyHistogram
+ * buckets, deflated and Base64 encoded. Lines starting with # are comments.
+ */
+public final class HistogramLog extends TimerTask {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	static final String HEADER = "#PerfHarness histogram log,version=1,buckets=" + LatencyHistogram.BUCKETS;
+
+	private final List<WorkerThread> workers;
+	private final String fileName;
+	private final Writer out;
+	private final long[] totals = new long[LatencyHistogram.BUCKETS];
+	private final long[] previous = new long[LatencyHistogram.BUCKETS];
+	private final long[] interval = new long[LatencyHistogram.BUCKETS];
+	private final Deflater deflater = new Deflater( Deflater.BEST_COMPRESSION );
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream( 1024 );
+	private final byte[] chunk = new byte[1024];
+	private long intervalStart;
+	private boolean failed = false;
+	private boolean closed = false;
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( HistogramLog.class );
+
+		if ( !Config.isInvalid() && Config.parms.getString( "hg" ).length()>0 ) {
+			if ( !Config.isRegistered( ResponseTimeStats.class ) ) {
+				Config.logger.warning( "A histogram log (-hg) requires -sc ResponseTimeStats." );
+			}
+			if ( Config.parms.getInt( "ss" )<=0 ) {
+				Config.logger.warning( "A histogram log (-hg) requires a statistics interval (-ss)." );
+			}
+		}
+
+	}
+
+	/**
+	 * @return A log of the given ControlThread's workers, or null if none is
+	 *         configured.
+	 */
+	public static HistogramLog open( ControlThread parent ) {
+
+		final String fileName = Config.parms.getString( "hg" );
+		if ( fileName.length()==0 ) {
+			return null;
+		}
+		try {
+			return new HistogramLog( parent, fileName );
+		} catch ( IOException e ) {
+			Log.logger.log( Level.SEVERE, "Cannot open histogram log " + fileName, e );
+			return null;
+		}
+
+	}
+
+	private HistogramLog( ControlThread parent, String fileName ) throws IOException {
+
+		this.workers = parent.getWorkers();
+		this.fileName = fileName;
+		out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( fileName, true ), "US-ASCII" ) );
+		out.write( HEADER + ",start=" + System.currentTimeMillis() + "\n" );
+		out.write( "#start(ms),length(ms),count,histogram\n" );
+		out.flush();
+
+	}
+
+	/**
+	 * Begins writing a record every -ss seconds.
+	 */
+	public synchronized void start() {
+		final long period = Config.parms.getInt( "ss" ) * 1000L;
+		// Response times from startup belong to no record
+		Arrays.fill( previous, 0 );
+		for ( final WorkerThread worker : workers ) {
+			if ( worker.getHistogram()!=null ) {
+				worker.getHistogram().addTo( previous );
+			}
+		}
+		intervalStart = System.currentTimeMillis();
+		ControlThread.getTaskScheduler().schedule( this, period, period );
+	}
+
+	public void run() {
+		write();
+	}
+
+	/**
+	 * Writes the final (partial) interval and closes the log. Called when the
+	 * measured run ends, before the workers are stopped.
+	 */
+	public synchronized void close() {
+
+		cancel();
+		write();
+		// A timer run already waiting for the lock must not write after this
+		closed = true;
+		try {
+			out.close();
+		} catch ( IOException e ) {
+			Log.logger.log( Level.WARNING, "Cannot close histogram log " + fileName, e );
+		}
+		deflater.end();
+
+	}
+
+	private synchronized void write() {
+
+		if ( failed || closed ) {
+			return;
+		}
+		Arrays.fill( totals, 0 );
+		for ( final WorkerThread worker : workers ) {
+			if ( worker.getHistogram()!=null ) {
+				worker.getHistogram().addTo( totals );
+			}
+		}
+		long count = 0;
+		for ( int i = 0; i<totals.length; i++ ) {
+			interval[i] = totals[i] - previous[i];
+			count += interval[i];
+		}
+		System.arraycopy( totals, 0, previous, 0, totals.length );
+
+		final long now = System.currentTimeMillis();
+		try {
+			out.write( intervalStart + "," + (now-intervalStart) + "," + count + "," + encode( interval ) + "\n" );
+			out.flush();
+		} catch ( IOException e ) {
+			Log.logger.log( Level.SEVERE, "Cannot write histogram log " + fileName, e );
+			failed = true;
+		}
+		intervalStart = now;
+
+	}
+
+	/**
+	 * Encodes the non-empty buckets as (gap, count) pairs of variable length
+	 * integers, then deflates them.
+	 */
+	String encode( long[] counts ) {
+
+		buffer.reset();
+		int last = -1;
+		for ( int i = 0; i<counts.length; i++ ) {
+			if ( counts[i]!=0 ) {
+				writeVarLong( buffer, i-last );
+				writeVarLong( buffer, counts[i] );
+				last = i;
+			}
+		}
+		deflater.reset();
+		deflater.setInput( buffer.toByteArray() );
+		deflater.finish();
+		buffer.reset();
+		while ( !deflater.finished() ) {
+			buffer.write( chunk, 0, deflater.deflate( chunk ) );
+		}
+		return Base64.getEncoder().encodeToString( buffer.toByteArray() );
+
+	}
+
+	/**
+	 * Reverses encode.
+	 * @param counts Filled with the decoded counts.
+	 * @throws DataFormatException If the text is not an encoded histogram.
+	 */
+	static void decode( String text, long[] counts ) throws DataFormatException {
+
+		Arrays.fill( counts, 0 );
+		final Inflater inflater = new Inflater();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 1024 );
+		try {
+			inflater.setInput( Base64.getDecoder().decode( text ) );
+			final byte[] chunk = new byte[1024];
+			while ( !inflater.finished() ) {
+				final int length = inflater.inflate( chunk );
+				if ( length==0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary()) ) {
+					throw new DataFormatException( "truncated histogram" );
+				}
+				bytes.write( chunk, 0, length );
+			}
+		} catch ( IllegalArgumentException e ) {
+			throw new DataFormatException( "invalid Base64" );
+		} finally {
+			inflater.end();
+		}
+
+		final byte[] data = bytes.toByteArray();
+		final int[] position = new int[1];
+		int bucket = -1;
+		while ( position[0]<data.length ) {
+			bucket += (int)readVarLong( data, position );
+			if ( bucket<0 || bucket>=counts.length ) {
+				throw new DataFormatException( "bucket " + bucket + " out of range" );
+			}
+			counts[bucket] = readVarLong( data, position );
+		}
+
+	}
+
+	private static void writeVarLong( ByteArrayOutputStream out, long value ) {
+		while ( (value & ~0x7FL)!=0 ) {
+			out.write( (int)((value & 0x7F) | 0x80) );
+			value >>>= 7;
+		}
+		out.write( (int)value );
+	}
+
+	private static long readVarLong( byte[] data, int[] position ) throws DataFormatException {
+		long value = 0;
+		int shift = 0;
+		while ( true ) {
+			if ( position[0]>=data.length || shift>63 ) {
+				throw new DataFormatException( "truncated value" );
+			}
+			final int b = data[position[0]++];
+			value |= (long)(b & 0x7F) << shift;
+			if ( (b & 0x80)==0 ) {
+				return value;
+			}
+			shift += 7;
+		}
+	}
+
+}
@@ -0,0 +1,231 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.stats;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.Copyright;
+import com.ibm.uk.hursley.perfharness.Log;
+
+/**
+ * Reads one or more histogram logs (see HistogramLog) and prints the
+ * percentiles of a time range, optionally sliced into shorter periods. Logs
+ * from several machines are merged, with times measured from the earliest
+ * record in any of them.
+ */
+public final class HistogramLogReader {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	private final String[] fileNames = Config.parms.getString( "hri" ).trim().split( "\\s*,\\s*" );
+	private final long rangeStart = (long)(Config.parms.getDouble( "hrs" ) * 1000);
+	private final long rangeEnd = (long)(Config.parms.getDouble( "hre" ) * 1000);
+	private final long slice = (long)(Config.parms.getDouble( "hrw" ) * 1000);
+	private final double[] percentiles = LatencyHistogram.parsePercentiles( Config.parms.getString( "hrp" ) );
+	private final NumberFormat numberFormat = NumberFormat.getInstance();
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( HistogramLogReader.class );
+
+		if ( !Config.isInvalid() ) {
+			if ( Config.parms.getString( "hri" ).trim().length()==0 ) {
+				Config.logger.warning( "A histogram log file (-hri) is required." );
+			}
+			if ( Config.parms.getDouble( "hrs" )<0 || Config.parms.getDouble( "hre" )<0 || Config.parms.getDouble( "hrw" )<0 ) {
+				Config.logger.warning( "The range (-hrs, -hre) and slice length (-hrw) must not be negative." );
+			}
+			try {
+				LatencyHistogram.parsePercentiles( Config.parms.getString( "hrp" ) );
+			} catch ( NumberFormatException e ) {
+				Config.logger.log( Level.WARNING, "Invalid percentile list (hrp={0}): {1}", new Object[] { Config.parms.getString( "hrp" ), e.getMessage() } );
+			}
+		}
+
+	}
+
+	public HistogramLogReader() {
+		numberFormat.setMinimumFractionDigits( 2 );
+		numberFormat.setMaximumFractionDigits( 2 );
+		numberFormat.setGroupingUsed( false );
+	}
+
+	/**
+	 * Reads the logs and prints one line per slice.
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+
+		long origin = Long.MAX_VALUE;
+		for ( String fileName : fileNames ) {
+			origin = Math.min( origin, firstRecord( fileName ) );
+		}
+		if ( origin==Long.MAX_VALUE ) {
+			Log.logger.warning( "No histogram records found" );
+			return;
+		}
+
+		// Records are assigned to slices by their start time. Only slices
+		// with data are held in memory, and each record as (bucket, count)
+		// pairs, as only a few buckets of each are used.
+		final TreeMap<Long, ArrayList<long[]>> slices = new TreeMap<Long, ArrayList<long[]>>();
+		final long[] record = new long[LatencyHistogram.BUCKETS];
+		for ( String fileName : fileNames ) {
+			final BufferedReader reader = new BufferedReader( new FileReader( fileName ) );
+			try {
+				String line;
+				int lineNumber = 0;
+				while ( (line = reader.readLine())!=null ) {
+					lineNumber++;
+					if ( line.length()==0 || line.charAt( 0 )=='#' ) {
+						continue;
+					}
+					final String[] fields = line.split( ",", 4 );
+					final long offset;
+					try {
+						offset = Long.parseLong( fields[0] ) - origin;
+						if ( offset<rangeStart || (rangeEnd>0 && offset>=rangeEnd) ) {
+							continue;
+						}
+						HistogramLog.decode( fields[3], record );
+					} catch ( RuntimeException e ) {
+						Log.logger.log( Level.WARNING, "Ignoring line {0} of {1}", new Object[] { lineNumber, fileName } );
+						continue;
+					} catch ( DataFormatException e ) {
+						Log.logger.log( Level.WARNING, "Ignoring line {0} of {1}: {2}", new Object[] { lineNumber, fileName, e.getMessage() } );
+						continue;
+					}
+					final long key = slice>0 ? rangeStart + (offset-rangeStart)/slice*slice : rangeStart;
+					ArrayList<long[]> records = slices.get( key );
+					if ( records==null ) {
+						records = new ArrayList<long[]>();
+						slices.put( key, records );
+					}
+					records.add( sparse( record ) );
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		final long[] counts = new long[LatencyHistogram.BUCKETS];
+		final long[] total = new long[LatencyHistogram.BUCKETS];
+		long lastEnd = rangeStart;
+		for ( Map.Entry<Long, ArrayList<long[]>> entry : slices.entrySet() ) {
+			final long start = entry.getKey();
+			final long end = slice>0 ? start+slice : (rangeEnd>0 ? rangeEnd : -1);
+			Arrays.fill( counts, 0 );
+			for ( long[] pairs : entry.getValue() ) {
+				for ( int i = 0; i<pairs.length; i += 2 ) {
+					counts[(int)pairs[i]] += pairs[i+1];
+				}
+			}
+			print( start, end, counts );
+			for ( int i = 0; i<total.length; i++ ) {
+				total[i] += counts[i];
+			}
+			lastEnd = end;
+		}
+		if ( slices.size()>1 ) {
+			print( rangeStart, rangeEnd>0 ? rangeEnd : lastEnd, total );
+		}
+
+	}
+
+	/**
+	 * @return The non-empty buckets of a histogram as (bucket, count) pairs.
+	 */
+	private static long[] sparse( long[] counts ) {
+		int used = 0;
+		for ( long count : counts ) {
+			if ( count!=0 ) {
+				used++;
+			}
+		}
+		final long[] pairs = new long[2*used];
+		int next = 0;
+		for ( int i = 0; i<counts.length; i++ ) {
+			if ( counts[i]!=0 ) {
+				pairs[next++] = i;
+				pairs[next++] = counts[i];
+			}
+		}
+		return pairs;
+	}
+
+	/**
+	 * @return The start time of the first record in the file, or
+	 *         Long.MAX_VALUE if there is none.
+	 */
+	private static long firstRecord( String fileName ) throws IOException {
+		final BufferedReader reader = new BufferedReader( new FileReader( fileName ) );
+		try {
+			String line;
+			while ( (line = reader.readLine())!=null ) {
+				if ( line.length()>0 && line.charAt( 0 )!='#' ) {
+					try {
+						return Long.parseLong( line.substring( 0, line.indexOf( ',' ) ) );
+					} catch ( RuntimeException e ) {
+						// Not a record, keep looking
+					}
+				}
+			}
+			return Long.MAX_VALUE;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Prints one slice.
+	 * @param end -1 if the slice runs to the end of the log.
+	 */
+	private void print( long start, long end, long[] counts ) {
+
+		final long count = LatencyHistogram.count( counts );
+		final StringBuffer sb = new StringBuffer( 128 );
+		sb.append( "start(s)=" ).append( numberFormat.format( start/1000d ) );
+		sb.append( ",end(s)=" ).append( end<0 ? "end" : numberFormat.format( end/1000d ) );
+		sb.append( ",count=" ).append( count );
+		if ( end>start ) {
+			sb.append( ",rate=" ).append( numberFormat.format( count*1000d/(end-start) ) );
+		}
+		LatencyHistogram.appendPercentiles( sb, counts, percentiles, numberFormat );
+		long max = -1;
+		for ( int i = counts.length-1; i>=0; i-- ) {
+			if ( counts[i]!=0 ) {
+				max = LatencyHistogram.valueOf( i );
+				break;
+			}
+		}
+		sb.append( ",max(micros)=" ).append( max<0 ? "N/A" : numberFormat.format( max/1000d ) );
+		System.out.println( sb.toString() );
+
+	}
+
+}
@@ -0,0 +1,169 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.stats;
+
+import java.text.NumberFormat;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ibm.uk.hursley.perfharness.Copyright;
+
+/**
+ * A fixed-size histogram of response times in nanoseconds. Buckets are
+ * log-linear: each power of two is divided into 32 equal buckets, so any
+ * recorded value is known to within about 3%. Values from 0 up to about 36
+ * minutes are held in under 10KB, and larger values are counted in the top
+ * bucket.
+ * <p>
+ * Only one thread (the owning WorkerThread) may record into a histogram, which
+ * keeps recording to a few nanoseconds with no locking or allocation. Any
+ * thread may read it.
+ */
+public final class LatencyHistogram {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_MAGNITUDE = 41;
+
+	/**
+	 * The number of buckets in every histogram.
+	 */
+	public static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+	/**
+	 * Percentiles reported where none are configured (see -pl).
+	 */
+	public static final String DEFAULT_PERCENTILES = "50,90,99,99.9";
+
+	private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+
+	/**
+	 * Counts one response time. Must only be called by the owning thread.
+	 * @param nanos
+	 */
+	public void record( long nanos ) {
+		final int bucket = bucketOf( nanos );
+		// Single writer, so a plain increment published with lazySet is safe.
+		counts.lazySet( bucket, counts.get( bucket ) + 1 );
+	}
+
+	/**
+	 * Adds the current counts to the given array.
+	 * @param totals An array of BUCKETS counts.
+	 */
+	public void addTo( long[] totals ) {
+		for ( int i = 0; i<BUCKETS; i++ ) {
+			totals[i] += counts.get( i );
+		}
+	}
+
+	/**
+	 * @return The bucket which counts the given value.
+	 */
+	public static int bucketOf( long nanos ) {
+		if ( nanos<SUB_BUCKETS ) {
+			return nanos<0 ? 0 : (int)nanos;
+		}
+		if ( nanos>MAX_VALUE ) {
+			nanos = MAX_VALUE;
+		}
+		final int shift = 63 - Long.numberOfLeadingZeros( nanos ) - SUB_BUCKET_BITS;
+		return ((shift+1) << SUB_BUCKET_BITS) + (int)((nanos >>> shift) & (SUB_BUCKETS-1));
+	}
+
+	/**
+	 * @return The middle of the range of values counted by the given bucket.
+	 */
+	public static long valueOf( int bucket ) {
+		if ( bucket<SUB_BUCKETS ) {
+			return bucket;
+		}
+		final int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+		final long lowest = (long)(SUB_BUCKETS + (bucket & (SUB_BUCKETS-1))) << shift;
+		return lowest + ((1L << shift) >>> 1);
+	}
+
+	/**
+	 * @return The total of the given counts.
+	 */
+	public static long count( long[] counts ) {
+		long total = 0;
+		for ( int i = 0; i<counts.length; i++ ) {
+			total += counts[i];
+		}
+		return total;
+	}
+
+	/**
+	 * @param counts An array of BUCKETS counts, as filled by addTo.
+	 * @param percentile Between 0 and 100.
+	 * @return The value (nanoseconds) below which the given percentage of the
+	 *         counted values fall, or -1 if nothing has been counted.
+	 */
+	public static long percentile( long[] counts, double percentile ) {
+		final long total = count( counts );
+		if ( total==0 ) {
+			return -1;
+		}
+		final long rank = Math.max( 1, (long)Math.ceil( total * percentile / 100 ) );
+		long seen = 0;
+		for ( int i = 0; i<counts.length; i++ ) {
+			seen += counts[i];
+			if ( seen>=rank ) {
+				return valueOf( i );
+			}
+		}
+		return valueOf( counts.length-1 );
+	}
+
+	/**
+	 * @param list Comma-separated percentiles, such as "50,99,99.9".
+	 * @throws NumberFormatException If any is not a number between 0 and 100.
+	 */
+	public static double[] parsePercentiles( String list ) {
+		final String[] fields = list.trim().split( "\\s*,\\s*" );
+		final double[] percentiles = new double[fields.length];
+		for ( int i = 0; i<fields.length; i++ ) {
+			percentiles[i] = Double.parseDouble( fields[i] );
+			if ( !(percentiles[i]>0 && percentiles[i]<=100) ) {
+				throw new NumberFormatException( fields[i] + " is not between 0 and 100" );
+			}
+		}
+		return percentiles;
+	}
+
+	/**
+	 * Appends ",p50(micros)=123.45" and so on for each of the given
+	 * percentiles.
+	 */
+	public static void appendPercentiles( StringBuffer sb, long[] counts, double[] percentiles, NumberFormat format ) {
+		for ( double percentile : percentiles ) {
+			final long value = percentile( counts, percentile );
+			sb.append( ",p" ).append( describe( percentile ) ).append( "(micros)=" );
+			sb.append( value<0 ? "N/A" : format.format( value / 1000d ) );
+		}
+	}
+
+	/**
+	 * @return The percentile without a trailing ".0", for example "99" or
+	 *         "99.9".
+	 */
+	public static String describe( double percentile ) {
+		return percentile==Math.rint( percentile ) ? Long.toString( (long)percentile ) : Double.toString( percentile );
+	}
+
+}
@@ -0,0 +1,362 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.stats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.ControlThread;
+import com.ibm.uk.hursley.perfharness.Copyright;
+import com.ibm.uk.hursley.perfharness.Log;
+import com.ibm.uk.hursley.perfharness.WorkerThread;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the live counters of a ControlThread's workers over HTTP (-mp) in
+ * the Prometheus text exposition format, so that harness metrics can be
+ * scraped alongside those of the system under test.
+ * <p>
+ * Workers are grouped by class and destination (see
+ * WorkerThread#getDestination()), and with -sb each destination is also
+ * reported on its own. Each scrape reads the published counters on the
+ * server's own thread; no lock is taken that a worker could wait for.
+ */
+public final class MetricsEndpoint implements HttpHandler {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	static final String PATH = "/metrics";
+	static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * Upper bounds (seconds) of the response time histogram buckets exposed.
+	 */
+	private static final double[] BOUNDS = { 0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+	private static final double[] CONNECT_QUANTILES = { 50, 90, 99 };
+
+	private final ControlThread parent;
+	private final List<WorkerThread> workers;
+	private final HttpServer server;
+
+	/**
+	 * Totals for one worker class and destination.
+	 */
+	private static final class Group {
+		final String labels;
+		int threads;
+		long iterations;
+		long errors;
+		long totalTime;
+		long[] histogram;
+		Group( String labels ) {
+			this.labels = labels;
+		}
+	}
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( MetricsEndpoint.class );
+
+		if ( !Config.isInvalid() ) {
+			final int port = Config.parms.getInt( "mp" );
+			if ( port<0 || port>65535 ) {
+				Config.logger.log( Level.WARNING, "Metrics port (mp={0}) must be between 0 and 65535.", port );
+			}
+		}
+
+	}
+
+	/**
+	 * @return An endpoint serving the given ControlThread's workers, or null
+	 *         if none is configured.
+	 */
+	public static MetricsEndpoint open( ControlThread parent ) {
+
+		final int port = Config.parms.getInt( "mp" );
+		if ( port==0 ) {
+			return null;
+		}
+		try {
+			return new MetricsEndpoint( parent, port );
+		} catch ( IOException e ) {
+			Log.logger.log( Level.SEVERE, "Cannot serve metrics on port " + port, e );
+			return null;
+		}
+
+	}
+
+	private MetricsEndpoint( ControlThread parent, int port ) throws IOException {
+
+		this.parent = parent;
+		this.workers = parent.getWorkers();
+		server = HttpServer.create( new InetSocketAddress( port ), 0 );
+		server.createContext( PATH, this );
+		// The default executor handles every request on the single
+		// dispatcher thread, so scrapes never run concurrently.
+		server.setExecutor( null );
+		server.start();
+		Log.logger.log( Level.INFO, "Serving metrics on http://{0}:{1}{2}", new Object[] { server.getAddress().getHostString(), String.valueOf( server.getAddress().getPort() ), PATH } );
+
+	}
+
+	/**
+	 * Stops serving metrics.
+	 */
+	public void close() {
+		server.stop( 0 );
+	}
+
+	public void handle( HttpExchange exchange ) throws IOException {
+
+		try {
+			if ( !"GET".equals( exchange.getRequestMethod() ) && !"HEAD".equals( exchange.getRequestMethod() ) ) {
+				exchange.sendResponseHeaders( 405, -1 );
+				return;
+			}
+			final byte[] body = scrape().getBytes( "UTF-8" );
+			exchange.getResponseHeaders().set( "Content-Type", CONTENT_TYPE );
+			if ( "HEAD".equals( exchange.getRequestMethod() ) ) {
+				exchange.sendResponseHeaders( 200, -1 );
+				return;
+			}
+			exchange.sendResponseHeaders( 200, body.length );
+			final OutputStream out = exchange.getResponseBody();
+			out.write( body );
+			out.close();
+		} finally {
+			exchange.close();
+		}
+
+	}
+
+	/**
+	 * @return The current metrics in the Prometheus text format.
+	 */
+	String scrape() {
+
+		final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+		for ( final WorkerThread worker : workers ) {
+			final String destination = worker.getDestination();
+			final String labels = "worker=\"" + escape( worker.getClass().getSimpleName() ) + "\""
+					+ (destination==null ? "" : ",destination=\"" + escape( destination ) + "\"");
+			Group group = groups.get( labels );
+			if ( group==null ) {
+				group = new Group( labels );
+				groups.put( labels, group );
+			}
+			if ( (worker.getStatus() & WorkerThread.sRUNNING)!=0 ) {
+				group.threads++;
+			}
+			group.iterations += worker.getIterations();
+			group.errors += worker.getErrors();
+			group.totalTime += worker.getOverallTotalTime();
+			if ( worker.getHistogram()!=null ) {
+				if ( group.histogram==null ) {
+					group.histogram = new long[LatencyHistogram.BUCKETS];
+				}
+				worker.getHistogram().addTo( group.histogram );
+			}
+		}
+
+		final StringBuilder sb = new StringBuilder( 1024 );
+
+		sb.append( "# HELP perfharness_running_threads Workers currently running.\n" );
+		sb.append( "# TYPE perfharness_running_threads gauge\n" );
+		sb.append( "perfharness_running_threads " ).append( parent.getRunningWorkers() ).append( '\n' );
+
+		sb.append( "# HELP perfharness_threads Workers running, by class and destination.\n" );
+		sb.append( "# TYPE perfharness_threads gauge\n" );
+		for ( Group group : groups.values() ) {
+			sb.append( "perfharness_threads{" ).append( group.labels ).append( "} " ).append( group.threads ).append( '\n' );
+		}
+
+		sb.append( "# HELP perfharness_iterations_total Iterations completed.\n" );
+		sb.append( "# TYPE perfharness_iterations_total counter\n" );
+		for ( Group group : groups.values() ) {
+			sb.append( "perfharness_iterations_total{" ).append( group.labels ).append( "} " ).append( group.iterations ).append( '\n' );
+		}
+
+		sb.append( "# HELP perfharness_errors_total Failed iterations and lost connections.\n" );
+		sb.append( "# TYPE perfharness_errors_total counter\n" );
+		for ( Group group : groups.values() ) {
+			sb.append( "perfharness_errors_total{" ).append( group.labels ).append( "} " ).append( group.errors ).append( '\n' );
+		}
+
+		boolean first = true;
+		for ( Group group : groups.values() ) {
+			if ( group.histogram==null ) {
+				continue;
+			}
+			if ( first ) {
+				sb.append( "# HELP perfharness_response_time_seconds Iteration response times.\n" );
+				sb.append( "# TYPE perfharness_response_time_seconds histogram\n" );
+				first = false;
+			}
+			appendHistogram( sb, "perfharness_response_time_seconds", group );
+		}
+
+		if ( DestinationCounters.isEnabled() ) {
+			appendDestinations( sb );
+		}
+		appendSpans( sb );
+
+		final long[] connectTimes = parent.getConnectTimes();
+		Arrays.sort( connectTimes );
+		long connectTotal = 0;
+		for ( long time : connectTimes ) {
+			connectTotal += time;
+		}
+		sb.append( "# HELP perfharness_connect_time_seconds Time taken by each worker to connect.\n" );
+		sb.append( "# TYPE perfharness_connect_time_seconds summary\n" );
+		if ( connectTimes.length>0 ) {
+			for ( double quantile : CONNECT_QUANTILES ) {
+				sb.append( "perfharness_connect_time_seconds{quantile=\"" ).append( quantile/100 ).append( "\"} " );
+				sb.append( ControlThread.percentile( connectTimes, quantile ) / 1000d ).append( '\n' );
+			}
+		}
+		sb.append( "perfharness_connect_time_seconds_sum " ).append( connectTotal / 1000d ).append( '\n' );
+		sb.append( "perfharness_connect_time_seconds_count " ).append( connectTimes.length ).append( '\n' );
+
+		return sb.toString();
+
+	}
+
+	/**
+	 * Appends the counters of each destination (-sb).
+	 */
+	private static void appendDestinations( StringBuilder sb ) {
+
+		final DestinationCounters[] all = DestinationCounters.getAll();
+		final Group[] groups = new Group[all.length];
+		for ( int i = 0; i<all.length; i++ ) {
+			final DestinationCounters d = all[i];
+			groups[i] = new Group( "destination=\"" + escape( d.getName() ) + "\"" );
+			groups[i].iterations = d.getIterations();
+			groups[i].errors = d.getErrors();
+			groups[i].totalTime = d.getTotalTime();
+			if ( d.isTimed() ) {
+				groups[i].histogram = new long[LatencyHistogram.BUCKETS];
+				d.addTo( groups[i].histogram );
+			}
+		}
+
+		sb.append( "# HELP perfharness_destination_iterations_total Iterations completed, by destination.\n" );
+		sb.append( "# TYPE perfharness_destination_iterations_total counter\n" );
+		for ( Group group : groups ) {
+			sb.append( "perfharness_destination_iterations_total{" ).append( group.labels ).append( "} " ).append( group.iterations ).append( '\n' );
+		}
+
+		sb.append( "# HELP perfharness_destination_errors_total Failed iterations, by destination.\n" );
+		sb.append( "# TYPE perfharness_destination_errors_total counter\n" );
+		for ( Group group : groups ) {
+			sb.append( "perfharness_destination_errors_total{" ).append( group.labels ).append( "} " ).append( group.errors ).append( '\n' );
+		}
+
+		if ( groups.length>0 && groups[0].histogram!=null ) {
+			sb.append( "# HELP perfharness_destination_response_time_seconds Iteration response times, by destination.\n" );
+			sb.append( "# TYPE perfharness_destination_response_time_seconds histogram\n" );
+			for ( Group group : groups ) {
+				appendHistogram( sb, "perfharness_destination_response_time_seconds", group );
+			}
+		}
+
+	}
+
+	/**
+	 * Appends the times of each timing span (see WorkerThread#defineSpan)
+	 * which has been timed.
+	 */
+	private void appendSpans( StringBuilder sb ) {
+
+		final String[] names = WorkerThread.getSpanNames();
+		boolean first = true;
+		for ( int i = 0; i<names.length; i++ ) {
+			final Group group = new Group( "span=\"" + escape( names[i] ) + "\"" );
+			for ( final WorkerThread worker : workers ) {
+				final LatencyHistogram histogram = worker.getSpanHistogram( i );
+				if ( histogram!=null ) {
+					if ( group.histogram==null ) {
+						group.histogram = new long[LatencyHistogram.BUCKETS];
+					}
+					histogram.addTo( group.histogram );
+					group.totalTime += worker.getSpanTotalTime( i );
+				}
+			}
+			if ( group.histogram==null ) {
+				continue;
+			}
+			if ( first ) {
+				sb.append( "# HELP perfharness_span_time_seconds Times of the phases of iterations, by span.\n" );
+				sb.append( "# TYPE perfharness_span_time_seconds histogram\n" );
+				first = false;
+			}
+			appendHistogram( sb, "perfharness_span_time_seconds", group );
+		}
+
+	}
+
+	/**
+	 * Appends the group's LatencyHistogram folded into cumulative BOUNDS
+	 * buckets.
+	 */
+	private static void appendHistogram( StringBuilder sb, String name, Group group ) {
+
+		final long[] counts = group.histogram;
+		long cumulative = 0;
+		int bound = 0;
+		for ( int i = 0; i<counts.length; i++ ) {
+			if ( counts[i]==0 ) {
+				continue;
+			}
+			final double value = LatencyHistogram.valueOf( i ) / 1e9;
+			while ( bound<BOUNDS.length && value>BOUNDS[bound] ) {
+				appendBucket( sb, name, group, Double.toString( BOUNDS[bound++] ), cumulative );
+			}
+			cumulative += counts[i];
+		}
+		while ( bound<BOUNDS.length ) {
+			appendBucket( sb, name, group, Double.toString( BOUNDS[bound++] ), cumulative );
+		}
+		appendBucket( sb, name, group, "+Inf", cumulative );
+		sb.append( name ).append( "_sum{" ).append( group.labels ).append( "} " ).append( group.totalTime / 1e6 ).append( '\n' );
+		sb.append( name ).append( "_count{" ).append( group.labels ).append( "} " ).append( cumulative ).append( '\n' );
+
+	}
+
+	private static void appendBucket( StringBuilder sb, String name, Group group, String le, long count ) {
+		sb.append( name ).append( "_bucket{" ).append( group.labels ).append( ",le=\"" ).append( le ).append( "\"} " ).append( count ).append( '\n' );
+	}
+
+	/**
+	 * Escapes a label value.
+	 */
+	private static String escape( String value ) {
+		return value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" );
+	}
+
+}
@@ -0,0 +1,135 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.stats;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.Copyright;
+
+/**
+ * Send time stamps for measuring one-way latency (-et), from a producer to
+ * a consumer which may be in another JVM on the same host.
+ * <p>
+ * System.nanoTime cannot be compared between JVMs, and the system clock is
+ * often only precise to the millisecond, so the time stamp is nanoTime
+ * shifted by an offset found once, at a millisecond edge of the system
+ * clock. Two JVMs then agree to within a few microseconds, until the system
+ * clock is adjusted.
+ */
+public final class OneWayLatency {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	/**
+	 * The name of the JMS message property holding the send time.
+	 */
+	public static final String PROPERTY = "PerfHarnessSendTime";
+
+	/**
+	 * The number of bytes of a message body taken by the send time (see
+	 * write).
+	 */
+	public static final int BODY_BYTES = 12;
+
+	// Marks a body holding a send time ("PHTS")
+	private static final int MAGIC = 0x50485453;
+
+	private static boolean enabled = false;
+	private static long offset = 0;
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( OneWayLatency.class );
+		enabled = Config.parms.getBoolean( "et" );
+		if ( enabled && offset==0 ) {
+			offset = calibrate();
+		}
+
+	}
+
+	/**
+	 * @return true if one-way latency is being measured (-et).
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return The offset from System.nanoTime to nanoseconds since the epoch,
+	 *         taken just after the system clock's millisecond changes.
+	 */
+	private static long calibrate() {
+
+		final long millis = System.currentTimeMillis();
+		long now;
+		while ( (now = System.currentTimeMillis())==millis ) {
+			// Spin until the next millisecond
+		}
+		return now * 1000000L - System.nanoTime();
+
+	}
+
+	/**
+	 * @return The current time (nanoseconds since the epoch) to be compared
+	 *         with that of another JVM on this host.
+	 */
+	public static long now() {
+		return System.nanoTime() + offset;
+	}
+
+	/**
+	 * Writes the current time at the start of a message body.
+	 * @return false if the body is too short (see BODY_BYTES).
+	 */
+	public static boolean write( byte[] body ) {
+
+		if ( body.length<BODY_BYTES ) {
+			return false;
+		}
+		putInt( body, 0, MAGIC );
+		final long now = now();
+		putInt( body, 4, (int)(now >>> 32) );
+		putInt( body, 8, (int)now );
+		return true;
+
+	}
+
+	/**
+	 * @return The time written at the start of a message body by write, or
+	 *         -1 if it has none.
+	 */
+	public static long read( byte[] body ) {
+
+		if ( body.length<BODY_BYTES || getInt( body, 0 )!=MAGIC ) {
+			return -1;
+		}
+		return ((long)getInt( body, 4 ) << 32) | (getInt( body, 8 ) & 0xffffffffL);
+
+	}
+
+	private static void putInt( byte[] b, int at, int value ) {
+		b[at] = (byte)(value >>> 24);
+		b[at+1] = (byte)(value >>> 16);
+		b[at+2] = (byte)(value >>> 8);
+		b[at+3] = (byte)value;
+	}
+
+	private static int getInt( byte[] b, int at ) {
+		return ((b[at] & 0xff) << 24) | ((b[at+1] & 0xff) << 16) | ((b[at+2] & 0xff) << 8) | (b[at+3] & 0xff);
+	}
+
+}
@@ -0,0 +1,225 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.stats;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.text.NumberFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.logging.Level;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.Copyright;
+import com.ibm.uk.hursley.perfharness.Log;
+import com.ibm.uk.hursley.perfharness.WorkerThread;
+
+/**
+ * Reads the CPU time, heap allocated, and time blocked and waiting of each
+ * WorkerThread from the ThreadMXBean (-ra), so that the cost of an iteration
+ * to the harness can be reported.
+ * <p>
+ * The JVM forgets a thread once it ends, so the last reading of each worker
+ * is kept and the totals include workers which have ended since.
+ */
+public final class ResourceAccounting {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	private static boolean enabled = false;
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+	private final List<WorkerThread> workers;
+	// The last reading of each worker
+	private final IdentityHashMap<WorkerThread, Usage> readings = new IdentityHashMap<WorkerThread, Usage>();
+	private boolean warned = false;
+
+	/**
+	 * Totals of the resources used by workers, or the difference between
+	 * two totals.
+	 */
+	public static final class Usage {
+		/** Iterations completed. */
+		public long iterations;
+		/** CPU time of the workers (nanoseconds). */
+		public long cpuTime;
+		/** CPU time of the whole process (nanoseconds), or -1 if unknown. */
+		public long processCpuTime;
+		/** Heap allocated (bytes), or -1 if unknown. */
+		public long allocated;
+		/** Time blocked entering monitors (milliseconds), or -1 if unknown. */
+		public long blockedTime;
+		/** Time waiting (milliseconds), or -1 if unknown. */
+		public long waitedTime;
+		/** Total time of the workers measured (milliseconds). */
+		public long threadTime;
+		// When a worker was read
+		long readTime;
+
+		/**
+		 * @return The usage since an earlier total.
+		 */
+		public Usage since( Usage earlier ) {
+			final Usage usage = new Usage();
+			usage.iterations = iterations - earlier.iterations;
+			usage.cpuTime = cpuTime - earlier.cpuTime;
+			usage.processCpuTime = processCpuTime<0 ? -1 : processCpuTime - earlier.processCpuTime;
+			usage.allocated = allocated<0 ? -1 : allocated - earlier.allocated;
+			usage.blockedTime = blockedTime<0 ? -1 : blockedTime - earlier.blockedTime;
+			usage.waitedTime = waitedTime<0 ? -1 : waitedTime - earlier.waitedTime;
+			usage.threadTime = threadTime - earlier.threadTime;
+			return usage;
+		}
+
+		/**
+		 * Appends ",cpu(micros/msg)=12.34" and so on, per iteration or as a
+		 * percentage of the workers' time.
+		 */
+		public void append( StringBuffer sb, NumberFormat format ) {
+			sb.append( ",cpu(micros/msg)=" ).append( perIteration( cpuTime/1000d, format ) );
+			if ( allocated>=0 ) {
+				sb.append( ",alloc(bytes/msg)=" ).append( perIteration( allocated, format ) );
+			}
+			if ( blockedTime>=0 ) {
+				sb.append( ",blocked=" ).append( percentOfTime( blockedTime, format ) );
+				sb.append( ",waited=" ).append( percentOfTime( waitedTime, format ) );
+			}
+		}
+
+		/**
+		 * @return The value per iteration, or "N/A" if there were none.
+		 */
+		public String perIteration( double value, NumberFormat format ) {
+			return iterations>0 ? format.format( value/iterations ) : "N/A";
+		}
+
+		/**
+		 * @return The time as a percentage of the workers' time.
+		 */
+		public String percentOfTime( long time, NumberFormat format ) {
+			return threadTime>0 ? format.format( time*100d/threadTime ) + "%" : "N/A";
+		}
+	}
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( ResourceAccounting.class );
+		enabled = Config.parms.getBoolean( "ra" );
+		if ( !enabled ) {
+			return;
+		}
+
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if ( threads.isThreadCpuTimeSupported() ) {
+			threads.setThreadCpuTimeEnabled( true );
+		} else {
+			Config.logger.warning( "This JVM cannot measure the CPU time of threads (-ra)." );
+		}
+		if ( threads.isThreadContentionMonitoringSupported() ) {
+			threads.setThreadContentionMonitoringEnabled( true );
+		}
+		if ( threads instanceof com.sun.management.ThreadMXBean ) {
+			final com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean)threads;
+			if ( allocation.isThreadAllocatedMemorySupported() ) {
+				allocation.setThreadAllocatedMemoryEnabled( true );
+			}
+		}
+
+	}
+
+	/**
+	 * @return An accounting of the given workers, or null if none is
+	 *         configured (-ra).
+	 */
+	public static ResourceAccounting open( List<WorkerThread> workers ) {
+		return enabled ? new ResourceAccounting( workers ) : null;
+	}
+
+	private ResourceAccounting( List<WorkerThread> workers ) {
+		this.workers = workers;
+	}
+
+	/**
+	 * Reads every running worker.
+	 * @return The totals of all workers, including those which have ended.
+	 */
+	public synchronized Usage read() {
+
+		final long now = System.currentTimeMillis();
+		final boolean allocation = threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemoryEnabled();
+		final boolean contention = threads.isThreadContentionMonitoringEnabled();
+
+		final Usage total = new Usage();
+		total.processCpuTime = os instanceof com.sun.management.OperatingSystemMXBean
+				? ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime() : -1;
+		total.allocated = allocation ? 0 : -1;
+		total.blockedTime = contention ? 0 : -1;
+		total.waitedTime = contention ? 0 : -1;
+
+		for ( final WorkerThread worker : workers ) {
+			final long id = worker.getExecutingThread().getId();
+			final long cpuTime = threads.getThreadCpuTime( id );
+			Usage reading = readings.get( worker );
+			if ( cpuTime>=0 ) {
+				if ( reading==null ) {
+					reading = new Usage();
+					reading.readTime = worker.getStartTime();
+					readings.put( worker, reading );
+				}
+				reading.iterations = worker.getIterations();
+				reading.cpuTime = cpuTime;
+				if ( allocation ) {
+					reading.allocated = Math.max( 0, ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes( id ) );
+				}
+				if ( contention ) {
+					final ThreadInfo info = threads.getThreadInfo( id );
+					if ( info!=null ) {
+						reading.blockedTime = Math.max( 0, info.getBlockedTime() );
+						reading.waitedTime = Math.max( 0, info.getWaitedTime() );
+					}
+				}
+				reading.threadTime += Math.max( 0, now - reading.readTime );
+				reading.readTime = now;
+			} else if ( reading==null && worker.isExecuting() && !warned ) {
+				// Virtual threads, for example, are not measured
+				Log.logger.log( Level.WARNING, "Cannot measure the resources used by {0}", worker.getName() );
+				warned = true;
+			}
+		}
+
+		for ( final Usage reading : readings.values() ) {
+			total.iterations += reading.iterations;
+			total.cpuTime += reading.cpuTime;
+			if ( allocation ) {
+				total.allocated += reading.allocated;
+			}
+			if ( contention ) {
+				total.blockedTime += reading.blockedTime;
+				total.waitedTime += reading.waitedTime;
+			}
+			total.threadTime += reading.threadTime;
+		}
+		return total;
+
+	}
+
+}
@@ -76,8 +76,8 @@ public class ResponseTimeStats extends Statistics {
 		}
 
 		updateValues();
-		int total = 0;
-		int diff;
+		long total = 0;
+		long diff;
 		
 		long totalTime = 0;
 		
@@ -134,7 +134,18 @@ public class ResponseTimeStats extends Statistics {
 		if (total > 0) {
 			sb.append("=").append(totalTime/total);
 		}
+		LatencyHistogram.appendPercentiles(sb, readIntervalHistogram(), getPercentiles(), numberFormat);
 		sb.append(",threads=").append( parent.getRunningWorkers() );
+		if ( WorkerThread.isOpenLoop() ) {
+			sb.append(",backlog=").append( readBacklog() );
+		}
+		if ( WorkerThread.isPrecisePacing() ) {
+			sb.append(",pacingErr(us)=").append( numberFormat.format(readPacingError()) );
+		}
+		appendResourceUsage(sb);
+		if ( phase!=null ) {
+			sb.append(",phase=").append( phase );
+		}
 		
 	}
 
@@ -173,7 +184,7 @@ public class ResponseTimeStats extends Statistics {
 				}
 				
 				long threadStartTime;
-				if ( trimInterval==0 ) {
+				if ( trimTime==0 ) {
 					threadStartTime = worker.getStartTime();
 				} else {
 					threadStartTime = trimTime;
@@ -186,8 +197,10 @@ public class ResponseTimeStats extends Statistics {
 				
 				long iterations = worker.getIterations();
 				
-				if ( trimTime!=0 ) {
-					iterations -= trimValues[ workers.indexOf( worker ) ];
+				// Workers added since the measurement period began have no trim value
+				final int index = workers.indexOf( worker );
+				if ( trimTime!=0 && index<trimValues.length ) {
+					iterations -= trimValues[ index ];
 				}
 				
 				long duration = threadEndTime-threadStartTime;
@@ -221,7 +234,7 @@ public class ResponseTimeStats extends Statistics {
 				sb.append(pad(df.format(duration/(1000))));
 				sb.append(pad(df.format(rate)));
 				sb.append("|");
-				sb.append(pad(totalTime/iterations));				
+				sb = (iterations == 0)? sb.append(pad("N/A")) : sb.append(pad(totalTime/iterations));				
 				sb = (minTime == 999999999)? sb.append(pad("N/A")) : sb.append(pad(minTime));
 				sb = (maxTime == 0)? sb.append(pad("N/A")) : sb.append(pad(maxTime));				
 				sb.append(pad(df.format(stdDev)));
@@ -253,10 +266,20 @@ public class ResponseTimeStats extends Statistics {
 					pad(numberFormat.format(totalDuration/(1000*counted))) +
 					pad(numberFormat.format(totalRate)) +
 					"|" +
-					pad("" + totalOverallResponseTime/totalIterations) +
+					(totalIterations == 0 ? pad("N/A") : pad("" + totalOverallResponseTime/totalIterations)) +
 					pad("" + minOverallResponseTime) +
 					pad("" + maxOverallResponseTime) +
 					pad("---"));
+			final StringBuffer percentiles = new StringBuffer("Response time percentiles:");
+			LatencyHistogram.appendPercentiles(percentiles, readMeasuredHistogram(), getPercentiles(), numberFormat);
+			percentiles.setCharAt("Response time percentiles:".length(), ' ');
+			System.out.println(percentiles.toString());
+			if ( WorkerThread.isOpenLoop() ) {
+				System.out.println("Response times measured from intended start (open-loop), maxScheduleLag(ms)=" + numberFormat.format(readMaxScheduleLag()));
+			}
+			if ( WorkerThread.isPrecisePacing() ) {
+				System.out.println("Precise pacing, maxPacingErr(us)=" + numberFormat.format(readMaxPacingError()));
+			}
 			
 		} // end if su
 		
@@ -291,6 +314,7 @@ public class ResponseTimeStats extends Statistics {
 			sb.setLength(0); // reset stringbuffer
 			makeStringBuffer(sb);
 			System.out.println(sb.toString());
+			printIntervalBreakdowns();
 	
 		} // end run()
 	}
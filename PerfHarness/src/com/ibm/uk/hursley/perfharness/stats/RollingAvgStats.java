@@ -34,19 +34,25 @@ public class RollingAvgStats extends Statistics {
 	@SuppressWarnings("unused")
 	private static final String c = Copyright.COPYRIGHT;
 
-	private int[] samples;
+	private long[] samples;
 	private static int numSamples;
 	
 	private int samplePtr = 0; // newest used slot in the samples array
 	private int earlySamples = 0;
 	
-	private int sum = 0; // This is the sum of the samples (without dividing by the number of samples)
-	private int maxSum = Integer.MIN_VALUE;
+	private long sum = 0; // This is the sum of the samples (without dividing by the number of samples)
+	private long maxSum = Long.MIN_VALUE;
+	
+	private static boolean rollingLatency;
+	// Response time histograms of each second and their sum, kept like samples and sum
+	private long[][] latencySamples;
+	private long[] latencySum;
+	private long maxP99 = -1;
 	
 	private TimerTask displayTask;
 	private TimerTask sampleTask;
 	
-	protected int[] perThreadPrev = null;
+	protected long[] perThreadPrev = null;
 	
 	private final StringBuffer sb = new StringBuffer(128);
 	
@@ -74,19 +80,29 @@ public class RollingAvgStats extends Statistics {
 							numSamples);
 		}
 		
+		rollingLatency = Config.parms.getBoolean( "srl" );
+		if ( rollingLatency ) {
+			// Workers only record response times for ResponseTimeStats
+			Config.registerAnother( ResponseTimeStats.class );
+		}
+		
 	}	
 	
 	public RollingAvgStats(ControlThread parent) {
 		
 		super(parent);
 		
-		samples = new int[ numSamples>0?numSamples:0 ];
+		samples = new long[ numSamples>0?numSamples:0 ];
+		if ( rollingLatency ) {
+			latencySamples = new long[samples.length][LatencyHistogram.BUCKETS];
+			latencySum = new long[LatencyHistogram.BUCKETS];
+		}
 		updateValues();
 		ControlThread.getTaskScheduler().schedule( sampleTask = new Sample(), 1000, 1000 );
 		if ( interval>0 ) {
 			ControlThread.getTaskScheduler().schedule( displayTask = new Display(), interval, interval );
 			if ( do_perThread ) {
-				perThreadPrev = new int[0];
+				perThreadPrev = new long[0];
 			}
 		}
 
@@ -106,7 +122,7 @@ public class RollingAvgStats extends Statistics {
 			// intervals (rather than the latest sample interval). This is held
 			// in perThreadPrev.
 			
-			int diff;
+			long diff;
 			// comment these out to avoid printing per-thread data
 			sb.append(" (");
 			int shortest = curr.length<perThreadPrev.length?curr.length:perThreadPrev.length;
@@ -120,15 +136,33 @@ public class RollingAvgStats extends Statistics {
 			}
 			sb.append(") ");
 			
-			perThreadPrev = curr.clone(); // Take full clone, otherwise we are only copying pointers to the same int objects
+			perThreadPrev = curr.clone(); // Take full clone, otherwise we are only copying pointers to the same long objects
 			
 		} // End perThread 
 		
 		sb.append("rateR=").append( numberFormat.format(((double) sum) / (earlySamples<numSamples?earlySamples:numSamples) ) );
+		if ( latencySum!=null ) {
+			appendLatency( sb, ",p50R(micros)=", LatencyHistogram.percentile( latencySum, 50 ) );
+			appendLatency( sb, ",p99R(micros)=", LatencyHistogram.percentile( latencySum, 99 ) );
+			appendLatency( sb, ",maxR(micros)=", LatencyHistogram.percentile( latencySum, 100 ) );
+		}
 		sb.append(",threads=").append( parent.getRunningWorkers() );
+		if ( WorkerThread.isOpenLoop() ) {
+			sb.append(",backlog=").append( readBacklog() );
+		}
+		if ( WorkerThread.isPrecisePacing() ) {
+			sb.append(",pacingErr(us)=").append( numberFormat.format(readPacingError()) );
+		}
+		if ( phase!=null ) {
+			sb.append(",phase=").append( phase );
+		}
 		
 	}
 
+	private final void appendLatency( StringBuffer sb, String name, long nanos ) {
+		sb.append( name ).append( nanos<0 ? "N/A" : numberFormat.format( nanos / 1000d ) );
+	}
+
 	public void printFinalSummary() {
 		
 		if ( Config.parms.getBoolean("su") ) {
@@ -155,7 +189,7 @@ public class RollingAvgStats extends Statistics {
 				}
 				
 				long threadStartTime;
-				if ( trimInterval==0 ) {
+				if ( trimTime==0 ) {
 					threadStartTime = worker.getStartTime();
 				} else {
 					threadStartTime = trimTime;
@@ -169,8 +203,10 @@ public class RollingAvgStats extends Statistics {
 				long iterations = worker.getIterations();
 				totalMsgs.append(separator);
 				totalMsgs.append(iterations);
-				if ( trimTime!=0 ) {
-					iterations -= trimValues[ workers.indexOf( worker ) ];
+				// Workers added since the measurement period began have no trim value
+				final int index = workers.indexOf( worker );
+				if ( trimTime!=0 && index<trimValues.length ) {
+					iterations -= trimValues[ index ];
 				}
 				
 				separator = " , ";
@@ -194,15 +230,18 @@ public class RollingAvgStats extends Statistics {
 
             System.out.println("totalIterations=" + totalIterations
 				+ ",avgDuration=" + numberFormat.format(totalDuration/(1000*counted))
-				+ ",maxrateR=" + numberFormat.format(totalRate));
+				+ ",maxrateR=" + numberFormat.format(totalRate)
+				+ (latencySum!=null ? ",maxp99R(micros)=" + (maxP99<0 ? "N/A" : numberFormat.format(maxP99/1000d)) : "")
+				+ (WorkerThread.isOpenLoop() ? ",maxScheduleLag(ms)=" + numberFormat.format(readMaxScheduleLag()) : "")
+				+ (WorkerThread.isPrecisePacing() ? ",maxPacingErr(us)=" + numberFormat.format(readMaxPacingError()) : ""));
 		}
 	}
 
-	private final int numNewOperations() {
+	private final long numNewOperations() {
 		
 		updateValues();
-		int diff;
-		int total = 0;
+		long diff;
+		long total = 0;
 		int shortest = curr.length<prev.length?curr.length:prev.length;
 		for (int j = 0; j < shortest; j++) {
 			diff = curr[j] - prev[j];
@@ -237,7 +276,8 @@ public class RollingAvgStats extends Statistics {
 	protected void notifyMeasurementPeriod() {
 		
 		super.notifyMeasurementPeriod();
-		maxSum = Integer.MIN_VALUE;
+		maxSum = Long.MIN_VALUE;
+		maxP99 = -1;
 
 	}	
 	
@@ -249,6 +289,16 @@ public class RollingAvgStats extends Statistics {
 			sum -= samples[samplePtr];
 			samples[samplePtr] = numNewOperations();
 			sum += samples[samplePtr];
+			if ( latencySamples!=null ) {
+				// Replace the oldest second in the sum, so each sample costs one
+				// pass over the buckets whatever the window
+				final long[] latest = readIntervalHistogram();
+				final long[] oldest = latencySamples[samplePtr];
+				for ( int i = 0; i<latest.length; i++ ) {
+					latencySum[i] += latest[i] - oldest[i];
+					oldest[i] = latest[i];
+				}
+			}
 			samplePtr = ++samplePtr % numSamples;
 			earlySamples++; // beware of wrap around ?
 
@@ -256,6 +306,9 @@ public class RollingAvgStats extends Statistics {
 				maxSum = sum;
 				//Log.logger.fine( "new MAXIMUM = "+sum );
 			}
+			if ( latencySum!=null ) {
+				maxP99 = Math.max( maxP99, LatencyHistogram.percentile( latencySum, 99 ) );
+			}
 			
 		}
 		
@@ -281,6 +334,7 @@ public class RollingAvgStats extends Statistics {
 			sb.setLength(0); // reset stringbuffer
 			makeStringBuffer(sb);
 			System.out.println(sb.toString());
+			printIntervalBreakdowns();
 
 		} // end run()
 	}
@@ -0,0 +1,346 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.stats;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.Copyright;
+import com.ibm.uk.hursley.perfharness.Log;
+
+/**
+ * Compares runs recorded in histogram logs (see HistogramLog) with a
+ * baseline run, giving the change in throughput and in each response time
+ * percentile with a bootstrap confidence interval, and a verdict against the
+ * regression thresholds.
+ * <p>
+ * Each interval of a log gives one rate (its count over its length) and one
+ * histogram. A resample draws as many intervals as the run has, with
+ * replacement, and the confidence interval of a change is taken from the
+ * spread of the changes between resamples of the two runs.
+ */
+public final class RunComparison {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	private static final String RATE = "rate";
+
+	private final String[] fileNames = Config.parms.getString( "rci" ).trim().split( "\\s*,\\s*" );
+	private final long warmup = (long)(Config.parms.getDouble( "rcw" ) * 1000);
+	private final double[] percentiles = LatencyHistogram.parsePercentiles( Config.parms.getString( "rcp" ) );
+	private final double rateThreshold = Config.parms.getDouble( "rct" );
+	private final double latencyThreshold = Config.parms.getDouble( "rcl" );
+	private final int resamples = Config.parms.getInt( "rcb" );
+	private final double confidence = Config.parms.getDouble( "rcc" );
+	// The output is for other tools, so does not follow the default locale
+	private final NumberFormat numberFormat = NumberFormat.getInstance( Locale.US );
+
+	/**
+	 * The intervals of one run after the warmup. Histograms are held sparse,
+	 * as only a few buckets of each are used.
+	 */
+	private static final class Run {
+		final String name;
+		final ArrayList<long[]> intervals = new ArrayList<long[]>();
+		long length;
+		long count;
+		Run( String name ) {
+			this.name = name;
+		}
+		int size() {
+			return intervals.size();
+		}
+	}
+
+	// Fields of each interval: length, count, then bucket and count pairs
+	private static final int I_LENGTH = 0;
+	private static final int I_COUNT = 1;
+	private static final int I_BUCKETS = 2;
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( RunComparison.class );
+
+		if ( !Config.isInvalid() ) {
+			if ( Config.parms.getString( "rci" ).trim().split( "\\s*,\\s*" ).length<2 ) {
+				Config.logger.warning( "At least two histogram logs (-rci) are required." );
+			}
+			if ( Config.parms.getDouble( "rcw" )<0 || Config.parms.getDouble( "rct" )<0 || Config.parms.getDouble( "rcl" )<0 ) {
+				Config.logger.warning( "The warmup (-rcw) and thresholds (-rct, -rcl) must not be negative." );
+			}
+			if ( Config.parms.getInt( "rcb" )<1 ) {
+				Config.logger.warning( "At least one bootstrap resample (-rcb) is required." );
+			}
+			if ( !(Config.parms.getDouble( "rcc" )>0 && Config.parms.getDouble( "rcc" )<100) ) {
+				Config.logger.warning( "The confidence level (-rcc) must be between 0 and 100." );
+			}
+			try {
+				LatencyHistogram.parsePercentiles( Config.parms.getString( "rcp" ) );
+			} catch ( NumberFormatException e ) {
+				Config.logger.log( Level.WARNING, "Invalid percentile list (rcp={0}): {1}", new Object[] { Config.parms.getString( "rcp" ), e.getMessage() } );
+			}
+		}
+
+	}
+
+	public RunComparison() {
+		numberFormat.setMinimumFractionDigits( 2 );
+		numberFormat.setMaximumFractionDigits( 2 );
+		numberFormat.setGroupingUsed( false );
+	}
+
+	/**
+	 * Reads the logs, prints each run and each comparison, then the verdict.
+	 * @return true if no candidate regressed.
+	 * @throws IOException If a log cannot be read or has no intervals after
+	 *             the warmup.
+	 */
+	public boolean run() throws IOException {
+
+		final Run[] runs = new Run[fileNames.length];
+		for ( int i = 0; i<runs.length; i++ ) {
+			runs[i] = read( fileNames[i] );
+			if ( runs[i].size()==0 ) {
+				throw new IOException( "No intervals after the warmup in " + fileNames[i] );
+			}
+			print( runs[i] );
+		}
+
+		boolean passed = true;
+		for ( int i = 1; i<runs.length; i++ ) {
+			passed &= compare( runs[0], runs[i] );
+		}
+		System.out.println( "verdict=" + (passed ? "pass" : "fail") );
+		return passed;
+
+	}
+
+	/**
+	 * @return The intervals of a log after the warmup.
+	 */
+	private Run read( String fileName ) throws IOException {
+
+		final Run run = new Run( fileName );
+		final long[] record = new long[LatencyHistogram.BUCKETS];
+		final BufferedReader reader = new BufferedReader( new FileReader( fileName ) );
+		try {
+			long origin = -1;
+			String line;
+			int lineNumber = 0;
+			while ( (line = reader.readLine())!=null ) {
+				lineNumber++;
+				if ( line.length()==0 || line.charAt( 0 )=='#' ) {
+					continue;
+				}
+				final String[] fields = line.split( ",", 4 );
+				final long start;
+				final long length;
+				try {
+					start = Long.parseLong( fields[0] );
+					length = Long.parseLong( fields[1] );
+					if ( origin<0 ) {
+						origin = start;
+					}
+					if ( start-origin<warmup || length<=0 ) {
+						continue;
+					}
+					HistogramLog.decode( fields[3], record );
+				} catch ( RuntimeException e ) {
+					Log.logger.log( Level.WARNING, "Ignoring line {0} of {1}", new Object[] { lineNumber, fileName } );
+					continue;
+				} catch ( DataFormatException e ) {
+					Log.logger.log( Level.WARNING, "Ignoring line {0} of {1}: {2}", new Object[] { lineNumber, fileName, e.getMessage() } );
+					continue;
+				}
+				int used = 0;
+				for ( long count : record ) {
+					if ( count!=0 ) {
+						used++;
+					}
+				}
+				final long[] interval = new long[I_BUCKETS + 2*used];
+				interval[I_LENGTH] = length;
+				int next = I_BUCKETS;
+				for ( int i = 0; i<record.length; i++ ) {
+					if ( record[i]!=0 ) {
+						interval[next++] = i;
+						interval[next++] = record[i];
+						interval[I_COUNT] += record[i];
+					}
+				}
+				run.intervals.add( interval );
+				run.length += length;
+				run.count += interval[I_COUNT];
+			}
+		} finally {
+			reader.close();
+		}
+
+		// The last record of a log is written when the run ends, so is
+		// usually part of an interval. Drop it if it is empty or clearly
+		// shorter than the interval before it.
+		final int size = run.size();
+		if ( size>1 ) {
+			final long[] last = run.intervals.get( size-1 );
+			if ( last[I_COUNT]==0 || last[I_LENGTH]*10<run.intervals.get( size-2 )[I_LENGTH]*9 ) {
+				run.intervals.remove( size-1 );
+				run.length -= last[I_LENGTH];
+				run.count -= last[I_COUNT];
+			}
+		}
+		return run;
+
+	}
+
+	private void print( Run run ) {
+
+		final long[] counts = new long[LatencyHistogram.BUCKETS];
+		for ( long[] interval : run.intervals ) {
+			addTo( interval, counts );
+		}
+		final StringBuffer sb = new StringBuffer( 128 );
+		sb.append( "run=" ).append( run.name );
+		sb.append( ",intervals=" ).append( run.size() );
+		sb.append( ",rate=" ).append( numberFormat.format( run.count*1000d/run.length ) );
+		LatencyHistogram.appendPercentiles( sb, counts, percentiles, numberFormat );
+		System.out.println( sb.toString() );
+
+	}
+
+	/**
+	 * Prints the change of each metric from the baseline to the candidate.
+	 * @return true if none regressed.
+	 */
+	private boolean compare( Run baseline, Run candidate ) {
+
+		// Metric 0 is the rate, then one per percentile
+		final int metrics = 1 + percentiles.length;
+		final double[] observed = change( measure( baseline, null, null ), measure( candidate, null, null ) );
+
+		final Random random = new Random( 0 );
+		final int[] baselinePicks = new int[baseline.size()];
+		final int[] candidatePicks = new int[candidate.size()];
+		final long[] counts = new long[LatencyHistogram.BUCKETS];
+		final double[][] changes = new double[metrics][resamples];
+		final int[] valid = new int[metrics];
+		for ( int r = 0; r<resamples; r++ ) {
+			for ( int i = 0; i<baselinePicks.length; i++ ) {
+				baselinePicks[i] = random.nextInt( baselinePicks.length );
+			}
+			for ( int i = 0; i<candidatePicks.length; i++ ) {
+				candidatePicks[i] = random.nextInt( candidatePicks.length );
+			}
+			final double[] resampled = change( measure( baseline, baselinePicks, counts ), measure( candidate, candidatePicks, counts ) );
+			for ( int m = 0; m<metrics; m++ ) {
+				if ( !Double.isNaN( resampled[m] ) ) {
+					changes[m][valid[m]++] = resampled[m];
+				}
+			}
+		}
+
+		boolean passed = true;
+		final double tail = (100 - confidence) / 200;
+		final StringBuffer sb = new StringBuffer( 128 );
+		for ( int m = 0; m<metrics; m++ ) {
+			final String metric = m==0 ? RATE : "p" + LatencyHistogram.describe( percentiles[m-1] );
+			sb.setLength( 0 );
+			sb.append( "candidate=" ).append( candidate.name );
+			sb.append( ",metric=" ).append( metric );
+			if ( Double.isNaN( observed[m] ) || valid[m]==0 ) {
+				sb.append( ",change=N/A" );
+				System.out.println( sb.toString() );
+				continue;
+			}
+			final double[] sorted = Arrays.copyOf( changes[m], valid[m] );
+			Arrays.sort( sorted );
+			final double low = sorted[(int)Math.floor( tail * (sorted.length-1) )];
+			final double high = sorted[(int)Math.ceil( (1-tail) * (sorted.length-1) )];
+			// A fall in the rate or a rise in a response time is worse
+			final boolean significant = m==0 ? high<0 : low>0;
+			final boolean material = m==0 ? observed[m]<-rateThreshold : observed[m]>latencyThreshold;
+			final boolean regressed = significant && material;
+			passed &= !regressed;
+			sb.append( ",change=" ).append( numberFormat.format( observed[m] ) ).append( '%' );
+			sb.append( ",low=" ).append( numberFormat.format( low ) ).append( '%' );
+			sb.append( ",high=" ).append( numberFormat.format( high ) ).append( '%' );
+			sb.append( ",significant=" ).append( significant );
+			sb.append( ",result=" ).append( regressed ? "fail" : "pass" );
+			System.out.println( sb.toString() );
+		}
+		return passed;
+
+	}
+
+	/**
+	 * @param picks The intervals to use (which may repeat), or null for all.
+	 * @param counts Work space of BUCKETS counts, or null.
+	 * @return The rate and each percentile (nanoseconds) of the intervals.
+	 */
+	private double[] measure( Run run, int[] picks, long[] counts ) {
+
+		if ( counts==null ) {
+			counts = new long[LatencyHistogram.BUCKETS];
+		} else {
+			Arrays.fill( counts, 0 );
+		}
+		long length = 0;
+		long count = 0;
+		final int size = picks==null ? run.size() : picks.length;
+		for ( int i = 0; i<size; i++ ) {
+			final long[] interval = run.intervals.get( picks==null ? i : picks[i] );
+			length += interval[I_LENGTH];
+			count += interval[I_COUNT];
+			addTo( interval, counts );
+		}
+		final double[] values = new double[1 + percentiles.length];
+		values[0] = count*1000d/length;
+		for ( int i = 0; i<percentiles.length; i++ ) {
+			values[i+1] = LatencyHistogram.percentile( counts, percentiles[i] );
+		}
+		return values;
+
+	}
+
+	/**
+	 * @return The percentage change of each value, or NaN where the baseline
+	 *         has none.
+	 */
+	private static double[] change( double[] baseline, double[] candidate ) {
+		final double[] changes = new double[baseline.length];
+		for ( int i = 0; i<changes.length; i++ ) {
+			changes[i] = baseline[i]>0 && candidate[i]>=0 ? (candidate[i]-baseline[i])*100/baseline[i] : Double.NaN;
+		}
+		return changes;
+	}
+
+	private static void addTo( long[] interval, long[] counts ) {
+		for ( int i = I_BUCKETS; i<interval.length; i += 2 ) {
+			counts[(int)interval[i]] += interval[i+1];
+		}
+	}
+
+}
@@ -15,7 +15,10 @@ package com.ibm.uk.hursley.perfharness.stats;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TimerTask;
 import java.util.logging.Level;
 
@@ -27,69 +30,6 @@ import com.ibm.uk.hursley.perfharness.*;
  */
 public abstract class Statistics {
 	
-	private class allThreadsData {
-		
-		private int[]  iterations;
-		//private long[] minResponseTimes;
-		//private long[] maxResponseTimes;
-		private long[] totalResponseTimes;
-		//private double[] responseTimeStdDev;
-		private int size = 0;
-		
-		public void setIterationValue(int index, int value) {
-			iterations[index] = value;
-		}
-		//public void setMinResponseTimeValue(int index, long value) {
-		//	minResponseTimes[index] = value;
-		//}
-		//public void setMaxResponseTimeValue(int index, long value) {
-		//	maxResponseTimes[index] = value;
-		//}
-		public void setTotalResponseTimesValue(int index, long value) {
-			totalResponseTimes[index] = value;
-		}
-
-		//public void setResponseTimeStdDevValue(int index, double value) {
-		//	responseTimeStdDev[index] = value;
-		//}
-		
-		public void setSize(int newSize) {
-			iterations = new int[newSize];
-			//minResponseTimes = new long[newSize];
-			//maxResponseTimes = new long[newSize];
-			totalResponseTimes = new long[newSize];
-			responseTimeStdDev = new double[newSize];
-			size = newSize;
-		}
-		public int getSize() {
-			return size;
-		}
-		public void setIterations(int[] iterations) {
-			this.iterations = iterations;
-			size = iterations.length;
-			//minResponseTimes = new long[size];
-			//maxResponseTimes = new long[size];
-			totalResponseTimes = new long[size];
-			responseTimeStdDev = new double[size];
-		}
-		public int[] getIterations() {
-			return iterations;
-		}
-		//public long[] getMinResponseTime() {
-		//	return minResponseTimes;
-		//}
-		//public long[] getMaxResponseTime() {
-		//	return maxResponseTimes;
-		//}
-		public long[] getTotalResponseTimes() {
-			return totalResponseTimes;
-		}
-		public double[] getResponseTimeStdDev() {
-			return responseTimeStdDev;
-		}
-		
-	}
-
 	@SuppressWarnings("unused")
 	private static final String c = Copyright.COPYRIGHT;  
 	
@@ -99,6 +39,7 @@ public abstract class Statistics {
 	protected static final java.text.NumberFormat numberFormat =
 		java.text.NumberFormat.getInstance();
 	private static Class<? extends Statistics> statsclazz;	
+	private static double[] percentiles = null;
 	
 	/**
 	 * Earliest recorded time in this JVM.  May be used for tlf mode.
@@ -123,26 +64,125 @@ public abstract class Statistics {
 	
 	
 	// iteration counts from this and previous measurement
-	protected int[] prev = new int[0];
-	protected int[] curr = new int[0];
+	protected long[] prev = new long[0];
+	protected long[] curr = new long[0];
 
 	protected long[] minResponseTime = new long[0];
 	protected long[] maxResponseTime = new long[0];
 	protected long[] totalResponseTime = new long[0];
 	protected double[] responseTimeStdDev = new double[0];
+	
+	// each worker's overall response time at the last reading
+	private long[] prevOverallTime = new long[0];
 
 	// time stamps of this and previous measurement
 	protected long prevMeasurementTime;
 	protected long currMeasurementTime;
 	
-	protected ArrayList<WorkerThread> workers = null;
+	protected List<WorkerThread> workers = null;
 	protected ControlThread parent = null;
 	
 	
 	protected int trimInterval = Config.parms.getInt( "sw" );
 	protected long trimTime = 0;
-	protected int[] trimValues = null;
+	protected long[] trimValues = null;
+	protected volatile long[] trimHistogram = null;
 	protected TimerTask trimTask = null;
+
+	/**
+	 * Name of the current load profile phase, or null if there is none.
+	 * @see LoadProfile
+	 */
+	protected volatile String phase = null;
+
+	/**
+	 * Start time and totals at the start of each load profile phase.
+	 */
+	private final ArrayList<PhaseTotals> phases = new ArrayList<PhaseTotals>();
+	
+	private static final class PhaseTotals {
+		String name;
+		long startTime;
+		long iterations;
+		long totalTime;
+		long[] histogram;
+	}
+	
+	/**
+	 * Totals of each destination (-sb), by index, at the previous interval
+	 * and at the start of the measurement period.
+	 */
+	private DestinationTotals[] destinationPrevious = new DestinationTotals[0];
+	private DestinationTotals[] destinationTrim = new DestinationTotals[0];
+	private long destinationTime = System.currentTimeMillis();
+	private long destinationStart = 0;
+	private final long[] destinationHistogram = new long[LatencyHistogram.BUCKETS];
+	
+	/**
+	 * Totals of each timing span (see WorkerThread#defineSpan), by id, at the
+	 * previous interval and at the start of the measurement period.
+	 */
+	private SpanTotals[] spanPrevious = new SpanTotals[0];
+	private SpanTotals[] spanTrim = new SpanTotals[0];
+	
+	private static final class SpanTotals {
+		long totalTime;
+		final long[] histogram = new long[LatencyHistogram.BUCKETS];
+	}
+	
+	/**
+	 * One-way latency histogram totals (-et) of all workers at the previous
+	 * interval, and of each worker at the start of the measurement period.
+	 */
+	private final long[] latencyPrevious = new long[LatencyHistogram.BUCKETS];
+	private final IdentityHashMap<WorkerThread, long[]> latencyTrim = new IdentityHashMap<WorkerThread, long[]>();
+	
+	/**
+	 * Harness JVM pauses (-gx), and the totals of the intervals of the
+	 * measurement period, with those of the intervals not flagged as paused.
+	 */
+	private final GcMonitor gcMonitor = GcMonitor.open();
+	private final int pauseThreshold = Config.parms.getInt( "gxt" );
+	private final boolean excludePauses = Config.parms.getBoolean( "gxe" );
+	private long gcTime = System.currentTimeMillis();
+	private long gcPreviousIterations = 0;
+	private long[] gcPreviousHistogram = null;
+	private volatile PauseTotals pauseTotals = new PauseTotals();
+	
+	private static final class PauseTotals {
+		int intervals;
+		int paused;
+		long gcCount;
+		long gcPause;
+		long iterations;
+		long millis;
+		long[] histogram;
+	}
+	
+	/**
+	 * Resources used by the workers (-ra), at the previous interval and at
+	 * the start of the measurement period.
+	 */
+	private final ResourceAccounting resources;
+	private ResourceAccounting.Usage resourcePrevious = null;
+	private volatile ResourceAccounting.Usage resourceStart = null;
+	
+	private static final class DestinationTotals {
+		long iterations;
+		long errors;
+		long[] histogram;
+		void read( DestinationCounters d ) {
+			iterations = d.getIterations();
+			errors = d.getErrors();
+			if ( d.isTimed() ) {
+				if ( histogram==null ) {
+					histogram = new long[LatencyHistogram.BUCKETS];
+				}
+				Arrays.fill( histogram, 0 );
+				d.addTo( histogram );
+			}
+		}
+	}
 	
 	/**
 	 * Register our presence and look up any required parameters for this class. 
@@ -170,6 +210,12 @@ public abstract class Statistics {
 							new Object[]{runlength, trim});
 		}
 		
+		try {
+			percentiles = LatencyHistogram.parsePercentiles( Config.parms.getString( "pl" ) );
+		} catch ( NumberFormatException e ) {
+			Config.logger.log( Level.WARNING, "Invalid percentile list (pl={0}): {1}", new Object[] { Config.parms.getString( "pl" ), e.getMessage() } );
+		}
+		
 		numberFormat.setMinimumFractionDigits(2);
 		numberFormat.setMaximumFractionDigits(2);
 		numberFormat.setGroupingUsed(false);
@@ -179,52 +225,72 @@ public abstract class Statistics {
 			Config.registerAnother( statsclazz );
 		}
 		
+		HistogramLog.registerConfig();
+		TimeSeriesStore.registerConfig();
+		DestinationCounters.registerConfig();
+		OneWayLatency.registerConfig();
+		GcMonitor.registerConfig();
+		ResourceAccounting.registerConfig();
+		MetricsEndpoint.registerConfig();
+		
 	}	
 	
+	/**
+	 * @return The percentiles to report (-pl).
+	 */
+	public static double[] getPercentiles() {
+		return percentiles;
+	}
+	
 	protected Statistics(ControlThread parent) {
 		this.parent = parent;
 		this.workers = parent.getWorkers(); // keep a reference
+		this.resources = ResourceAccounting.open( workers );
 	}
 	
 	/**
 	 * Read the latest iteration counts from all available WorkerThreads,
 	 * keeping a copy of the previous readings. This method ensures no
 	 * iterations are lost "between the cracks".
+	 * <p>
+	 * The worker list is copy-on-write, so no lock is taken, and the arrays
+	 * are reused unless the number of workers has changed. Response times are
+	 * taken as the change in each worker's running total, so nothing is
+	 * written to the workers.
 	 */
-	protected void updateValues() {
-		
-		synchronized ( workers ) {
-						
-			// Copy current values to previous
-			if ( prev.length==curr.length ) {
-				// If lengths match, copy entries
-				System.arraycopy( curr, 0, prev,0, prev.length );
-				// Possibly (probably) re-use current array as well
-				allThreadsData data = new allThreadsData();
-				data.setIterations(curr);
-				data = readValues( data );
-				curr = data.getIterations();
-				//minResponseTime = data.getMinResponseTime();
-				//maxResponseTime = data.getMaxResponseTime();
-				totalResponseTime = data.getTotalResponseTimes();
-				responseTimeStdDev = data.getResponseTimeStdDev();
-			} else {
-				// array is not the same size, we allocate a new array object.
-				prev = curr;
-				allThreadsData data = new allThreadsData();
-				data.setIterations(curr);
-				data = readValues( (allThreadsData)null );
-				curr = data.getIterations();
-				//minResponseTime = data.getMinResponseTime();
-				//maxResponseTime = data.getMaxResponseTime();
-				totalResponseTime = data.getTotalResponseTimes();
-				responseTimeStdDev = data.getResponseTimeStdDev();
+	protected synchronized void updateValues() {
+		
+		// Swap rather than copy the current values to previous
+		if ( prev.length==curr.length ) {
+			final long[] swap = prev;
+			prev = curr;
+			curr = swap;
+		} else {
+			prev = curr;
+			curr = null;
+		}
+		curr = readValues( curr );
+		
+		final int count = curr.length;
+		if ( totalResponseTime.length!=count ) {
+			totalResponseTime = new long[count];
+			responseTimeStdDev = new double[count];
+		}
+		if ( prevOverallTime.length<count ) {
+			prevOverallTime = Arrays.copyOf( prevOverallTime, count );
+		}
+		int i = 0;
+		for ( final WorkerThread worker : workers ) {
+			if ( i>=count ) {
+				break;
 			}
-			
-			prevMeasurementTime = currMeasurementTime;
-			currMeasurementTime = System.currentTimeMillis();
-			
-		} // end sync
+			final long overall = worker.getOverallTotalTime();
+			totalResponseTime[i] = overall - prevOverallTime[i];
+			prevOverallTime[i++] = overall;
+		}
+		
+		prevMeasurementTime = currMeasurementTime;
+		currMeasurementTime = System.currentTimeMillis();
 		
 	} // end getValues
 	
@@ -238,70 +304,670 @@ public abstract class Statistics {
 	 * @return An array of current values. The length of the array will always
 	 *         be correct.
 	 */
-	protected allThreadsData readValues( allThreadsData values ) {
+	protected long[] readValues( long[] values ) {
 		
-		synchronized( workers ) {
-			
-			// Hmmpf. WE must synch to avoid JVM throwing ConcurrentModificationException during startup
-			int count = workers.size();
-			if ( values==null ) {
-				values = new allThreadsData();
-				values.setSize(count);
-				
-			} else if ( values.getSize()!=count ) {
-				// Reuse array where possible.
-				values.setSize(count);	
+		final int count = workers.size();
+		if ( values==null || values.length!=count ) {
+			// Reuse array where possible.
+			values = new long[count];	
+		}
+		
+		int i = 0;
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while (iter.hasNext() && i < values.length) {
+			final WorkerThread worker = iter.next();
+			values[i++] = worker.getIterations();
+		}
+		
+		return values;
+		
+	}
+
+	/**
+	 * @return The total number of scheduled iterations which the WorkerThreads
+	 *         have yet to start. This is only meaningful with open-loop pacing.
+	 */
+	protected long readBacklog() {
+		
+		long total = 0;
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while ( iter.hasNext() ) {
+			total += iter.next().getBacklog();
+		}
+		return total;
+		
+	}
+
+	/**
+	 * @return The furthest any WorkerThread has fallen behind its open-loop
+	 *         schedule, in milliseconds.
+	 */
+	protected double readMaxScheduleLag() {
+		
+		long max = 0;
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while ( iter.hasNext() ) {
+			max = Math.max( max, iter.next().getMaxScheduleLag() );
+		}
+		return max / 1000000d;
+		
+	}
+
+	// Guarded by itself
+	private final long[] histogramPrevious = new long[LatencyHistogram.BUCKETS];
+	// Only read on the timer thread
+	private final long[] histogramInterval = new long[LatencyHistogram.BUCKETS];
+
+	/**
+	 * Merges the response time histograms of all WorkerThreads, from the
+	 * start of the run. Summaries requested over JMX read this while the
+	 * timer reads intervals, so each caller passes its own array.
+	 * @param totals The array of LatencyHistogram.BUCKETS counts to fill.
+	 * @return totals
+	 */
+	protected long[] readHistogram( long[] totals ) {
+		
+		Arrays.fill( totals, 0 );
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while ( iter.hasNext() ) {
+			final LatencyHistogram histogram = iter.next().getHistogram();
+			if ( histogram!=null ) {
+				histogram.addTo( totals );
 			}
-			
-			int i = 0;
-			final Iterator<WorkerThread> iter = workers.iterator();
-			while (iter.hasNext() && i<values.getSize()) {
-				WorkerThread worker = (WorkerThread) iter.next();
-				int index = i++;
-				values.setIterationValue(index, worker.getIterations());
-				//values.setMinResponseTimeValue(index, worker.resetMinTime());
-				//values.setMaxResponseTimeValue(index, worker.resetMaxTime());
-				values.setTotalResponseTimesValue(index, worker.resetTotalTime());
-				//values.setResponseTimeStdDevValue(index, worker.resetResponseTimeStdDev());
+		}
+		return totals;
+		
+	}
+
+	/**
+	 * @return The response time histograms of all WorkerThreads merged, since
+	 *         the last call. The same array is returned by every call, so it
+	 *         must only be called on the timer thread.
+	 */
+	protected long[] readIntervalHistogram() {
+		
+		synchronized ( histogramPrevious ) {
+			final long[] counts = readHistogram( histogramInterval );
+			for ( int i = 0; i<counts.length; i++ ) {
+				final long total = counts[i];
+				counts[i] = total - histogramPrevious[i];
+				histogramPrevious[i] = total;
 			}
-			
-		} // end sync
+			return counts;
+		}
 		
-		return values;
+	}
+
+	private long prevPacingErrorTotal = 0;
+	private long prevPacingErrorCount = 0;
+
+	/**
+	 * @return The mean time (in microseconds) by which paced iterations
+	 *         started later than scheduled since the last call, over all
+	 *         WorkerThreads.
+	 */
+	protected double readPacingError() {
+		
+		long total = 0;
+		long count = 0;
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while ( iter.hasNext() ) {
+			final WorkerThread worker = iter.next();
+			total += worker.getPacingErrorTotal();
+			count += worker.getPacingErrorCount();
+		}
+		final double mean = count>prevPacingErrorCount
+				? (total-prevPacingErrorTotal) / ((count-prevPacingErrorCount) * 1000d) : 0;
+		prevPacingErrorTotal = total;
+		prevPacingErrorCount = count;
+		return mean;
 		
 	}
 
 	/**
-	 * Read the latest iteration counts from all available WorkerThreads.
-	 * 
-	 * @param values
-	 *            In input array to use. If this is null or is not the correct
-	 *            size, a new aray is created. Therefore when passing an input
-	 *            array to this method, always use the return array.
-	 * @return An array of current values. The length of the array will always
-	 *         be correct.
+	 * @return The latest any paced iteration has started, in microseconds.
+	 */
+	protected double readMaxPacingError() {
+		
+		long max = 0;
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while ( iter.hasNext() ) {
+			max = Math.max( max, iter.next().getMaxPacingError() );
+		}
+		return max / 1000d;
+		
+	}
+
+	/**
+	 * @return The iteration count and overall response time (micros) summed
+	 *         over all WorkerThreads.
+	 */
+	private long[] readTotals() {
+		
+		final long[] totals = new long[2];
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while ( iter.hasNext() ) {
+			final WorkerThread worker = iter.next();
+			totals[0] += worker.getIterations();
+			totals[1] += worker.getOverallTotalTime();
+		}
+		return totals;
+		
+	}
+
+	/**
+	 * Marks the start of a load profile phase. Interval output is tagged with
+	 * the phase name and the phase is broken out in the phase summary.
+	 * @param name
+	 */
+	public void beginPhase( String name ) {
+		
+		final PhaseTotals p = new PhaseTotals();
+		final long[] totals = readTotals();
+		p.name = name;
+		p.startTime = System.currentTimeMillis();
+		p.iterations = totals[0];
+		p.totalTime = totals[1];
+		p.histogram = readHistogram( new long[LatencyHistogram.BUCKETS] );
+		synchronized( phases ) {
+			phases.add( p );
+		}
+		phase = name;
+		
+	}
+
+	/**
+	 * Prints the throughput (and response time and its percentiles (-pl), if
+	 * measured) of each load profile phase.
 	 */
-	protected int[] readValues( int[] values ) {
+	public void printPhaseSummary() {
 		
-		synchronized( workers ) {
+		synchronized( phases ) {
 			
-			// Hmmpf. WE must synch to avoid JVM throwing ConcurrentModificationException during startup
-			int count = workers.size();
-			if ( values==null || values.length!=count ) {
-				// Reuse array where possible.
-				values = new int[count];	
+			if ( phases.size()==0 || !Config.parms.getBoolean( "su" ) ) {
+				return;
 			}
+			final long[] totals = readTotals();
+			final PhaseTotals last = new PhaseTotals();
+			last.startTime = endTime!=0 ? endTime : System.currentTimeMillis();
+			last.iterations = totals[0];
+			last.totalTime = totals[1];
+			last.histogram = readHistogram( new long[LatencyHistogram.BUCKETS] );
+			final long[] counts = new long[LatencyHistogram.BUCKETS];
 			
-			int i = 0;
-			final Iterator<WorkerThread> iter = workers.iterator();
-			while (iter.hasNext() && i < values.length) {
-				final WorkerThread worker = iter.next();
-				values[i++] = worker.getIterations();
+			for ( int i = 0; i<phases.size(); i++ ) {
+				final PhaseTotals p = phases.get( i );
+				final PhaseTotals next = i+1<phases.size() ? phases.get( i+1 ) : last;
+				final long duration = Math.max( 1, next.startTime-p.startTime );
+				final long iterations = next.iterations-p.iterations;
+				final StringBuffer sb = new StringBuffer( 128 );
+				sb.append( "phase=" ).append( p.name );
+				sb.append( ",duration=" ).append( numberFormat.format( duration/1000d ) );
+				sb.append( ",iterations=" ).append( iterations );
+				sb.append( ",rate=" ).append( numberFormat.format( (iterations*1000d)/duration ) );
+				if ( iterations>0 && next.totalTime>p.totalTime ) {
+					sb.append( ",avgResponse(micros)=" ).append( (next.totalTime-p.totalTime)/iterations );
+				}
+				for ( int j = 0; j<counts.length; j++ ) {
+					counts[j] = next.histogram[j] - p.histogram[j];
+				}
+				if ( LatencyHistogram.count( counts )>0 ) {
+					LatencyHistogram.appendPercentiles( sb, counts, getPercentiles(), numberFormat );
+				}
+				System.out.println( sb.toString() );
 			}
 			
 		} // end sync
 		
-		return values;
+	}
+
+	/**
+	 * @return The resources used by the workers (-ra) since the last call,
+	 *         or null if these are not being measured.
+	 */
+	protected ResourceAccounting.Usage readResourceUsage() {
+		
+		if ( resources==null ) {
+			return null;
+		}
+		final ResourceAccounting.Usage total = resources.read();
+		final ResourceAccounting.Usage previous = resourcePrevious!=null ? resourcePrevious : resourceStart;
+		final ResourceAccounting.Usage usage = previous!=null ? total.since( previous ) : total;
+		resourcePrevious = total;
+		return usage;
+		
+	}
+	
+	/**
+	 * Appends the cost of each iteration since the last call (-ra), for
+	 * subclasses' interval output.
+	 */
+	protected void appendResourceUsage( StringBuffer sb ) {
+		
+		final ResourceAccounting.Usage usage = readResourceUsage();
+		if ( usage!=null ) {
+			usage.append( sb, numberFormat );
+		}
+		
+	}
+	
+	/**
+	 * Prints the breakdowns of the last interval: by destination (-sb), by
+	 * timing span and the one-way latency (-et). Subclasses call this after
+	 * each interval's output.
+	 */
+	protected void printIntervalBreakdowns() {
+		
+		printDestinationIntervals();
+		printSpanIntervals();
+		printLatencyIntervals();
+		printPauseInterval();
+		
+	}
+	
+	/**
+	 * Prints the same breakdowns as printIntervalBreakdowns over the
+	 * measurement period, for the final summary.
+	 */
+	public void printBreakdownSummary() {
+		
+		if ( !Config.parms.getBoolean( "su" ) ) {
+			return;
+		}
+		printDestinationSummary();
+		printSpanSummary();
+		printLatencySummary();
+		printPauseSummary();
+		printResourceSummary();
+		
+	}
+
+	/**
+	 * Prints the rate, errors and (if measured) response time percentiles of
+	 * each destination (-sb) since the last call, one line each.
+	 */
+	private void printDestinationIntervals() {
+		
+		if ( !DestinationCounters.isEnabled() ) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		final long period = Math.max( 1, now-destinationTime );
+		destinationTime = now;
+		
+		final DestinationCounters[] all = DestinationCounters.getAll();
+		if ( destinationPrevious.length<all.length ) {
+			destinationPrevious = Arrays.copyOf( destinationPrevious, all.length );
+		}
+		final StringBuffer sb = new StringBuffer( 128 );
+		for ( DestinationCounters d : all ) {
+			DestinationTotals previous = destinationPrevious[d.getIndex()];
+			if ( previous==null ) {
+				previous = destinationPrevious[d.getIndex()] = new DestinationTotals();
+			}
+			final long iterations = d.getIterations();
+			final long errors = d.getErrors();
+			sb.setLength( 0 );
+			sb.append( "destination=" ).append( d.getName() );
+			sb.append( ",rate=" ).append( numberFormat.format( ((iterations-previous.iterations)*1000d)/period ) );
+			sb.append( ",errors=" ).append( errors-previous.errors );
+			if ( d.isTimed() ) {
+				if ( previous.histogram==null ) {
+					previous.histogram = new long[LatencyHistogram.BUCKETS];
+				}
+				Arrays.fill( destinationHistogram, 0 );
+				d.addTo( destinationHistogram );
+				for ( int i = 0; i<destinationHistogram.length; i++ ) {
+					final long total = destinationHistogram[i];
+					destinationHistogram[i] -= previous.histogram[i];
+					previous.histogram[i] = total;
+				}
+				LatencyHistogram.appendPercentiles( sb, destinationHistogram, getPercentiles(), numberFormat );
+			}
+			previous.iterations = iterations;
+			previous.errors = errors;
+			System.out.println( sb.toString() );
+		}
+		
+	}
+	
+	/**
+	 * Prints the iterations, rate, errors and (if measured) response time
+	 * percentiles of each destination (-sb) over the measurement period.
+	 */
+	private void printDestinationSummary() {
+		
+		if ( !DestinationCounters.isEnabled() ) {
+			return;
+		}
+		final long start = trimTime!=0 ? trimTime : destinationStart;
+		final long duration = Math.max( 1, (endTime!=0 ? endTime : System.currentTimeMillis())-start );
+		final long[] counts = new long[LatencyHistogram.BUCKETS];
+		final StringBuffer sb = new StringBuffer( 128 );
+		for ( DestinationCounters d : DestinationCounters.getAll() ) {
+			final DestinationTotals trim = d.getIndex()<destinationTrim.length ? destinationTrim[d.getIndex()] : null;
+			final long iterations = d.getIterations() - (trim==null ? 0 : trim.iterations);
+			sb.setLength( 0 );
+			sb.append( "destination=" ).append( d.getName() );
+			sb.append( ",iterations=" ).append( iterations );
+			sb.append( ",rate=" ).append( numberFormat.format( (iterations*1000d)/duration ) );
+			sb.append( ",errors=" ).append( d.getErrors() - (trim==null ? 0 : trim.errors) );
+			if ( d.isTimed() ) {
+				Arrays.fill( counts, 0 );
+				d.addTo( counts );
+				if ( trim!=null && trim.histogram!=null ) {
+					for ( int i = 0; i<counts.length; i++ ) {
+						counts[i] -= trim.histogram[i];
+					}
+				}
+				LatencyHistogram.appendPercentiles( sb, counts, getPercentiles(), numberFormat );
+			}
+			System.out.println( sb.toString() );
+		}
+		
+	}
+
+	/**
+	 * @return The current totals of each timing span over all WorkerThreads,
+	 *         by id, or an empty array if spans are not being timed.
+	 */
+	private SpanTotals[] readSpans() {
+		
+		final String[] names = WorkerThread.getSpanNames();
+		if ( names.length==0 || !Config.isRegistered( ResponseTimeStats.class ) ) {
+			return new SpanTotals[0];
+		}
+		final SpanTotals[] totals = new SpanTotals[names.length];
+		for ( int i = 0; i<totals.length; i++ ) {
+			totals[i] = new SpanTotals();
+		}
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while ( iter.hasNext() ) {
+			final WorkerThread worker = iter.next();
+			for ( int i = 0; i<totals.length; i++ ) {
+				final LatencyHistogram histogram = worker.getSpanHistogram( i );
+				if ( histogram!=null ) {
+					histogram.addTo( totals[i].histogram );
+					totals[i].totalTime += worker.getSpanTotalTime( i );
+				}
+			}
+		}
+		return totals;
+		
+	}
+	
+	/**
+	 * Prints one line for each timing span, side by side with the others:
+	 * its count, mean, share of the time spent in all spans and percentiles.
+	 * @param current Totals now.
+	 * @param base Totals at the start of the period (may be shorter).
+	 */
+	private void printSpans( SpanTotals[] current, SpanTotals[] base ) {
+		
+		final String[] names = WorkerThread.getSpanNames();
+		long allTime = 0;
+		for ( int i = 0; i<current.length; i++ ) {
+			allTime += current[i].totalTime - (i<base.length ? base[i].totalTime : 0);
+		}
+		final long[] counts = new long[LatencyHistogram.BUCKETS];
+		final StringBuffer sb = new StringBuffer( 128 );
+		for ( int i = 0; i<current.length; i++ ) {
+			System.arraycopy( current[i].histogram, 0, counts, 0, counts.length );
+			long time = current[i].totalTime;
+			if ( i<base.length ) {
+				for ( int j = 0; j<counts.length; j++ ) {
+					counts[j] -= base[i].histogram[j];
+				}
+				time -= base[i].totalTime;
+			}
+			final long count = LatencyHistogram.count( counts );
+			if ( count==0 ) {
+				continue;
+			}
+			sb.setLength( 0 );
+			sb.append( "span=" ).append( names[i] );
+			sb.append( ",count=" ).append( count );
+			sb.append( ",avg(micros)=" ).append( numberFormat.format( (double)time/count ) );
+			sb.append( ",share=" ).append( numberFormat.format( allTime>0 ? time*100d/allTime : 0 ) ).append( '%' );
+			LatencyHistogram.appendPercentiles( sb, counts, getPercentiles(), numberFormat );
+			System.out.println( sb.toString() );
+		}
+		
+	}
+	
+	/**
+	 * Prints the timing spans (see WorkerThread#defineSpan) of all workers
+	 * since the last call.
+	 */
+	private void printSpanIntervals() {
+		
+		final SpanTotals[] current = readSpans();
+		if ( current.length>0 ) {
+			printSpans( current, spanPrevious );
+			spanPrevious = current;
+		}
+		
+	}
+	
+	/**
+	 * Prints the timing spans of all workers over the measurement period.
+	 */
+	private void printSpanSummary() {
+		
+		final SpanTotals[] current = readSpans();
+		if ( current.length>0 ) {
+			printSpans( current, spanTrim );
+		}
+		
+	}
+
+	/**
+	 * Prints the one-way latency percentiles (-et) of all workers since the
+	 * last call.
+	 */
+	private void printLatencyIntervals() {
+		
+		if ( !OneWayLatency.isEnabled() ) {
+			return;
+		}
+		final long[] counts = new long[LatencyHistogram.BUCKETS];
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while ( iter.hasNext() ) {
+			iter.next().getLatencyHistogram().addTo( counts );
+		}
+		final long[] interval = counts.clone();
+		for ( int i = 0; i<interval.length; i++ ) {
+			interval[i] -= latencyPrevious[i];
+		}
+		System.arraycopy( counts, 0, latencyPrevious, 0, counts.length );
+		final long count = LatencyHistogram.count( interval );
+		if ( count>0 ) {
+			final StringBuffer sb = new StringBuffer( 128 );
+			sb.append( "latency=oneWay,count=" ).append( count );
+			LatencyHistogram.appendPercentiles( sb, interval, getPercentiles(), numberFormat );
+			System.out.println( sb.toString() );
+		}
+		
+	}
+	
+	/**
+	 * Prints the one-way latency percentiles (-et) of each worker which
+	 * received messages over the measurement period, then those of all
+	 * together with the spread (highest less lowest) of each percentile
+	 * between workers. With many subscribers to one topic, the spread shows
+	 * how evenly messages were delivered.
+	 */
+	private void printLatencySummary() {
+		
+		if ( !OneWayLatency.isEnabled() ) {
+			return;
+		}
+		final double[] percentiles = getPercentiles();
+		final long[] all = new long[LatencyHistogram.BUCKETS];
+		final long[] lowest = new long[percentiles.length];
+		final long[] highest = new long[percentiles.length];
+		Arrays.fill( lowest, Long.MAX_VALUE );
+		int receivers = 0;
+		final long[] counts = new long[LatencyHistogram.BUCKETS];
+		final StringBuffer sb = new StringBuffer( 128 );
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while ( iter.hasNext() ) {
+			final WorkerThread worker = iter.next();
+			Arrays.fill( counts, 0 );
+			worker.getLatencyHistogram().addTo( counts );
+			final long[] trim = latencyTrim.get( worker );
+			if ( trim!=null ) {
+				for ( int i = 0; i<counts.length; i++ ) {
+					counts[i] -= trim[i];
+				}
+			}
+			final long count = LatencyHistogram.count( counts );
+			if ( count==0 ) {
+				continue;
+			}
+			receivers++;
+			for ( int i = 0; i<counts.length; i++ ) {
+				all[i] += counts[i];
+			}
+			for ( int i = 0; i<percentiles.length; i++ ) {
+				final long value = LatencyHistogram.percentile( counts, percentiles[i] );
+				lowest[i] = Math.min( lowest[i], value );
+				highest[i] = Math.max( highest[i], value );
+			}
+			sb.setLength( 0 );
+			sb.append( "latency=oneWay,thread=" ).append( worker.getName() );
+			sb.append( ",count=" ).append( count );
+			LatencyHistogram.appendPercentiles( sb, counts, percentiles, numberFormat );
+			System.out.println( sb.toString() );
+		}
+		if ( receivers==0 ) {
+			return;
+		}
+		sb.setLength( 0 );
+		sb.append( "latency=oneWay,receivers=" ).append( receivers );
+		sb.append( ",count=" ).append( LatencyHistogram.count( all ) );
+		LatencyHistogram.appendPercentiles( sb, all, percentiles, numberFormat );
+		for ( int i = 0; i<percentiles.length; i++ ) {
+			sb.append( ",p" ).append( LatencyHistogram.describe( percentiles[i] ) ).append( "spread(micros)=" );
+			sb.append( numberFormat.format( (highest[i]-lowest[i]) / 1000d ) );
+		}
+		System.out.println( sb.toString() );
+		
+	}
+
+	/**
+	 * Prints the garbage collections and longest stall of the harness JVM
+	 * (-gx) since the last call, flagging the interval if they reach the
+	 * threshold (-gxt), and adds the interval to the pause totals.
+	 */
+	private void printPauseInterval() {
+		
+		if ( gcMonitor==null ) {
+			return;
+		}
+		final GcMonitor.Sample sample = gcMonitor.sample();
+		final long now = System.currentTimeMillis();
+		final long period = Math.max( 1, now-gcTime );
+		gcTime = now;
+		final boolean paused = sample.pauseTime>=pauseThreshold || sample.maxStall/1000>=pauseThreshold;
+		
+		final StringBuffer sb = new StringBuffer( 128 );
+		sb.append( "jvm=harness,gcCount=" ).append( sample.count );
+		sb.append( ",gcPause(ms)=" ).append( sample.pauseTime );
+		sb.append( ",allocRate(MB/sec)=" ).append( numberFormat.format( sample.allocated*1000d/period/(1024*1024) ) );
+		sb.append( ",heapAfterGc(MB)=" ).append( sample.heapAfterGc<0 ? "N/A" : numberFormat.format( sample.heapAfterGc/(1024d*1024) ) );
+		sb.append( ",maxStall(ms)=" ).append( numberFormat.format( sample.maxStall/1000d ) );
+		if ( paused ) {
+			sb.append( ",paused=true" );
+		}
+		System.out.println( sb.toString() );
+		
+		long iterations = 0;
+		long[] histogram = null;
+		final Iterator<WorkerThread> iter = workers.iterator();
+		while ( iter.hasNext() ) {
+			final WorkerThread worker = iter.next();
+			iterations += worker.getIterations();
+			if ( excludePauses && worker.getHistogram()!=null ) {
+				if ( histogram==null ) {
+					histogram = new long[LatencyHistogram.BUCKETS];
+				}
+				worker.getHistogram().addTo( histogram );
+			}
+		}
+		final PauseTotals totals = pauseTotals;
+		totals.intervals++;
+		totals.gcCount += sample.count;
+		totals.gcPause += sample.pauseTime;
+		if ( paused ) {
+			totals.paused++;
+		} else {
+			totals.iterations += iterations - gcPreviousIterations;
+			totals.millis += period;
+			if ( histogram!=null ) {
+				if ( totals.histogram==null ) {
+					totals.histogram = new long[LatencyHistogram.BUCKETS];
+				}
+				for ( int i = 0; i<histogram.length; i++ ) {
+					totals.histogram[i] += histogram[i] - (gcPreviousHistogram==null ? 0 : gcPreviousHistogram[i]);
+				}
+			}
+		}
+		gcPreviousIterations = iterations;
+		gcPreviousHistogram = histogram;
+		
+	}
+	
+	/**
+	 * Prints the harness JVM pauses (-gx) over the measurement period and,
+	 * if asked (-gxe), a steady-state summary without the paused intervals.
+	 */
+	private void printPauseSummary() {
+		
+		if ( gcMonitor==null ) {
+			return;
+		}
+		final PauseTotals totals = pauseTotals;
+		final StringBuffer sb = new StringBuffer( 128 );
+		sb.append( "jvm=harness,gcCount=" ).append( totals.gcCount );
+		sb.append( ",gcPause(ms)=" ).append( totals.gcPause );
+		sb.append( ",intervals=" ).append( totals.intervals );
+		sb.append( ",pausedIntervals=" ).append( totals.paused );
+		System.out.println( sb.toString() );
+		
+		if ( excludePauses ) {
+			sb.setLength( 0 );
+			sb.append( "steadyState=excludingPauses,intervals=" ).append( totals.intervals-totals.paused );
+			sb.append( ",iterations=" ).append( totals.iterations );
+			sb.append( ",rate=" ).append( numberFormat.format( totals.millis>0 ? totals.iterations*1000d/totals.millis : 0 ) );
+			if ( totals.histogram!=null ) {
+				LatencyHistogram.appendPercentiles( sb, totals.histogram, getPercentiles(), numberFormat );
+			}
+			System.out.println( sb.toString() );
+		}
+		
+	}
+
+	/**
+	 * Prints the cost of each iteration to the harness (-ra) over the
+	 * measurement period: the CPU time of the workers and of the whole
+	 * process, the heap allocated and the workers' time blocked and waiting.
+	 */
+	private void printResourceSummary() {
+		
+		if ( resources==null ) {
+			return;
+		}
+		final ResourceAccounting.Usage start = resourceStart;
+		final ResourceAccounting.Usage total = resources.read();
+		final ResourceAccounting.Usage usage = start!=null ? total.since( start ) : total;
+		final StringBuffer sb = new StringBuffer( 128 );
+		sb.append( "cost=harness,iterations=" ).append( usage.iterations );
+		usage.append( sb, numberFormat );
+		if ( start!=null && usage.processCpuTime>=0 ) {
+			sb.append( ",processCpu(micros/msg)=" ).append( usage.perIteration( usage.processCpuTime/1000d, numberFormat ) );
+		}
+		System.out.println( sb.toString() );
 		
 	}
 
@@ -343,6 +1009,9 @@ public abstract class Statistics {
 		if ( trimTask!=null ) {
 			trimTask.cancel();
 		}
+		if ( gcMonitor!=null ) {
+			gcMonitor.close();
+		}
 		
 	}
 	
@@ -364,6 +1033,12 @@ public abstract class Statistics {
 	 */
 	public void timerStarted() {
 		
+		if ( destinationStart==0 ) {
+			destinationStart = System.currentTimeMillis();
+		}
+		if ( resources!=null && resourceStart==null ) {
+			resourceStart = resources.read();
+		}
 		if ( trimInterval!=0 && trimTask==null ) {
 			ControlThread.getTaskScheduler().schedule( trimTask = new Trim(), trimInterval*1000 );
 		}
@@ -377,10 +1052,67 @@ public abstract class Statistics {
 	protected void notifyMeasurementPeriod() {
 		
 		trimTime = System.currentTimeMillis();
-		trimValues = readValues( (int[])null );
+		trimValues = readValues( (long[])null );
+		trimHistogram = readHistogram( new long[LatencyHistogram.BUCKETS] );
+		
+		final DestinationCounters[] all = DestinationCounters.getAll();
+		final DestinationTotals[] totals = new DestinationTotals[all.length];
+		for ( DestinationCounters d : all ) {
+			totals[d.getIndex()] = new DestinationTotals();
+			totals[d.getIndex()].read( d );
+		}
+		destinationTrim = totals;
+		spanTrim = readSpans();
+		
+		pauseTotals = new PauseTotals();
+		if ( resources!=null ) {
+			resourceStart = resources.read();
+		}
+		
+		if ( OneWayLatency.isEnabled() ) {
+			latencyTrim.clear();
+			final Iterator<WorkerThread> iter = workers.iterator();
+			while ( iter.hasNext() ) {
+				final WorkerThread worker = iter.next();
+				final long[] counts = new long[LatencyHistogram.BUCKETS];
+				worker.getLatencyHistogram().addTo( counts );
+				latencyTrim.put( worker, counts );
+			}
+		}
 
 	}
 	
+	/**
+	 * Begins the measurement period again now, as though the discard period
+	 * (-sw) had just ended, so that the final summary covers only what
+	 * follows.
+	 */
+	public synchronized void resetMeasurementPeriod() {
+		
+		if ( trimTask!=null ) {
+			trimTask.cancel();
+		}
+		notifyMeasurementPeriod();
+		
+	}
+	
+	/**
+	 * @return The response time histograms of all WorkerThreads merged, from
+	 *         the start of the measurement period, in a new array.
+	 */
+	protected long[] readMeasuredHistogram() {
+		
+		final long[] totals = readHistogram( new long[LatencyHistogram.BUCKETS] );
+		final long[] trim = trimHistogram;
+		if ( trim!=null ) {
+			for ( int i = 0; i<totals.length; i++ ) {
+				totals[i] -= trim[i];
+			}
+		}
+		return totals;
+		
+	}
+	
 	/**
 	 * Reports if activity (iterations) was observed in the last statistics cycle for the given thread.
 	 * This method is therefore somewhat tied to output reporting frequency!
@@ -393,7 +1125,7 @@ public abstract class Statistics {
 		try {
 			int number= wt.getThreadNum();
 			
-			int count = curr[number]- prev[number];
+			long count = curr[number]- prev[number];
 			
 			return count>0;
 			
@@ -0,0 +1,226 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.stats;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Locale;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.Copyright;
+import com.ibm.uk.hursley.perfharness.Log;
+
+/**
+ * Reads a time series store (see TimeSeriesStore) and prints a range of it
+ * as CSV, optionally merging records into longer rows. Chunks outside the
+ * range are skipped using their index blocks without reading their records.
+ */
+public final class TimeSeriesReader {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	private final String fileName = Config.parms.getString( "zbi" ).trim();
+	private final long rangeStart = (long)(Config.parms.getDouble( "zbs" ) * 1000);
+	private final long rangeEnd = (long)(Config.parms.getDouble( "zbe" ) * 1000);
+	private final long slice = (long)(Config.parms.getDouble( "zbw" ) * 1000);
+	private final boolean perWorker = Config.parms.getBoolean( "zbp" );
+	// The output is for other tools, so does not follow the default locale
+	private final NumberFormat numberFormat = NumberFormat.getInstance( Locale.US );
+
+	// The row being merged
+	private long rowStart = -1;
+	private long rowLength;
+	private int rowThreads;
+	private long rowIterations;
+	private long rowErrors;
+	private long rowBytes;
+	private long rowCount;
+	private long rowTotalTime;
+	private final long[] rowPercentiles = new long[TimeSeriesStore.PERCENTILES.length];
+	private long rowMaxTime = -1;
+	private long[] rowWorkers;
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( TimeSeriesReader.class );
+
+		if ( !Config.isInvalid() ) {
+			if ( Config.parms.getString( "zbi" ).trim().length()==0 ) {
+				Config.logger.warning( "A time series file (-zbi) is required." );
+			}
+			if ( Config.parms.getDouble( "zbs" )<0 || Config.parms.getDouble( "zbe" )<0 || Config.parms.getDouble( "zbw" )<0 ) {
+				Config.logger.warning( "The range (-zbs, -zbe) and row length (-zbw) must not be negative." );
+			}
+		}
+
+	}
+
+	public TimeSeriesReader() {
+		numberFormat.setMinimumFractionDigits( 2 );
+		numberFormat.setMaximumFractionDigits( 2 );
+		numberFormat.setGroupingUsed( false );
+		Arrays.fill( rowPercentiles, -1 );
+	}
+
+	/**
+	 * Reads the store and prints one line per row.
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+
+		final RandomAccessFile file = new RandomAccessFile( fileName, "r" );
+		try {
+			final FileChannel channel = file.getChannel();
+			if ( channel.size()<TimeSeriesStore.HEADER_SIZE ) {
+				throw new IOException( fileName + " is not a time series store" );
+			}
+			final MappedByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0, TimeSeriesStore.HEADER_SIZE );
+			TimeSeriesStore.checkHeader( header, fileName );
+			final int recordSize = header.getInt( TimeSeriesStore.H_RECORD_SIZE );
+			final int slots = header.getInt( TimeSeriesStore.H_SLOTS );
+			final long records = header.getLong( TimeSeriesStore.H_RECORDS );
+			if ( records==0 ) {
+				Log.logger.warning( "No time series records found" );
+				return;
+			}
+			rowWorkers = new long[perWorker ? slots : 0];
+			printHeader();
+
+			long origin = -1;
+			final long chunks = (records + TimeSeriesStore.CHUNK_RECORDS - 1) / TimeSeriesStore.CHUNK_RECORDS;
+			for ( long n = 0; n<chunks; n++ ) {
+				final int count = (int)Math.min( TimeSeriesStore.CHUNK_RECORDS, records - n*TimeSeriesStore.CHUNK_RECORDS );
+				final MappedByteBuffer chunk = channel.map( FileChannel.MapMode.READ_ONLY, TimeSeriesStore.chunkOffset( n, recordSize ), TimeSeriesStore.INDEX_SIZE + (long)count * recordSize );
+				if ( origin<0 ) {
+					origin = chunk.getLong( TimeSeriesStore.INDEX_SIZE + TimeSeriesStore.R_TIME ) - chunk.getInt( TimeSeriesStore.INDEX_SIZE + TimeSeriesStore.R_LENGTH );
+				}
+				// Use the index block to skip chunks before the range
+				if ( chunk.getLong( TimeSeriesStore.I_LAST_TIME ) - origin<rangeStart ) {
+					continue;
+				}
+				for ( int i = 0; i<count; i++ ) {
+					final int offset = TimeSeriesStore.INDEX_SIZE + i * recordSize;
+					final long start = chunk.getLong( offset + TimeSeriesStore.R_TIME ) - chunk.getInt( offset + TimeSeriesStore.R_LENGTH ) - origin;
+					if ( rangeEnd>0 && start>=rangeEnd ) {
+						flush();
+						return;
+					}
+					if ( start>=rangeStart ) {
+						add( chunk, offset, start );
+					}
+				}
+			}
+			flush();
+		} finally {
+			file.close();
+		}
+
+	}
+
+	/**
+	 * Merges a record into the current row, first printing that row if the
+	 * record belongs to the next.
+	 */
+	private void add( MappedByteBuffer chunk, int offset, long start ) {
+
+		final long key = slice>0 ? rangeStart + (start-rangeStart)/slice*slice : start;
+		if ( key!=rowStart ) {
+			flush();
+			rowStart = key;
+		}
+		rowLength += chunk.getInt( offset + TimeSeriesStore.R_LENGTH );
+		rowThreads = Math.max( rowThreads, chunk.getInt( offset + TimeSeriesStore.R_THREADS ) );
+		rowIterations += chunk.getLong( offset + TimeSeriesStore.R_ITERATIONS );
+		rowErrors += chunk.getLong( offset + TimeSeriesStore.R_ERRORS );
+		rowBytes += chunk.getLong( offset + TimeSeriesStore.R_BYTES );
+		rowCount += chunk.getLong( offset + TimeSeriesStore.R_COUNT );
+		rowTotalTime += chunk.getLong( offset + TimeSeriesStore.R_TOTAL_TIME );
+		for ( int i = 0; i<rowPercentiles.length; i++ ) {
+			rowPercentiles[i] = Math.max( rowPercentiles[i], chunk.getLong( offset + TimeSeriesStore.R_PERCENTILES + 8*i ) );
+		}
+		rowMaxTime = Math.max( rowMaxTime, chunk.getLong( offset + TimeSeriesStore.R_MAX_TIME ) );
+		for ( int i = 0; i<rowWorkers.length; i++ ) {
+			rowWorkers[i] += chunk.getInt( offset + TimeSeriesStore.R_WORKERS + 4*i );
+		}
+
+	}
+
+	private void printHeader() {
+
+		final StringBuffer sb = new StringBuffer( 256 );
+		sb.append( "start(s),length(s),threads,rate,iterations,errors,bytesPerSec,count,avg(us)" );
+		// Merged rows hold the worst percentile of their records, which is
+		// not the percentile of the row, so say so
+		final String prefix = slice>0 ? ",maxP" : ",p";
+		for ( double percentile : TimeSeriesStore.PERCENTILES ) {
+			sb.append( prefix ).append( LatencyHistogram.describe( percentile ) ).append( "(us)" );
+		}
+		sb.append( ",max(us)" );
+		for ( int i = 0; i<rowWorkers.length; i++ ) {
+			sb.append( ",worker" ).append( i );
+		}
+		System.out.println( sb.toString() );
+
+	}
+
+	/**
+	 * Prints the current row, if any, and empties it.
+	 */
+	private void flush() {
+
+		if ( rowStart<0 ) {
+			return;
+		}
+		final StringBuffer sb = new StringBuffer( 256 );
+		sb.append( numberFormat.format( rowStart/1000d ) );
+		sb.append( ',' ).append( numberFormat.format( rowLength/1000d ) );
+		sb.append( ',' ).append( rowThreads );
+		sb.append( ',' ).append( rowLength>0 ? numberFormat.format( rowIterations*1000d/rowLength ) : "" );
+		sb.append( ',' ).append( rowIterations );
+		sb.append( ',' ).append( rowErrors );
+		sb.append( ',' ).append( rowLength>0 ? numberFormat.format( rowBytes*1000d/rowLength ) : "" );
+		sb.append( ',' ).append( rowCount );
+		sb.append( ',' ).append( rowCount>0 ? numberFormat.format( (double)rowTotalTime/rowCount ) : "" );
+		for ( long value : rowPercentiles ) {
+			sb.append( ',' ).append( value>=0 ? numberFormat.format( value/1000d ) : "" );
+		}
+		sb.append( ',' ).append( rowMaxTime>=0 ? numberFormat.format( rowMaxTime/1000d ) : "" );
+		for ( long value : rowWorkers ) {
+			sb.append( ',' ).append( value );
+		}
+		System.out.println( sb.toString() );
+
+		rowStart = -1;
+		rowLength = 0;
+		rowThreads = 0;
+		rowIterations = 0;
+		rowErrors = 0;
+		rowBytes = 0;
+		rowCount = 0;
+		rowTotalTime = 0;
+		Arrays.fill( rowPercentiles, -1 );
+		rowMaxTime = -1;
+		Arrays.fill( rowWorkers, 0 );
+
+	}
+
+}
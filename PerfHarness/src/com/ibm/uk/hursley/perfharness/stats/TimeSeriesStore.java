@@ -0,0 +1,372 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+/*
+
+ * PerfHarness $Name$
+ */
+package com.ibm.uk.hursley.perfharness.stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.logging.Level;
+
+import com.ibm.uk.hursley.perfharness.Config;
+import com.ibm.uk.hursley.perfharness.ControlThread;
+import com.ibm.uk.hursley.perfharness.Copyright;
+import com.ibm.uk.hursley.perfharness.Log;
+import com.ibm.uk.hursley.perfharness.WorkerThread;
+
+/**
+ * Appends a fixed-width binary record of every statistics interval (-ss) to
+ * a memory-mapped file (-zb), for soak tests too long for text output. Use
+ * PerfHarnessTimeSeries to downsample or export a range of it.
+ * <p>
+ * The file is a header page followed by chunks. Each chunk is an index block
+ * (the time range and totals of the chunk) followed by room for
+ * CHUNK_RECORDS records. A chunk is mapped when its first record is written,
+ * so writing a record is only a few stores to memory; the operating system
+ * writes the pages back in its own time. The header holds the number of
+ * complete records, which is updated after each record, so a reader never
+ * sees one half written.
+ * <p>
+ * A record holds the time and length of the interval, the running threads,
+ * iterations, errors and bytes of all workers, the count and total of the
+ * response times with their 50th, 90th, 99th and 99.9th percentiles and
+ * maximum (nanoseconds, -1 if none), then the iterations of each of the
+ * first <i>slots</i> workers (-nt). Workers added beyond those are counted in
+ * the totals only.
+ * <p>
+ * An existing file of the same layout is appended to.
+ */
+public final class TimeSeriesStore extends TimerTask {
+
+	@SuppressWarnings("unused")
+	private static final String c = Copyright.COPYRIGHT;
+
+	static final int MAGIC = 0x50485453; // "PHTS"
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 4096;
+	static final int INDEX_SIZE = 64;
+	static final int CHUNK_RECORDS = 1024;
+
+	// Header fields
+	static final int H_MAGIC = 0;
+	static final int H_VERSION = 4;
+	static final int H_RECORD_SIZE = 8;
+	static final int H_SLOTS = 12;
+	static final int H_CHUNK_RECORDS = 16;
+	static final int H_INTERVAL = 20;
+	static final int H_START_TIME = 24;
+	static final int H_RECORDS = 32;
+
+	// Index block fields
+	static final int I_FIRST_TIME = 0;
+	static final int I_LAST_TIME = 8;
+	static final int I_RECORDS = 16;
+	static final int I_ITERATIONS = 24;
+	static final int I_ERRORS = 32;
+	static final int I_MAX_TIME = 40;
+
+	// Record fields
+	static final int R_TIME = 0;
+	static final int R_LENGTH = 8;
+	static final int R_THREADS = 12;
+	static final int R_ITERATIONS = 16;
+	static final int R_ERRORS = 24;
+	static final int R_BYTES = 32;
+	static final int R_COUNT = 40;
+	static final int R_TOTAL_TIME = 48;
+	static final int R_PERCENTILES = 56;
+	static final int R_MAX_TIME = R_PERCENTILES + 8 * 4;
+	static final int R_WORKERS = R_MAX_TIME + 8;
+
+	/**
+	 * The percentiles held in every record.
+	 */
+	static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final ControlThread parent;
+	private final List<WorkerThread> workers;
+	private final String fileName;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final int slots;
+	private final int recordSize;
+	private final int intervalLength;
+	private long records;
+	private MappedByteBuffer chunk = null;
+
+	// Totals at the previous record
+	private long[] previous = new long[0];
+	private long previousErrors = 0;
+	private long previousBytes = 0;
+	private long previousTotalTime = 0;
+	private final long[] histogram = new long[LatencyHistogram.BUCKETS];
+	private final long[] histogramPrevious = new long[LatencyHistogram.BUCKETS];
+	private long intervalStart;
+	private boolean closed = false;
+
+	/**
+	 * Register our presence and look up any required parameters for this class.
+	 * @see Config#registerSelf(Class)
+	 */
+	public static void registerConfig() {
+
+		Config.registerSelf( TimeSeriesStore.class );
+
+		if ( !Config.isInvalid() && Config.parms.getString( "zb" ).length()>0 ) {
+			if ( Config.parms.getInt( "ss" )<=0 ) {
+				Config.logger.warning( "A time series store (-zb) requires a statistics interval (-ss)." );
+			}
+		}
+
+	}
+
+	/**
+	 * @return A store of the given ControlThread's workers, or null if none is
+	 *         configured.
+	 */
+	public static TimeSeriesStore open( ControlThread parent ) {
+
+		final String fileName = Config.parms.getString( "zb" );
+		if ( fileName.length()==0 ) {
+			return null;
+		}
+		try {
+			return new TimeSeriesStore( parent, fileName );
+		} catch ( IOException e ) {
+			Log.logger.log( Level.SEVERE, "Cannot open time series store " + fileName, e );
+			return null;
+		}
+
+	}
+
+	private TimeSeriesStore( ControlThread parent, String fileName ) throws IOException {
+
+		this.parent = parent;
+		this.workers = parent.getWorkers();
+		this.fileName = fileName;
+		this.intervalLength = Config.parms.getInt( "ss" ) * 1000;
+		final long length = new File( fileName ).length();
+		if ( length>0 && length<HEADER_SIZE ) {
+			throw new IOException( fileName + " is not a time series store" );
+		}
+		final boolean exists = length>0;
+		file = new RandomAccessFile( fileName, "rw" );
+		try {
+			channel = file.getChannel();
+			header = channel.map( FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE );
+			if ( exists ) {
+				checkHeader( header, fileName );
+				slots = header.getInt( H_SLOTS );
+				recordSize = header.getInt( H_RECORD_SIZE );
+				records = header.getLong( H_RECORDS );
+			} else {
+				slots = Math.max( 1, Config.parms.getInt( "nt" ) );
+				recordSize = recordSize( slots );
+				records = 0;
+				header.putInt( H_MAGIC, MAGIC );
+				header.putInt( H_VERSION, VERSION );
+				header.putInt( H_RECORD_SIZE, recordSize );
+				header.putInt( H_SLOTS, slots );
+				header.putInt( H_CHUNK_RECORDS, CHUNK_RECORDS );
+				header.putInt( H_INTERVAL, intervalLength );
+				header.putLong( H_START_TIME, System.currentTimeMillis() );
+				header.putLong( H_RECORDS, 0 );
+			}
+		} catch ( IOException e ) {
+			file.close();
+			throw e;
+		}
+
+	}
+
+	/**
+	 * @return The size of a record with the given number of worker slots,
+	 *         rounded up to a whole number of longs.
+	 */
+	static int recordSize( int slots ) {
+		return (R_WORKERS + 4 * slots + 7) & ~7;
+	}
+
+	/**
+	 * @return The offset in the file of the given chunk's index block.
+	 */
+	static long chunkOffset( long chunk, int recordSize ) {
+		return HEADER_SIZE + chunk * (INDEX_SIZE + (long)CHUNK_RECORDS * recordSize);
+	}
+
+	/**
+	 * @throws IOException If the header is not that of a time series store
+	 *         this version can read.
+	 */
+	static void checkHeader( ByteBuffer header, String fileName ) throws IOException {
+		if ( header.getInt( H_MAGIC )!=MAGIC ) {
+			throw new IOException( fileName + " is not a time series store" );
+		}
+		if ( header.getInt( H_VERSION )!=VERSION || header.getInt( H_CHUNK_RECORDS )!=CHUNK_RECORDS ) {
+			throw new IOException( fileName + " has an unsupported version (" + header.getInt( H_VERSION ) + ")" );
+		}
+	}
+
+	/**
+	 * Begins writing a record every -ss seconds.
+	 */
+	public synchronized void start() {
+		// Work done before now belongs to no record
+		final WorkerThread[] snapshot = workers.toArray( new WorkerThread[0] );
+		previous = new long[snapshot.length];
+		Arrays.fill( histogramPrevious, 0 );
+		for ( int i = 0; i<snapshot.length; i++ ) {
+			final WorkerThread worker = snapshot[i];
+			previous[i] = worker.getIterations();
+			previousErrors += worker.getErrors();
+			previousBytes += worker.getBytes();
+			previousTotalTime += worker.getOverallTotalTime();
+			if ( worker.getHistogram()!=null ) {
+				worker.getHistogram().addTo( histogramPrevious );
+			}
+		}
+		intervalStart = System.currentTimeMillis();
+		ControlThread.getTaskScheduler().schedule( this, intervalLength, intervalLength );
+	}
+
+	public void run() {
+		write();
+	}
+
+	/**
+	 * Writes the final (partial) interval and closes the store.
+	 */
+	public synchronized void close() {
+
+		cancel();
+		write();
+		closed = true;
+		header.force();
+		if ( chunk!=null ) {
+			chunk.force();
+		}
+		try {
+			file.close();
+		} catch ( IOException e ) {
+			Log.logger.log( Level.WARNING, "Cannot close time series store " + fileName, e );
+		}
+
+	}
+
+	private synchronized void write() {
+
+		if ( closed ) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		final int position = (int)(records % CHUNK_RECORDS);
+		if ( position==0 || chunk==null ) {
+			try {
+				chunk = channel.map( FileChannel.MapMode.READ_WRITE, chunkOffset( records / CHUNK_RECORDS, recordSize ), INDEX_SIZE + (long)CHUNK_RECORDS * recordSize );
+			} catch ( IOException e ) {
+				Log.logger.log( Level.SEVERE, "Cannot extend time series store " + fileName, e );
+				closed = true;
+				return;
+			}
+		}
+		final int offset = INDEX_SIZE + position * recordSize;
+
+		long iterations = 0;
+		long errors = 0;
+		long bytes = 0;
+		long totalTime = 0;
+		boolean timed = false;
+		final WorkerThread[] snapshot = workers.toArray( new WorkerThread[0] );
+		if ( previous.length<snapshot.length ) {
+			previous = Arrays.copyOf( previous, snapshot.length );
+		}
+		Arrays.fill( histogram, 0 );
+		for ( int i = 0; i<snapshot.length; i++ ) {
+			final WorkerThread worker = snapshot[i];
+			final long count = worker.getIterations();
+			final long diff = count - previous[i];
+			previous[i] = count;
+			iterations += diff;
+			if ( i<slots ) {
+				chunk.putInt( offset + R_WORKERS + 4*i, (int)diff );
+			}
+			errors += worker.getErrors();
+			bytes += worker.getBytes();
+			totalTime += worker.getOverallTotalTime();
+			if ( worker.getHistogram()!=null ) {
+				worker.getHistogram().addTo( histogram );
+				timed = true;
+			}
+		}
+		for ( int i = snapshot.length; i<slots; i++ ) {
+			chunk.putInt( offset + R_WORKERS + 4*i, 0 );
+		}
+
+		long timedCount = 0;
+		long maxTime = -1;
+		if ( timed ) {
+			for ( int i = 0; i<histogram.length; i++ ) {
+				final long total = histogram[i];
+				histogram[i] -= histogramPrevious[i];
+				histogramPrevious[i] = total;
+				if ( histogram[i]!=0 ) {
+					timedCount += histogram[i];
+					maxTime = LatencyHistogram.valueOf( i );
+				}
+			}
+		}
+
+		chunk.putLong( offset + R_TIME, now );
+		chunk.putInt( offset + R_LENGTH, (int)(now - intervalStart) );
+		chunk.putInt( offset + R_THREADS, parent.getRunningWorkers() );
+		chunk.putLong( offset + R_ITERATIONS, iterations );
+		chunk.putLong( offset + R_ERRORS, errors - previousErrors );
+		chunk.putLong( offset + R_BYTES, bytes - previousBytes );
+		chunk.putLong( offset + R_COUNT, timedCount );
+		chunk.putLong( offset + R_TOTAL_TIME, totalTime - previousTotalTime );
+		for ( int i = 0; i<PERCENTILES.length; i++ ) {
+			chunk.putLong( offset + R_PERCENTILES + 8*i, timedCount>0 ? LatencyHistogram.percentile( histogram, PERCENTILES[i] ) : -1 );
+		}
+		chunk.putLong( offset + R_MAX_TIME, maxTime );
+
+		// Index block
+		if ( position==0 ) {
+			chunk.putLong( I_FIRST_TIME, now );
+			chunk.putLong( I_ITERATIONS, 0 );
+			chunk.putLong( I_ERRORS, 0 );
+			chunk.putLong( I_MAX_TIME, -1 );
+		}
+		chunk.putLong( I_LAST_TIME, now );
+		chunk.putLong( I_ITERATIONS, chunk.getLong( I_ITERATIONS ) + iterations );
+		chunk.putLong( I_ERRORS, chunk.getLong( I_ERRORS ) + errors - previousErrors );
+		chunk.putLong( I_MAX_TIME, Math.max( chunk.getLong( I_MAX_TIME ), maxTime ) );
+		chunk.putInt( I_RECORDS, position+1 );
+
+		// Commit the record
+		header.putLong( H_RECORDS, ++records );
+
+		previousErrors = errors;
+		previousBytes = bytes;
+		previousTotalTime = totalTime;
+		intervalStart = now;
+
+	}
+
+}
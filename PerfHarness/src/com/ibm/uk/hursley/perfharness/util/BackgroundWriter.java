@@ -0,0 +1,135 @@
+/********************************************************* {COPYRIGHT-TOP} ***
+* Copyright 2016 IBM Corporation
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the MIT License
+* which accompanies this distribution, and is available at
+* http://opensource.org/licenses/MIT
+********************************************************** {COPYRIGHT-END} **/
+package com.ibm.uk.hursley.perfharness.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+
+import com.ibm.uk.hursley.perfharness.Log;
+
+/**
+ * Appends lines to a file which is held open for the life of the writer. The
+ * file is written by a daemon thread, so callers (typically timer tasks)
+ * never wait for the disk. Output is flushed whenever the thread has no more
+ * lines waiting.
+ */
+public final class BackgroundWriter extends Thread {
+
+	private static final String END = new String( "END" );
+
+	private final String fileName;
+	private final Writer out;
+	private final boolean empty;
+	private final BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+	private volatile boolean failed = false;
+
+	/**
+	 * Opens (or creates) the file for appending and starts the writer thread.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public BackgroundWriter( String fileName ) throws IOException {
+
+		super( "PerfHarnessWriter-" + new File( fileName ).getName() );
+		this.fileName = fileName;
+		empty = new File( fileName ).length()==0;
+		out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( fileName, true ), "UTF-8" ), 64*1024 );
+		setDaemon( true );
+		start();
+
+	}
+
+	/**
+	 * @return true if the file was empty (or new) when it was opened, so any
+	 *         header is still to be written.
+	 */
+	public boolean wasEmpty() {
+		return empty;
+	}
+
+	/**
+	 * Queues a line (without its line separator) to be written.
+	 */
+	public void println( String line ) {
+		if ( !failed ) {
+			queue.add( line );
+		}
+	}
+
+	/**
+	 * Writes any queued lines and closes the file.
+	 */
+	public void close() {
+
+		queue.add( END );
+		try {
+			join( 30 * 1000 );
+		} catch ( InterruptedException e ) {
+			// Swallowed
+		}
+		if ( isAlive() ) {
+			Log.logger.log( Level.WARNING, "Timed out writing {0}", fileName );
+		}
+
+	}
+
+	public void run() {
+
+		try {
+			while ( true ) {
+				String line = queue.take();
+				while ( line!=null ) {
+					if ( line==END ) {
+						return;
+					}
+					if ( !failed ) {
+						try {
+							out.write( line );
+							out.write( '\n' );
+						} catch ( IOException e ) {
+							Log.logger.log( Level.SEVERE, "Cannot write to " + fileName, e );
+							failed = true;
+							queue.clear();
+						}
+					}
+					line = queue.poll();
+				}
+				flush();
+			}
+		} catch ( InterruptedException e ) {
+			// Swallowed, we are ending
+		} finally {
+			flush();
+			try {
+				out.close();
+			} catch ( IOException e ) {
+				Log.logger.log( Level.WARNING, "Cannot close " + fileName, e );
+			}
+		}
+
+	}
+
+	private void flush() {
+		if ( !failed ) {
+			try {
+				out.flush();
+			} catch ( IOException e ) {
+				Log.logger.log( Level.SEVERE, "Cannot write to " + fileName, e );
+				failed = true;
+			}
+		}
+	}
+
+}
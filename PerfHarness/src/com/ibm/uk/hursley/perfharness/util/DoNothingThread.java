@@ -34,19 +34,19 @@ public final class DoNothingThread extends WorkerThread {
 
         try {
         	
-            status = sRUNNING;
+            setStatus(sRUNNING);
             waitForShutdownSignal();           
 
             // Handle a fatal error
         } catch (Exception e) {
 
-			status |= sERROR;
+			setStatus(status | sERROR);
             ControlThread.signalShutdown();
 
             // Clear up code carefully in fair weather or foul.	
         } finally {
         	
-           	status = (status&sERROR)|sENDED;
+           	setStatus((status&sERROR)|sENDED);
        	}
 
     } // End public void run()
@@ -37,19 +37,19 @@ public final class NoOpThread extends WorkerThread implements Paceable {
 
         try {
         	
-            status = sRUNNING;
+            setStatus(sRUNNING);
             pace( this );           
 
             // Handle a fatal error
         } catch (Exception e) {
 
-			status |= sERROR;
+			setStatus(status | sERROR);
             ControlThread.signalShutdown();
 
             // Clear up code carefully in fair weather or foul.	
         } finally {
         	
-           	status = (status&sERROR)|sENDED;
+           	setStatus((status&sERROR)|sENDED);
        	}
 
     } // End public void run()